@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.contrib;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import android.support.test.espresso.TransitionReportingIdlingResource.TransitionCallback;
+
+import android.test.InstrumentationTestCase;
+
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Unit tests for {@link IdlingResourceGroup}. */
+public class IdlingResourceGroupTest extends InstrumentationTestCase {
+
+  private IdlingResourceGroup group;
+  private CountingIdlingResource first;
+  private CountingIdlingResource second;
+
+  @Mock
+  private TransitionCallback mockCallback;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    initMocks(this);
+    group = new IdlingResourceGroup("group");
+    first = new CountingIdlingResource("first");
+    second = new CountingIdlingResource("second");
+    group.registerTransitionCallback(mockCallback);
+  }
+
+  public void testTransitionsOncePerGroupChange() {
+    assertTrue(group.add(first));
+    assertTrue(group.add(second));
+    assertTrue(group.isIdleNow());
+
+    first.increment();
+    second.increment();
+    first.increment();
+    assertFalse(group.isIdleNow());
+    verify(mockCallback).onTransitionToBusy();
+
+    first.decrement();
+    first.decrement();
+    assertFalse(group.isIdleNow());
+    verify(mockCallback, never()).onTransitionToIdle();
+
+    second.decrement();
+    assertTrue(group.isIdleNow());
+    verify(mockCallback).onTransitionToIdle();
+  }
+
+  public void testAddBusyChild() {
+    first.increment();
+    assertTrue(group.add(first));
+    assertFalse(group.isIdleNow());
+    verify(mockCallback).onTransitionToBusy();
+
+    // already accounted for when it was added.
+    first.increment();
+    verify(mockCallback, times(1)).onTransitionToBusy();
+    first.decrement();
+    first.decrement();
+    verify(mockCallback).onTransitionToIdle();
+  }
+
+  public void testRemoveBusyChild() {
+    group.add(first);
+    group.add(second);
+    first.increment();
+    assertTrue(group.remove(first));
+    assertTrue(group.isIdleNow());
+    verify(mockCallback).onTransitionToIdle();
+
+    // a removed child no longer affects the group.
+    first.decrement();
+    first.increment();
+    assertTrue(group.isIdleNow());
+    verify(mockCallback, times(1)).onTransitionToBusy();
+  }
+
+  public void testConcurrentChildTransitions() throws Exception {
+    group.add(first);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> hammers = new ArrayList<Future<?>>();
+      for (int i = 0; i < 4; i++) {
+        hammers.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int j = 0; j < 10000; j++) {
+              first.increment();
+              first.decrement();
+            }
+          }
+        }));
+      }
+      for (Future<?> hammer : hammers) {
+        hammer.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(first.isIdleNow());
+    assertTrue("Transitions reported out of order should leave the group idle",
+        group.isIdleNow());
+  }
+
+  public void testAddAndRemoveReturnValue() {
+    assertTrue(group.add(first));
+    assertFalse(group.add(first));
+    assertFalse(group.remove(second));
+    assertTrue(group.remove(first));
+    assertFalse(group.remove(first));
+    assertTrue(group.getChildren().isEmpty());
+  }
+
+  public void testNestedGroups() {
+    IdlingResourceGroup inner = new IdlingResourceGroup("inner");
+    inner.add(first);
+    group.add(inner);
+    group.add(second);
+
+    first.increment();
+    assertFalse(inner.isIdleNow());
+    assertFalse(group.isIdleNow());
+    first.decrement();
+    assertTrue(group.isIdleNow());
+    verify(mockCallback).onTransitionToBusy();
+    verify(mockCallback).onTransitionToIdle();
+  }
+}
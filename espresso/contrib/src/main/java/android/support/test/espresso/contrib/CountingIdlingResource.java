@@ -20,6 +20,7 @@ import static android.support.test.espresso.contrib.Checks.checkNotNull;
 import static android.support.test.espresso.contrib.Checks.checkState;
 
 import android.support.test.espresso.IdlingResource;
+import android.support.test.espresso.TransitionReportingIdlingResource;
 
 import android.os.SystemClock;
 import android.util.Log;
@@ -92,7 +93,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  */
 @SuppressWarnings("javadoc")
-public final class CountingIdlingResource implements IdlingResource {
+public final class CountingIdlingResource implements TransitionReportingIdlingResource {
   private static final String TAG = "CountingIdlingResource";
   private final String resourceName;
   private final AtomicInteger counter = new AtomicInteger(0);
@@ -100,6 +101,7 @@ public final class CountingIdlingResource implements IdlingResource {
 
   // written from main thread, read from any thread.
   private volatile ResourceCallback resourceCallback;
+  private volatile TransitionCallback transitionCallback;
 
   // read/written from any thread - used for debugging messages.
   private volatile long becameBusyAt = 0;
@@ -140,6 +142,12 @@ public final class CountingIdlingResource implements IdlingResource {
     this.resourceCallback = resourceCallback;
   }
 
+  @Override
+  public void registerTransitionCallback(TransitionCallback transitionCallback) {
+    this.transitionCallback = transitionCallback;
+    this.resourceCallback = transitionCallback;
+  }
+
   /**
    * Increments the count of in-flight transactions to the resource being monitored.
    *
@@ -149,6 +157,10 @@ public final class CountingIdlingResource implements IdlingResource {
     int counterVal = counter.getAndIncrement();
     if (0 == counterVal) {
       becameBusyAt = SystemClock.uptimeMillis();
+      // we've gone from zero to non-zero. Tell espresso we're busy.
+      if (null != transitionCallback) {
+        transitionCallback.onTransitionToBusy();
+      }
     }
 
     if (debugCounting) {
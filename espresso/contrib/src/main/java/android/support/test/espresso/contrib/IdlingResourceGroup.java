@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.contrib;
+
+import static android.support.test.espresso.contrib.Checks.checkNotNull;
+
+import android.support.test.espresso.IdlingResource;
+import android.support.test.espresso.TransitionReportingIdlingResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IdlingResource} which is busy for as long as any of its children is busy.
+ * <p>
+ * Related resources - e.g. one {@link CountingIdlingResource} per repository of a data layer - can
+ * be grouped and registered with Espresso as a single resource. Espresso then keeps one entry and
+ * receives one transition per change of the whole group, rather than one per child. Children may
+ * be added and removed from any thread at any time, without involving Espresso.
+ * </p>
+ * <p>
+ * Children must report their transitions themselves, the group only checks a child's state when
+ * it's added or reports a transition. A child is given a callback by the group and so must not be
+ * registered with Espresso, or with another group, directly. Groups may be nested.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ *   IdlingResourceGroup dataLayer = new IdlingResourceGroup("DataLayer");
+ *   dataLayer.add(fooRepository.getIdlingResource());
+ *   dataLayer.add(barRepository.getIdlingResource());
+ *   Espresso.registerIdlingResources(dataLayer);
+ * }
+ * </pre>
+ */
+public final class IdlingResourceGroup implements TransitionReportingIdlingResource {
+  private final String resourceName;
+  // number of busy children, changed under lock so the group's transitions go out in order.
+  private final AtomicInteger busyChildren = new AtomicInteger(0);
+  private final Object lock = new Object();
+  // guarded by lock.
+  private final Map<TransitionReportingIdlingResource, ChildCallback> children =
+      new HashMap<TransitionReportingIdlingResource, ChildCallback>();
+
+  // written from main thread, read from any thread.
+  private volatile ResourceCallback resourceCallback;
+  private volatile TransitionCallback transitionCallback;
+
+  public IdlingResourceGroup(String resourceName) {
+    this.resourceName = checkNotNull(resourceName);
+  }
+
+  @Override
+  public String getName() {
+    return resourceName;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    return busyChildren.get() == 0;
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  @Override
+  public void registerTransitionCallback(TransitionCallback transitionCallback) {
+    this.transitionCallback = transitionCallback;
+    this.resourceCallback = transitionCallback;
+  }
+
+  /**
+   * Adds a child to the group. The group becomes busy right away if the child is busy.
+   *
+   * This method can be called from any thread.
+   *
+   * @return {@code false} if the child is already part of the group
+   */
+  public boolean add(TransitionReportingIdlingResource child) {
+    checkNotNull(child);
+    synchronized (lock) {
+      if (children.containsKey(child)) {
+        return false;
+      }
+      ChildCallback callback = new ChildCallback(child);
+      children.put(child, callback);
+      child.registerTransitionCallback(callback);
+      // polled after registering, transitions reported meanwhile wait for the lock and are then
+      // ignored as already accounted for.
+      if (!child.isIdleNow()) {
+        callback.busy = true;
+        childBusied();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Removes a child from the group. The group becomes idle right away if the child was the last
+   * busy one.
+   *
+   * This method can be called from any thread.
+   *
+   * @return {@code false} if the child isn't part of the group
+   */
+  public boolean remove(TransitionReportingIdlingResource child) {
+    synchronized (lock) {
+      ChildCallback callback = children.remove(child);
+      if (null == callback) {
+        return false;
+      }
+      callback.removed = true;
+      if (callback.busy) {
+        callback.busy = false;
+        childIdled();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the children of the group.
+   */
+  public List<TransitionReportingIdlingResource> getChildren() {
+    synchronized (lock) {
+      return new ArrayList<TransitionReportingIdlingResource>(children.keySet());
+    }
+  }
+
+  // called under lock.
+  private void childBusied() {
+    if (busyChildren.incrementAndGet() == 1 && null != transitionCallback) {
+      transitionCallback.onTransitionToBusy();
+    }
+  }
+
+  // called under lock.
+  private void childIdled() {
+    if (busyChildren.decrementAndGet() == 0 && null != resourceCallback) {
+      resourceCallback.onTransitionToIdle();
+    }
+  }
+
+  /**
+   * Counts a child in or out of the busy children. A child changing state on several threads may
+   * report its transitions out of order, so each one is confirmed against the child's current
+   * state first and the last report to arrive always leaves the correct state behind.
+   */
+  private class ChildCallback implements TransitionCallback {
+    private final TransitionReportingIdlingResource child;
+    // guarded by lock.
+    private boolean busy = false;
+    private boolean removed = false;
+
+    private ChildCallback(TransitionReportingIdlingResource child) {
+      this.child = child;
+    }
+
+    @Override
+    public void onTransitionToBusy() {
+      synchronized (lock) {
+        if (!removed && !busy && !child.isIdleNow()) {
+          busy = true;
+          childBusied();
+        }
+      }
+    }
+
+    @Override
+    public void onTransitionToIdle() {
+      synchronized (lock) {
+        if (!removed && busy && child.isIdleNow()) {
+          busy = false;
+          childIdled();
+        }
+      }
+    }
+  }
+}
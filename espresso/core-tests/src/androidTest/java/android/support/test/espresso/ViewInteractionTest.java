@@ -29,6 +29,8 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 import android.support.test.runner.lifecycle.ActivityLifecycleMonitor;
 import android.support.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import android.support.test.espresso.base.SyncProfiler;
+import android.support.test.espresso.base.ViewFinderImpl;
 import android.support.test.espresso.matcher.RootMatchers;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -40,6 +42,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /** Unit tests for {@link ViewInteraction}. */
@@ -220,6 +223,9 @@ public class ViewInteractionTest extends AndroidTestCase {
         testExecutor,
         failureHandler,
         viewMatcher,
-        rootMatcherRef);
+        rootMatcherRef,
+        new AtomicReference<Matcher<View>>(),
+        new AtomicInteger(ViewFinderImpl.UNIQUE_MATCH),
+        new SyncProfiler());
   }
 }
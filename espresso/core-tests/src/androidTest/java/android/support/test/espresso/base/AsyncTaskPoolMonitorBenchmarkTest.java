@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of waiting for a busy pool to idle with the blocking barrier tasks of
+ * {@link AsyncTaskPoolMonitor} and with a {@link CountingExecutor}.
+ */
+@Benchmark
+public class AsyncTaskPoolMonitorBenchmarkTest extends TestCase {
+
+  private static final String NAME = "AsyncTaskPoolMonitor";
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 50;
+  private static final int TASKS_PER_THREAD = 4;
+  private static final long TASK_MILLIS = 2;
+
+  public void testOneCoreThread() throws Exception {
+    compare(1);
+  }
+
+  public void testFourCoreThreads() throws Exception {
+    compare(4);
+  }
+
+  public void testSixteenCoreThreads() throws Exception {
+    compare(16);
+  }
+
+  private void compare(int coreThreads) throws Exception {
+    ThreadPoolExecutor barrierPool = newPool(coreThreads);
+    ThreadPoolExecutor countedPool = newPool(coreThreads);
+    try {
+      CountingExecutor counter = new CountingExecutor(countedPool);
+      Result barrier = run(barrierPool, new AsyncTaskPoolMonitor(barrierPool), barrierPool);
+      Result counted = run(countedPool, new AsyncTaskPoolMonitor(countedPool, counter), counter);
+      report(NAME, "%s core threads, %s tasks of %sms per round: barrier %sus per round and %s "
+          + "extra tasks, counting %sus per round and %s extra tasks.",
+          coreThreads, coreThreads * TASKS_PER_THREAD, TASK_MILLIS,
+          barrier.nanosPerRound / 1000, barrier.extraTasks,
+          counted.nanosPerRound / 1000, counted.extraTasks);
+    } finally {
+      barrierPool.shutdownNow();
+      countedPool.shutdownNow();
+    }
+  }
+
+  private static ThreadPoolExecutor newPool(int coreThreads) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(coreThreads, coreThreads, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>());
+    pool.prestartAllCoreThreads();
+    return pool;
+  }
+
+  /**
+   * Times rounds of submitting work and waiting for the monitor to report the pool idle.
+   */
+  private static Result run(ThreadPoolExecutor pool, final AsyncTaskPoolMonitor monitor,
+      final Executor submitTo) throws Exception {
+    final int tasksPerRound = pool.getCorePoolSize() * TASKS_PER_THREAD;
+    final Runnable work = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(TASK_MILLIS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    long tasksBefore = pool.getTaskCount();
+    Result result = new Result();
+    result.nanosPerRound = nanosPerRun(WARMUP_ROUNDS, ROUNDS, new Body() {
+      @Override
+      public void run() throws Exception {
+        for (int i = 0; i < tasksPerRound; i++) {
+          submitTo.execute(work);
+        }
+        final CountDownLatch idle = new CountDownLatch(1);
+        monitor.notifyWhenIdle(new Runnable() {
+          @Override
+          public void run() {
+            idle.countDown();
+          }
+        });
+        assertTrue("Pool never went idle", idle.await(10, TimeUnit.SECONDS));
+        monitor.cancelIdleMonitor();
+      }
+    });
+    long rounds = WARMUP_ROUNDS + ROUNDS;
+    result.extraTasks = (pool.getTaskCount() - tasksBefore - tasksPerRound * rounds) / rounds;
+    return result;
+  }
+
+  private static class Result {
+    private long nanosPerRound;
+    private long extraTasks;
+  }
+}
@@ -176,4 +176,84 @@ public class AsyncTaskPoolMonitorTest extends TestCase {
     assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
     assertTrue(monitor.isIdleNow());
   }
+
+  public void testIdleNotification_countedTasksDontBlockThePool() throws Exception {
+    CountingExecutor counter = new CountingExecutor(testThreadPool);
+    AsyncTaskPoolMonitor countingMonitor = new AsyncTaskPoolMonitor(testThreadPool, counter);
+    final CountDownLatch runLatch = new CountDownLatch(1);
+    final CountDownLatch exitLatch = new CountDownLatch(1);
+    counter.execute(new Runnable() {
+      @Override
+      public void run() {
+        runLatch.countDown();
+        try {
+          exitLatch.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+    assertTrue(runLatch.await(1, TimeUnit.SECONDS));
+    assertFalse(countingMonitor.isIdleNow());
+
+    final CountDownLatch notificationLatch = new CountDownLatch(1);
+    countingMonitor.notifyWhenIdle(new Runnable() {
+      @Override
+      public void run() {
+        notificationLatch.countDown();
+      }
+    });
+    assertFalse(notificationLatch.await(100, TimeUnit.MILLISECONDS));
+    exitLatch.countDown();
+    assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
+    // nothing but the counted task went through the pool.
+    assertEquals(1, testThreadPool.getTaskCount());
+  }
+
+  public void testIsIdleNow_countingOnlySeesCountedTasks() throws Exception {
+    CountingExecutor counter = new CountingExecutor(testThreadPool);
+    AsyncTaskPoolMonitor countingMonitor = new AsyncTaskPoolMonitor(testThreadPool, counter);
+    final CountDownLatch exitLatch = new CountDownLatch(1);
+    final CountDownLatch runLatch = new CountDownLatch(1);
+    testThreadPool.submit(new Runnable() {
+      @Override
+      public void run() {
+        runLatch.countDown();
+        try {
+          exitLatch.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+    assertTrue(runLatch.await(1, TimeUnit.SECONDS));
+    // tasks submitted to the pool directly are not counted.
+    assertTrue(countingMonitor.isIdleNow());
+    countingMonitor.setCounter(null);
+    assertFalse(countingMonitor.isIdleNow());
+    exitLatch.countDown();
+  }
+
+  public void testIsIdleNow_idleOnceLastCountedTaskCompleted() throws Exception {
+    final CountingExecutor counter = new CountingExecutor(testThreadPool);
+    final AsyncTaskPoolMonitor countingMonitor =
+        new AsyncTaskPoolMonitor(testThreadPool, counter);
+    final CountDownLatch notificationLatch = new CountDownLatch(1);
+    final AtomicBoolean idleWhenNotified = new AtomicBoolean();
+    for (int i = 0; i < 10; i++) {
+      counter.execute(new Runnable() {
+        @Override
+        public void run() { }
+      });
+    }
+    countingMonitor.notifyWhenIdle(new Runnable() {
+      @Override
+      public void run() {
+        idleWhenNotified.set(countingMonitor.isIdleNow());
+        notificationLatch.countDown();
+      }
+    });
+    assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(idleWhenNotified.get());
+  }
 }
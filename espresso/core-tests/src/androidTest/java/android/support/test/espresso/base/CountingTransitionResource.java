@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.TransitionReportingIdlingResource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link TransitionReportingIdlingResource} for testing that is busy while its counter is
+ * non-zero and, like a counting resource in an app, reports its transitions after changing the
+ * counter without any further ordering.
+ */
+public class CountingTransitionResource implements TransitionReportingIdlingResource {
+  private final AtomicInteger counter = new AtomicInteger(0);
+  private volatile TransitionCallback callback;
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback callback) {
+    throw new UnsupportedOperationException("Expected to be tracked by its transitions.");
+  }
+
+  @Override
+  public void registerTransitionCallback(TransitionCallback callback) {
+    this.callback = callback;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    return counter.get() == 0;
+  }
+
+  @Override
+  public String getName() {
+    return "counting";
+  }
+
+  public void increment() {
+    if (counter.getAndIncrement() == 0 && callback != null) {
+      callback.onTransitionToBusy();
+    }
+  }
+
+  public void decrement() {
+    if (counter.decrementAndGet() == 0 && callback != null) {
+      callback.onTransitionToIdle();
+    }
+  }
+}
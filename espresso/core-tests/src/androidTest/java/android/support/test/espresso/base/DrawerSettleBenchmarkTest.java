@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.testapp.DrawerActivity;
+import android.support.test.testapp.R;
+import android.support.v4.view.GravityCompat;
+import android.support.v4.widget.DrawerLayout;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+/**
+ * Compares waiting for the drawer animation by polling in fixed slices with waiting for the UI to
+ * settle.
+ */
+@Benchmark
+public class DrawerSettleBenchmarkTest extends ActivityInstrumentationTestCase2<DrawerActivity> {
+
+  private static final String NAME = "DrawerSettle";
+  private static final int ROUNDS = 5;
+  private static final long SLICE_MILLIS = 50;
+
+  public DrawerSettleBenchmarkTest() {
+    super(DrawerActivity.class);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    getActivity();
+  }
+
+  public void testOpenAndCloseDrawer() {
+    long polling = toggleDrawer(true);
+    long settled = toggleDrawer(false);
+    report(NAME, "Drawer open/close x%s: %sms polling in %sms slices, %sms settled.",
+        ROUNDS, polling, SLICE_MILLIS, settled);
+  }
+
+  private long toggleDrawer(boolean polling) {
+    long total = 0;
+    for (int i = 0; i < ROUNDS * 2; i++) {
+      final boolean open = i % 2 == 0;
+      SettleTimingAction<DrawerLayout> action =
+          new SettleTimingAction<DrawerLayout>(DrawerLayout.class, SLICE_MILLIS, polling) {
+            @Override
+            void start(DrawerLayout drawer) {
+              if (open) {
+                drawer.openDrawer(GravityCompat.START);
+              } else {
+                drawer.closeDrawer(GravityCompat.START);
+              }
+            }
+
+            @Override
+            boolean isDone(DrawerLayout drawer) {
+              return open == drawer.isDrawerOpen(GravityCompat.START)
+                  && open == drawer.isDrawerVisible(GravityCompat.START);
+            }
+          };
+      onView(withId(R.id.drawer_layout)).perform(action);
+      total += action.getElapsedMillis();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.matcher.ViewMatchers.Visibility;
+import android.support.test.espresso.util.TreeIterables;
+import com.google.common.collect.Lists;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.util.List;
+
+/** Unit tests for {@link HierarchySnapshot}. */
+public class HierarchySnapshotTest extends InstrumentationTestCase {
+
+  public void testCapture() {
+    Context context = getInstrumentation().getContext();
+    LinearLayout root = new LinearLayout(context);
+    LinearLayout gone = new LinearLayout(context);
+    gone.setVisibility(View.GONE);
+    TextView text = new TextView(context);
+    text.setText("Hello");
+    text.setId(1);
+    Button button = new Button(context);
+    button.setEnabled(false);
+    gone.addView(button);
+    root.addView(gone);
+    root.addView(text);
+    for (int i = 0; i < 100; i++) {
+      root.addView(new View(context));
+    }
+
+    HierarchySnapshot snapshot = HierarchySnapshot.capture(root);
+    List<View> views = Lists.newArrayList(TreeIterables.breadthFirstViewTraversal(root));
+    assertEquals(views.size(), snapshot.size());
+    for (int i = 0; i < views.size(); i++) {
+      assertSame(views.get(i), snapshot.getView(i));
+    }
+
+    HierarchySnapshot.Cursor cursor = snapshot.newCursor();
+    cursor.moveTo(views.indexOf(text));
+    assertEquals(1, cursor.getId());
+    assertEquals(TextView.class, cursor.getViewClass());
+    assertEquals("Hello", cursor.getText());
+    assertTrue(cursor.hasEffectiveVisibility(Visibility.VISIBLE));
+
+    cursor.moveTo(views.indexOf(button));
+    // buttons are text views.
+    assertEquals("", cursor.getText());
+    assertFalse(cursor.isEnabled());
+    assertTrue(cursor.isClickable());
+    assertTrue(cursor.hasEffectiveVisibility(Visibility.GONE));
+    assertFalse(cursor.hasEffectiveVisibility(Visibility.VISIBLE));
+    assertFalse(cursor.hasEffectiveVisibility(Visibility.INVISIBLE));
+
+    cursor.moveTo(0);
+    assertNull(cursor.getText());
+    assertTrue(cursor.isEnabled());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+
+import android.support.test.espresso.IdlingResource;
+import android.support.test.espresso.benchmark.Benchmark;
+import com.google.common.collect.Lists;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Benchmark of registering and unregistering many short-lived resources with
+ * {@link IdlingResourceRegistry}.
+ */
+@Benchmark
+public class IdlingResourceRegistryBenchmarkTest extends TestCase {
+
+  private static final String NAME = "IdlingResourceRegistry";
+  private static final int RESOURCES = 10000;
+
+  private HandlerThread registryThread;
+  private Handler handler;
+  private IdlingResourceRegistry registry;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    registryThread = new HandlerThread("registry-benchmark");
+    registryThread.start();
+    handler = new Handler(registryThread.getLooper());
+    registry = new IdlingResourceRegistry(registryThread.getLooper());
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    registryThread.quit();
+    super.tearDown();
+  }
+
+  public void testRegisterAndUnregister10kResources() throws Exception {
+    final List<IdlingResource> resources = newResources("batch");
+    final List<IdlingResource> shuffled = Lists.newArrayList(resources);
+    Collections.shuffle(shuffled, new Random(0));
+
+    long[] results = onRegistryThread(new Callable<long[]>() {
+      @Override
+      public long[] call() {
+        long start = System.nanoTime();
+        for (IdlingResource resource : resources) {
+          assertTrue(registry.registerResources(Collections.singletonList(resource)));
+        }
+        long registered = System.nanoTime();
+        for (IdlingResource resource : shuffled) {
+          assertTrue(registry.unregisterResources(Collections.singletonList(resource)));
+        }
+        return new long[] {registered - start, System.nanoTime() - registered};
+      }
+    });
+    assertTrue(registry.getResources().isEmpty());
+    report(NAME, "%s resources: register %sms, unregister in random order %sms.",
+        RESOURCES, results[0] / 1000000, results[1] / 1000000);
+  }
+
+  public void testChurnAgainstLongLivedResources() throws Exception {
+    final List<IdlingResource> longLived = newResources("long-lived");
+    final List<IdlingResource> shortLived = newResources("short-lived");
+
+    long[] results = onRegistryThread(new Callable<long[]>() {
+      @Override
+      public long[] call() {
+        registry.registerResources(longLived);
+        long start = System.nanoTime();
+        // one resource per request, registered and unregistered while the others stay.
+        for (IdlingResource resource : shortLived) {
+          List<IdlingResource> single = Collections.singletonList(resource);
+          assertTrue(registry.registerResources(single));
+          assertTrue(registry.unregisterResources(single));
+        }
+        return new long[] {System.nanoTime() - start};
+      }
+    });
+    assertEquals(RESOURCES, registry.getResources().size());
+    report(NAME, "%s register and unregister cycles next to %s resources: %sms.",
+        RESOURCES, RESOURCES, results[0] / 1000000);
+  }
+
+  private static List<IdlingResource> newResources(String prefix) {
+    List<IdlingResource> resources = Lists.newArrayListWithCapacity(RESOURCES);
+    for (int i = 0; i < RESOURCES; i++) {
+      OnDemandIdlingResource resource = new OnDemandIdlingResource(prefix + "-" + i);
+      resource.forceIdleNow();
+      resources.add(resource);
+    }
+    return resources;
+  }
+
+  private <T> T onRegistryThread(Callable<T> task) throws Exception {
+    FutureTask<T> futureTask = new FutureTask<T>(task);
+    handler.post(futureTask);
+    return futureTask.get();
+  }
+}
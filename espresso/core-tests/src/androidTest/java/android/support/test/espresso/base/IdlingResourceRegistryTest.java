@@ -17,12 +17,16 @@
 package android.support.test.espresso.base;
 
 import android.support.test.espresso.IdlingResource;
+import android.support.test.espresso.IdlingResourceStats;
 import android.support.test.espresso.base.IdlingResourceRegistry.IdleNotificationCallback;
 import com.google.common.collect.Lists;
 
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
+import android.os.SystemClock;
 import android.test.InstrumentationTestCase;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
@@ -30,7 +34,12 @@ import android.util.Log;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -176,6 +185,26 @@ public class IdlingResourceRegistryTest extends InstrumentationTestCase {
     assertEquals(registry.getResources().size(), 0);
   }
 
+  public void testGetResources_inRegistrationOrderWhenSlotsAreReused() throws Exception {
+    OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
+    OnDemandIdlingResource r2 = new OnDemandIdlingResource("r2");
+    OnDemandIdlingResource r3 = new OnDemandIdlingResource("r3");
+    OnDemandIdlingResource r4 = new OnDemandIdlingResource("r4");
+    r2.forceIdleNow();
+    r3.forceIdleNow();
+    registry.registerResources(Lists.newArrayList(r1, r2, r3));
+    registry.unregisterResources(Lists.newArrayList(r1));
+    // r4 takes the slot r1 held, but is still last in order.
+    registry.registerResources(Lists.newArrayList(r4));
+    assertEquals(Lists.newArrayList(r2, r3, r4), registry.getResources());
+
+    // a late message from r1 must not be taken for r4.
+    r1.forceIdleNow();
+    assertFalse(checkIdle());
+    r4.forceIdleNow();
+    assertTrue(checkIdle());
+  }
+
   public void testAllResourcesAreIdle() throws Exception {
     OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
     OnDemandIdlingResource r2 = new OnDemandIdlingResource("r2");
@@ -324,6 +353,355 @@ public class IdlingResourceRegistryTest extends InstrumentationTestCase {
     assertEquals(1, allResourcesIdleLatch.getCount());
   }
 
+  public void testAllResourcesAreIdle_tracksTransitionsWithoutPolling() throws Exception {
+    OnDemandTransitionResource tracked = new OnDemandTransitionResource("tracked");
+    OnDemandIdlingResource polled = new OnDemandIdlingResource("polled");
+    polled.forceIdleNow();
+    registry.registerResources(Lists.newArrayList(tracked, polled));
+    int pollsAtRegistration = tracked.getPollCount();
+
+    assertFalse(checkIdle());
+    assertEquals(pollsAtRegistration, tracked.getPollCount());
+    tracked.forceIdleNow();
+    assertTrue(checkIdleWithoutPolling(tracked));
+    tracked.forceBusyNow();
+    assertFalse(checkIdleWithoutPolling(tracked));
+    tracked.forceIdleNow();
+    assertTrue(checkIdleWithoutPolling(tracked));
+
+    tracked.forceBusyNow();
+    registry.unregisterResources(Lists.newArrayList(tracked));
+    assertTrue("A busy resource shouldn't count once unregistered", checkIdle());
+  }
+
+  public void testAllResourcesAreIdle_afterConcurrentTransitions() throws Exception {
+    final CountingTransitionResource counting = new CountingTransitionResource();
+    registry.registerResources(Lists.newArrayList(counting));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> hammers = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        hammers.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int j = 0; j < 10000; j++) {
+              counting.increment();
+              counting.decrement();
+            }
+          }
+        }));
+      }
+      for (Future<?> hammer : hammers) {
+        hammer.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(counting.isIdleNow());
+    assertTrue("Transitions reported out of order should leave the resource idle", checkIdle());
+  }
+
+  public void testStaleMessagesFromEarlierRegistrationAreIgnored() throws Exception {
+    final OnDemandIdlingResource resource = new OnDemandIdlingResource("resource");
+    final CountDownLatch allResourcesIdleLatch = new CountDownLatch(1);
+    registry.registerResources(Lists.newArrayList(resource));
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        // queues an idle message for the current registration.
+        resource.forceIdleNow();
+        registry.unregisterResources(Lists.newArrayList(resource));
+        resource.reset();
+        // gets the same slot back while the idle message is still queued.
+        registry.registerResources(Lists.newArrayList(resource));
+        registry.notifyWhenAllResourcesAreIdle(new IdleNotificationCallback() {
+          @Override
+          public void resourcesStillBusyWarning(List<String> busyResourceNames) {}
+
+          @Override
+          public void resourcesHaveTimedOut(List<String> busyResourceNames) {}
+
+          @Override
+          public void allResourcesIdle() {
+            allResourcesIdleLatch.countDown();
+          }
+        });
+      }
+    });
+
+    assertFalse("The earlier registration's idle message should be ignored",
+        allResourcesIdleLatch.await(500, TimeUnit.MILLISECONDS));
+    resource.forceIdleNow();
+    assertTrue(allResourcesIdleLatch.await(1, TimeUnit.SECONDS));
+  }
+
+  public void testIdleSince_endedByBusyTransitions() throws Exception {
+    OnDemandTransitionResource tracked = new OnDemandTransitionResource("tracked");
+    tracked.forceIdleNow();
+    registry.registerResources(Lists.newArrayList(tracked));
+    int epoch = registry.getEpoch();
+    assertTrue(checkIdleSince(epoch, tracked));
+    assertTrue(checkIdleSince(epoch, tracked));
+
+    tracked.forceBusyNow();
+    tracked.forceIdleNow();
+    assertFalse("Going busy and idle again should end the epoch", checkIdleSince(epoch, tracked));
+    epoch = registry.getEpoch();
+    assertTrue(checkIdleSince(epoch, tracked));
+
+    registry.unregisterResources(Lists.newArrayList(tracked));
+    assertFalse("Unregistering should end the epoch", checkIdleSince(epoch, tracked));
+  }
+
+  public void testRegisterResourcesAsync_doesNotWaitForMainThread() throws Exception {
+    IdlingResource r1 = new OnDemandIdlingResource("r1");
+    IdlingResource r1dup = new OnDemandIdlingResource("r1");
+    final CountDownLatch mainThreadBlocked = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          mainThreadBlocked.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+
+    Future<Boolean> registered = registry.registerResourcesAsync(Lists.newArrayList(r1));
+    Future<Boolean> duplicate = registry.registerResourcesAsync(Lists.newArrayList(r1dup));
+    assertFalse(registered.isDone());
+    mainThreadBlocked.countDown();
+
+    assertFalse("r1 should be registered before idleness is checked", checkIdle());
+    assertTrue(registered.get());
+    assertFalse(duplicate.get());
+
+    assertTrue(registry.unregisterResourcesAsync(Lists.newArrayList(r1)).get());
+    assertTrue(checkIdle());
+  }
+
+  public void testGetResourceStats_timesWaitsAndLastToIdle() throws Exception {
+    OnDemandIdlingResource quick = new OnDemandIdlingResource("quick");
+    OnDemandIdlingResource slow = new OnDemandIdlingResource("slow");
+    OnDemandIdlingResource idle = new OnDemandIdlingResource("idle");
+    idle.forceIdleNow();
+    registry.registerResources(Lists.newArrayList(quick, slow, idle));
+    final CountDownLatch allResourcesIdleLatch = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        registry.notifyWhenAllResourcesAreIdle(new IdleNotificationCallback() {
+          @Override
+          public void resourcesStillBusyWarning(List<String> busyResourceNames) {}
+
+          @Override
+          public void resourcesHaveTimedOut(List<String> busyResourceNames) {}
+
+          @Override
+          public void allResourcesIdle() {
+            allResourcesIdleLatch.countDown();
+          }
+        });
+      }
+    });
+
+    Thread.sleep(50);
+    quick.forceIdleNow();
+    Thread.sleep(200);
+    slow.forceIdleNow();
+    assertTrue(allResourcesIdleLatch.await(2, TimeUnit.SECONDS));
+
+    List<IdlingResourceStats> stats = registry.getResourceStats();
+    assertEquals("idle was never waited on: " + stats, 2, stats.size());
+    IdlingResourceStats slowStats = stats.get(0);
+    IdlingResourceStats quickStats = stats.get(1);
+    assertEquals("slow", slowStats.getName());
+    assertEquals("quick", quickStats.getName());
+    assertEquals(1, slowStats.getWaits());
+    assertEquals(1, slowStats.getIdleTransitions());
+    assertEquals(1, slowStats.getLastToIdleCount());
+    assertEquals(0, quickStats.getLastToIdleCount());
+    assertTrue(slowStats.getTotalWaitMillis() >= 250);
+    assertTrue(slowStats.getMaxWaitMillis() >= slowStats.getP95WaitMillis());
+    assertTrue(quickStats.getTotalWaitMillis() < slowStats.getTotalWaitMillis());
+    Log.i("IdlingResourceStats", registry.getResourceStatsReport(10));
+  }
+
+  private boolean checkIdle() throws Exception {
+    FutureTask<Boolean> resourcesIdle = createIdleCheckTask(registry);
+    handler.post(resourcesIdle);
+    return resourcesIdle.get();
+  }
+
+  private boolean checkIdleSince(final int epoch, OnDemandTransitionResource resource)
+      throws Exception {
+    int polls = resource.getPollCount();
+    FutureTask<Boolean> idleSince = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return registry.idleSince(epoch);
+      }
+    });
+    handler.post(idleSince);
+    boolean idle = idleSince.get();
+    assertEquals("Transition reporting resources shouldn't be polled", polls,
+        resource.getPollCount());
+    return idle;
+  }
+
+  private boolean checkIdleWithoutPolling(OnDemandTransitionResource resource) throws Exception {
+    int polls = resource.getPollCount();
+    boolean idle = checkIdle();
+    assertEquals("Transition reporting resources shouldn't be polled", polls,
+        resource.getPollCount());
+    return idle;
+  }
+
+  public void testRegisterLooper_multiplexesLoopers() throws Exception {
+    HandlerThread first = new HandlerThread("first");
+    HandlerThread second = new HandlerThread("second");
+    first.start();
+    second.start();
+    try {
+      registry.registerLooper(first.getLooper(), false);
+      registry.registerLooper(second.getLooper(), false);
+      registry.registerLooper(second.getLooper(), false);
+      assertEquals(1, registry.getResources().size());
+      assertTrue("Loopers should idle", awaitIdle(true));
+
+      final CountDownLatch release = new CountDownLatch(1);
+      Handler secondHandler = new Handler(second.getLooper());
+      secondHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      // queued behind the blocked task, so the looper has pending work.
+      secondHandler.sendEmptyMessage(0);
+      assertTrue("Second looper should be busy", awaitIdle(false));
+      release.countDown();
+      assertTrue("Loopers should idle again", awaitIdle(true));
+    } finally {
+      first.quit();
+      second.quit();
+    }
+  }
+
+  public void testRegisterLooper_busyOnceDelayedMessageComesDue() throws Exception {
+    HandlerThread thread = new HandlerThread("delayed");
+    thread.start();
+    try {
+      registry.registerLooper(thread.getLooper(), false);
+      assertTrue("Looper should idle", awaitIdle(true));
+
+      final Handler threadHandler = new Handler(thread.getLooper());
+      final CountDownLatch release = new CountDownLatch(1);
+      threadHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          // runs after the monitor's idle handler and keeps the delayed message from being
+          // dispatched, so it stays the queue head while it comes due.
+          Looper.myQueue().addIdleHandler(new IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+              awaiting(release).run();
+              return false;
+            }
+          });
+          threadHandler.sendEmptyMessageDelayed(0, 300);
+        }
+      });
+      assertTrue("Message isn't due yet", awaitIdle(true));
+      assertTrue("Looper should be busy once message is due", awaitIdle(false));
+      release.countDown();
+      assertTrue("Looper should idle again", awaitIdle(true));
+    } finally {
+      thread.quit();
+    }
+  }
+
+  public void testRegisterExecutor_aggregatesExecutors() throws Exception {
+    ThreadPoolExecutor fixed = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+    ThreadPoolExecutor cached = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+    try {
+      assertTrue(registry.registerExecutor(fixed));
+      assertTrue(registry.registerExecutor(cached));
+      assertFalse(registry.registerExecutor(cached));
+      assertEquals(1, registry.getResources().size());
+      assertTrue("Executors should idle", awaitIdle(true));
+
+      CountDownLatch releaseFixed = new CountDownLatch(1);
+      CountDownLatch releaseCached = new CountDownLatch(1);
+      fixed.execute(awaiting(releaseFixed));
+      cached.execute(awaiting(releaseCached));
+      assertTrue("Executors should be busy", awaitIdle(false));
+      releaseFixed.countDown();
+      Thread.sleep(100);
+      assertFalse("Cached executor is still busy", checkIdle());
+      releaseCached.countDown();
+      assertTrue("Executors should idle again", awaitIdle(true));
+
+      assertTrue(registry.unregisterExecutor(fixed));
+      assertFalse(registry.unregisterExecutor(fixed));
+      fixed.execute(awaiting(new CountDownLatch(1)));
+      assertTrue("Unregistered executor shouldn't count", checkIdle());
+    } finally {
+      fixed.shutdownNow();
+      cached.shutdownNow();
+    }
+  }
+
+  public void testRegisterExecutor_ignoresScheduledWorkBeyondLookahead() throws Exception {
+    ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(1);
+    try {
+      assertTrue(registry.registerExecutor(scheduled, 50, TimeUnit.MILLISECONDS));
+      scheduled.scheduleAtFixedRate(awaiting(new CountDownLatch(0)), 30, 30, TimeUnit.SECONDS);
+      assertTrue("Far future work shouldn't keep executor busy", checkIdle());
+
+      CountDownLatch release = new CountDownLatch(1);
+      scheduled.schedule(awaiting(release), 300, TimeUnit.MILLISECONDS);
+      assertTrue("Work not due yet", checkIdle());
+      assertTrue("Executor should be busy once work is due", awaitIdle(false));
+      release.countDown();
+      assertTrue("Executor should idle again", awaitIdle(true));
+      assertTrue(registry.unregisterExecutor(scheduled));
+    } finally {
+      scheduled.shutdownNow();
+    }
+  }
+
+  private static Runnable awaiting(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  private boolean awaitIdle(boolean idle) throws Exception {
+    long giveUpAt = SystemClock.uptimeMillis() + 5000;
+    while (SystemClock.uptimeMillis() < giveUpAt) {
+      FutureTask<Boolean> resourcesIdle = createIdleCheckTask(registry);
+      handler.post(resourcesIdle);
+      if (resourcesIdle.get() == idle) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
   private FutureTask<Boolean> createIdleCheckTask(final IdlingResourceRegistry registry) {
     Callable<Boolean> isIdle = new Callable<Boolean>() {
       public Boolean call() {
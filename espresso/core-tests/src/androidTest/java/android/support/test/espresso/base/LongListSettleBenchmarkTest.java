@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.testapp.LongListActivity;
+import android.support.test.testapp.R;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.widget.ListView;
+
+/**
+ * Compares waiting for a smooth scroll by polling in fixed slices, the way data used to be loaded
+ * into adapter views, with waiting for the UI to settle.
+ */
+@Benchmark
+public class LongListSettleBenchmarkTest
+    extends ActivityInstrumentationTestCase2<LongListActivity> {
+
+  private static final String NAME = "LongListSettle";
+  private static final int ROUNDS = 5;
+  private static final long SLICE_MILLIS = 100;
+  private static final int FAR_POSITION = 80;
+
+  @SuppressWarnings("deprecation")
+  public LongListSettleBenchmarkTest() {
+    // This constructor was deprecated - but we want to support lower API levels.
+    super("android.support.test.testapp", LongListActivity.class);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    getActivity();
+  }
+
+  public void testScrollBackAndForth() {
+    long polling = scroll(true);
+    long settled = scroll(false);
+    report(NAME, "List scroll x%s: %sms polling in %sms slices, %sms settled.",
+        ROUNDS * 2, polling, SLICE_MILLIS, settled);
+  }
+
+  private long scroll(boolean polling) {
+    long total = 0;
+    for (int i = 0; i < ROUNDS * 2; i++) {
+      final int position = i % 2 == 0 ? FAR_POSITION : 0;
+      SettleTimingAction<ListView> action =
+          new SettleTimingAction<ListView>(ListView.class, SLICE_MILLIS, polling) {
+            @Override
+            void start(ListView list) {
+              list.smoothScrollToPosition(position);
+            }
+
+            @Override
+            boolean isDone(ListView list) {
+              return list.getFirstVisiblePosition() <= position
+                  && position <= list.getLastVisiblePosition();
+            }
+          };
+      onView(withId(R.id.list)).perform(action);
+      total += action.getElapsedMillis();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+import android.support.test.espresso.matcher.MatcherCost;
+import android.support.test.espresso.matcher.MatcherCost.Cost;
+import android.support.test.espresso.util.TreeIterables;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+
+/**
+ * Benchmark of matching every view of a 1k view hierarchy against
+ * {@code allOf(isDisplayed(), withText(..), withId(..))}, as declared and as planned by
+ * {@link MatcherPlanner}. The number of times each matcher runs per lookup, and the time a lookup
+ * takes, are reported.
+ */
+@Benchmark
+public class MatcherPlannerBenchmarkTest extends InstrumentationTestCase {
+
+  private static final String NAME = "MatcherPlanner";
+  private static final int VIEW_COUNT = 1000;
+  private static final int TARGET_ID = 4242;
+  private static final int WARMUP_ITERATIONS = 10;
+  private static final int MEASURED_ITERATIONS = 50;
+
+  @SuppressWarnings("unchecked")
+  public void testAllOfDisplayedTextAndId() throws Exception {
+    View root = buildHierarchy(getInstrumentation().getContext());
+    Counting displayed = new CountingExpensive(isDisplayed());
+    Counting text = new CountingModerateSelective(withText("Item 500"));
+    Counting id = new CountingCheapSelective(withId(TARGET_ID));
+    Matcher<View> declared = allOf(displayed, text, id);
+
+    measure("declared order", root, declared, displayed, text, id);
+    measure("planned order", root, MatcherPlanner.plan(declared), displayed, text, id);
+  }
+
+  private static void measure(String name, final View root, final Matcher<View> matcher,
+      Counting... counters) throws Exception {
+    for (Counting counter : counters) {
+      counter.invocations = 0;
+    }
+    lookUp(root, matcher);
+    StringBuilder invocations = new StringBuilder();
+    for (Counting counter : counters) {
+      invocations.append(String.format(" %s: %s,", counter.name, counter.invocations));
+    }
+    long nanosPerLookup = nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, new Body() {
+      @Override
+      public void run() {
+        lookUp(root, matcher);
+      }
+    });
+    report(NAME, "%s, %s views: %sus per lookup, invocations per lookup:%s",
+        name, VIEW_COUNT, nanosPerLookup / 1000, invocations);
+  }
+
+  private static void lookUp(View root, Matcher<View> matcher) {
+    int matches = 0;
+    for (View view : TreeIterables.breadthFirstViewTraversal(root)) {
+      if (matcher.matches(view)) {
+        matches++;
+      }
+    }
+    assertEquals(1, matches);
+  }
+
+  /**
+   * A detached layout of text views, each labelled with its position.
+   */
+  private static View buildHierarchy(Context context) {
+    LinearLayout root = new LinearLayout(context);
+    for (int i = 1; i < VIEW_COUNT; i++) {
+      TextView item = new TextView(context);
+      item.setText("Item " + i);
+      if (i == 500) {
+        item.setId(TARGET_ID);
+      }
+      root.addView(item);
+    }
+    return root;
+  }
+
+  /**
+   * Counts the views matched against a matcher.
+   */
+  private abstract static class Counting extends BaseMatcher<View> {
+    private final Matcher<View> delegate;
+    private final String name;
+    private final boolean alwaysPasses;
+    private int invocations;
+
+    Counting(Matcher<View> delegate, String name, boolean alwaysPasses) {
+      this.delegate = delegate;
+      this.name = name;
+      this.alwaysPasses = alwaysPasses;
+    }
+
+    @Override
+    public boolean matches(Object item) {
+      invocations++;
+      boolean matched = delegate.matches(item);
+      return matched || alwaysPasses;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      delegate.describeTo(description);
+    }
+  }
+
+  @MatcherCost(Cost.EXPENSIVE)
+  private static final class CountingExpensive extends Counting {
+    CountingExpensive(Matcher<View> delegate) {
+      // does the work, but the detached hierarchy is never displayed.
+      super(delegate, "isDisplayed", true);
+    }
+  }
+
+  @MatcherCost(value = Cost.MODERATE, selective = true)
+  private static final class CountingModerateSelective extends Counting {
+    CountingModerateSelective(Matcher<View> delegate) {
+      super(delegate, "withText", false);
+    }
+  }
+
+  @MatcherCost(value = Cost.CHEAP, selective = true)
+  private static final class CountingCheapSelective extends Counting {
+    CountingCheapSelective(Matcher<View> delegate) {
+      super(delegate, "withId", false);
+    }
+  }
+}
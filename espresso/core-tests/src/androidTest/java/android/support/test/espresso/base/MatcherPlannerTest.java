@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.isEnabled;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.anyOf;
+
+import android.support.test.espresso.matcher.IndexableViewMatcher;
+import android.support.test.espresso.matcher.MatcherCost;
+import android.support.test.espresso.matcher.MatcherCost.Cost;
+import com.google.common.collect.Lists;
+
+import android.test.InstrumentationTestCase;
+import android.view.View;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+
+import java.util.List;
+
+/** Unit tests for {@link MatcherPlanner}. */
+public class MatcherPlannerTest extends InstrumentationTestCase {
+
+  private final List<String> evaluated = Lists.newArrayList();
+  private View view;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    view = new View(getInstrumentation().getContext());
+    view.setId(1);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testAllOf_cheapSelectiveFirst() {
+    Matcher<View> matcher = allOf(new Expensive("expensive", true), new Unknown("unknown", true),
+        new Cheap("cheap", true), new CheapSelective("selective", false));
+    Matcher<View> planned = MatcherPlanner.plan(matcher);
+
+    assertFalse(planned.matches(view));
+    assertEquals(Lists.newArrayList("selective"), evaluated);
+    assertEquals(StringDescription.toString(matcher), StringDescription.toString(planned));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testAnyOf_cheapLikelyFirst() {
+    Matcher<View> matcher = anyOf(new Expensive("expensive", true),
+        new CheapSelective("selective", false), new Cheap("cheap", true));
+    Matcher<View> planned = MatcherPlanner.plan(matcher);
+
+    assertTrue(planned.matches(view));
+    assertEquals(Lists.newArrayList("cheap"), evaluated);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testNestedCombinations() {
+    Matcher<View> matcher = allOf(new Expensive("expensive", true),
+        anyOf(new Unknown("unknown", false), new Cheap("cheap", true)));
+    Matcher<View> planned = MatcherPlanner.plan(matcher);
+
+    assertTrue(planned.matches(view));
+    assertEquals(Lists.newArrayList("cheap", "expensive"), evaluated);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testAlreadyOrdered_unchanged() {
+    Matcher<View> matcher = allOf(new Cheap("cheap", true), new Expensive("expensive", true));
+    assertSame(matcher, MatcherPlanner.plan(matcher));
+    Matcher<View> single = new Expensive("expensive", true);
+    assertSame(single, MatcherPlanner.plan(single));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testBuiltInMatchers() {
+    Matcher<View> matcher = allOf(isDisplayed(), withId(1));
+    Matcher<View> planned = MatcherPlanner.plan(matcher);
+
+    assertNotSame(matcher, planned);
+    // withId runs first, and still lets the index be used.
+    assertTrue(planned instanceof IndexableViewMatcher);
+    assertEquals(1, ((IndexableViewMatcher) planned).getIndexKey());
+    assertFalse(planned.matches(new View(getInstrumentation().getContext())));
+    assertEquals(StringDescription.toString(matcher), StringDescription.toString(planned));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testScopeOf() {
+    Matcher<View> scope = withId(2);
+    Matcher<View> inner = new Cheap("cheap", true);
+    MatcherPlanner.Scope split = MatcherPlanner.scopeOf(allOf(inner, isDescendantOfA(scope)));
+    assertSame(scope, split.scopeMatcher);
+    assertSame(inner, split.innerMatcher);
+    split = MatcherPlanner.scopeOf(isDescendantOfA(scope));
+    assertSame(scope, split.scopeMatcher);
+    assertTrue(split.innerMatcher.matches(view));
+
+    assertNull(MatcherPlanner.scopeOf(allOf(inner, withId(1))));
+    assertNull(MatcherPlanner.scopeOf(inner));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testSnapshotMatcherOf() {
+    assertNotNull(MatcherPlanner.snapshotMatcherOf(withId(1)));
+    assertNotNull(MatcherPlanner.snapshotMatcherOf(
+        MatcherPlanner.plan(allOf(isEnabled(), anyOf(withId(1), withText("a"))))));
+    assertNotNull(MatcherPlanner.snapshotMatcherOf(allOf(isEnabled(), withId(1))));
+    assertNull(MatcherPlanner.snapshotMatcherOf(allOf(withId(1), new Cheap("cheap", true))));
+    assertNull(MatcherPlanner.snapshotMatcherOf(isDisplayed()));
+  }
+
+  private class Unknown extends BaseMatcher<View> {
+    private final String name;
+    private final boolean matches;
+
+    Unknown(String name, boolean matches) {
+      this.name = name;
+      this.matches = matches;
+    }
+
+    @Override
+    public boolean matches(Object item) {
+      evaluated.add(name);
+      return matches;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText(name);
+    }
+  }
+
+  @MatcherCost(Cost.CHEAP)
+  private class Cheap extends Unknown {
+    Cheap(String name, boolean matches) {
+      super(name, matches);
+    }
+  }
+
+  @MatcherCost(value = Cost.CHEAP, selective = true)
+  private class CheapSelective extends Unknown {
+    CheapSelective(String name, boolean matches) {
+      super(name, matches);
+    }
+  }
+
+  @MatcherCost(Cost.EXPENSIVE)
+  private class Expensive extends Unknown {
+    Expensive(String name, boolean matches) {
+      super(name, matches);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.TransitionReportingIdlingResource;
+
+/**
+ * A {@link TransitionReportingIdlingResource} for testing that changes state on demand and counts
+ * how often it is polled.
+ */
+public class OnDemandTransitionResource implements TransitionReportingIdlingResource {
+  private final String name;
+
+  private volatile boolean isIdle = false;
+  private volatile int pollCount = 0;
+  private TransitionCallback callback;
+
+  public OnDemandTransitionResource(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback callback) {
+    throw new UnsupportedOperationException("Expected to be tracked by its transitions.");
+  }
+
+  @Override
+  public void registerTransitionCallback(TransitionCallback callback) {
+    this.callback = callback;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    pollCount++;
+    return isIdle;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  public int getPollCount() {
+    return pollCount;
+  }
+
+  public void forceIdleNow() {
+    isIdle = true;
+    if (callback != null) {
+      callback.onTransitionToIdle();
+    }
+  }
+
+  public void forceBusyNow() {
+    isIdle = false;
+    if (callback != null) {
+      callback.onTransitionToBusy();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.isEnabled;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+/**
+ * Benchmark of looking up a view of a 10k view hierarchy on the main thread only, and with the
+ * views matched on all cores by {@link ParallelViewMatcher}. The time a lookup takes, and the
+ * part of it the main thread spends taking the snapshot, are reported.
+ */
+@Benchmark
+public class ParallelViewMatcherBenchmarkTest extends InstrumentationTestCase {
+
+  private static final String NAME = "ParallelViewMatcher";
+  private static final int VIEW_COUNT = 10000;
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+
+  @SuppressWarnings("unchecked")
+  @UiThreadTest
+  public void testLookUp() throws Exception {
+    final View root = buildHierarchy(getInstrumentation().getContext());
+    Matcher<View> matcher = allOf(isEnabled(), withText("Item " + VIEW_COUNT / 2));
+    ParallelViewMatcher parallelMatcher = new ParallelViewMatcher();
+    ViewFinderImpl finder = new ViewFinderImpl(matcher, new Provider<View>() {
+          @Override
+          public View get() {
+            return root;
+          }
+        }, new ViewHierarchyIndex(), new AtomicReference<Matcher<View>>(),
+        new AtomicInteger(ViewFinderImpl.UNIQUE_MATCH), new ViewLookupStats(), parallelMatcher);
+
+    long mainThreadOnly = nanosPerLookup(finder);
+    parallelMatcher.setEnabled(true);
+    long parallel = nanosPerLookup(finder);
+    long snapshot = nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, new Body() {
+      @Override
+      public void run() {
+        HierarchySnapshot.capture(root);
+      }
+    });
+    report(NAME, "%s views, %s cores: %sus per lookup on the main thread, %sus in parallel, of "
+        + "which %sus taking the snapshot", VIEW_COUNT,
+        Runtime.getRuntime().availableProcessors(), mainThreadOnly / 1000, parallel / 1000,
+        snapshot / 1000);
+  }
+
+  private static long nanosPerLookup(final ViewFinderImpl finder) throws Exception {
+    return nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, new Body() {
+      @Override
+      public void run() {
+        finder.getView();
+      }
+    });
+  }
+
+  /**
+   * A detached layout of rows of text views, each labelled with its position.
+   */
+  private static View buildHierarchy(Context context) {
+    LinearLayout root = new LinearLayout(context);
+    LinearLayout row = null;
+    for (int i = 1; i < VIEW_COUNT; i++) {
+      if (i % 10 == 1) {
+        row = new LinearLayout(context);
+        root.addView(row);
+        continue;
+      }
+      TextView item = new TextView(context);
+      item.setText("Item " + i);
+      row.addView(item);
+    }
+    return root;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Micro-benchmark of the per-message cost of looping a queue through {@link QueueInterrogator},
+ * compared with the plain reflective path it replaced.
+ */
+@Benchmark
+public class QueueInterrogatorBenchmarkTest extends TestCase {
+
+  private static final String NAME = "QueueInterrogator";
+  private static final int MESSAGES = 20000;
+  private static final int WARMUP_MESSAGES = 2000;
+
+  public void testNanosPerDispatchedMessage() throws Exception {
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final long[] results = new long[2];
+    Thread benchmark = new Thread("queue-benchmark") {
+      @Override
+      public void run() {
+        try {
+          Looper.prepare();
+          Recycler recycler = Build.VERSION.SDK_INT > 20
+              ? new UncheckedRecycler() : Recycler.DEFAULT_RECYCLER;
+          Handler handler = new Handler();
+          ReflectiveLoop reflective = new ReflectiveLoop(Looper.myQueue());
+          QueueLoop interrogated = new InterrogatorLoop(new QueueInterrogator(Looper.myLooper()));
+          results[0] = nanosPerMessage(reflective, handler, recycler);
+          results[1] = nanosPerMessage(interrogated, handler, recycler);
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    benchmark.start();
+    benchmark.join();
+    if (null != failure.get()) {
+      throw new RuntimeException(failure.get());
+    }
+    report(NAME, "Per dispatched message: reflection %sns, interrogator %sns.",
+        results[0], results[1]);
+  }
+
+  private static long nanosPerMessage(final QueueLoop loop, Handler handler,
+      final Recycler recycler) throws Exception {
+    for (int i = 0; i < WARMUP_MESSAGES + MESSAGES; i++) {
+      handler.sendEmptyMessage(i);
+    }
+    return nanosPerRun(WARMUP_MESSAGES, MESSAGES, new Body() {
+      @Override
+      public void run() throws Exception {
+        loop.queueState();
+        Message message = loop.next();
+        message.getTarget().dispatchMessage(message);
+        recycler.recycle(message);
+      }
+    });
+  }
+
+  private interface QueueLoop {
+    void queueState() throws Exception;
+    Message next() throws Exception;
+  }
+
+  private static class InterrogatorLoop implements QueueLoop {
+    private final QueueInterrogator interrogator;
+
+    InterrogatorLoop(QueueInterrogator interrogator) {
+      this.interrogator = interrogator;
+    }
+
+    @Override
+    public void queueState() {
+      interrogator.determineQueueState();
+    }
+
+    @Override
+    public Message next() {
+      return interrogator.getNextMessage();
+    }
+  }
+
+  /**
+   * Invokes next and reads the head under the queue's lock on every message.
+   */
+  private static class ReflectiveLoop implements QueueLoop {
+    private final MessageQueue queue;
+    private final Method nextMethod;
+    private final Field headField;
+
+    ReflectiveLoop(MessageQueue queue) throws Exception {
+      this.queue = queue;
+      nextMethod = MessageQueue.class.getDeclaredMethod("next");
+      nextMethod.setAccessible(true);
+      headField = MessageQueue.class.getDeclaredField("mMessages");
+      headField.setAccessible(true);
+    }
+
+    @Override
+    public void queueState() throws Exception {
+      synchronized (queue) {
+        Message head = (Message) headField.get(queue);
+        if (null != head && null != head.getTarget()) {
+          head.getWhen();
+        }
+      }
+    }
+
+    @Override
+    public Message next() throws Exception {
+      return (Message) nextMethod.invoke(queue);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.matcher.ViewMatchers.isAssignableFrom;
+
+import android.support.test.espresso.UiController;
+import android.support.test.espresso.ViewAction;
+
+import android.os.SystemClock;
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+/**
+ * Starts some UI motion and times how long it takes to wait for it to finish, either by polling
+ * in fixed slices or by waiting for the UI to settle.
+ */
+abstract class SettleTimingAction<T extends View> implements ViewAction {
+  private static final long SETTLE_TIMEOUT_MILLIS = 5000;
+
+  private final Class<T> viewClass;
+  private final long sliceMillis;
+  private final boolean polling;
+  private long elapsedMillis;
+
+  SettleTimingAction(Class<T> viewClass, long sliceMillis, boolean polling) {
+    this.viewClass = viewClass;
+    this.sliceMillis = sliceMillis;
+    this.polling = polling;
+  }
+
+  /**
+   * Starts moving the UI.
+   */
+  abstract void start(T view);
+
+  /**
+   * Returns true once the motion started by {@link #start} has visibly completed.
+   */
+  abstract boolean isDone(T view);
+
+  long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  @Override
+  public Matcher<View> getConstraints() {
+    return isAssignableFrom(viewClass);
+  }
+
+  @Override
+  public String getDescription() {
+    return (polling ? "poll in " + sliceMillis + "ms slices" : "wait for the UI to settle")
+        + " on " + viewClass.getSimpleName();
+  }
+
+  @Override
+  public void perform(UiController uiController, View view) {
+    T typedView = viewClass.cast(view);
+    long start = SystemClock.uptimeMillis();
+    start(typedView);
+    while (!isDone(typedView)) {
+      if (polling
+          || !UiControllers.loopMainThreadUntilUiSettled(uiController, SETTLE_TIMEOUT_MILLIS)) {
+        uiController.loopMainThreadForAtLeast(sliceMillis);
+      }
+    }
+    elapsedMillis = SystemClock.uptimeMillis() - start;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.SyncMetrics;
+import android.support.test.espresso.SyncMetricsListener;
+import android.support.test.espresso.base.UiControllerImpl.IdleCondition;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link SyncProfiler}.
+ */
+public class SyncProfilerTest extends TestCase {
+
+  private final SyncProfiler profiler = new SyncProfiler();
+  private final AtomicReference<SyncMetrics> published = new AtomicReference<SyncMetrics>();
+  private final SyncMetricsListener listener = new SyncMetricsListener() {
+    @Override
+    public void onInteractionCompleted(SyncMetrics metrics) {
+      published.set(metrics);
+    }
+  };
+
+  public void testNotRecordingWithoutListeners() {
+    profiler.interactionStarted();
+    assertFalse(profiler.isRecording());
+    profiler.interactionFinished("click");
+    assertNull(published.get());
+  }
+
+  public void testAggregatesLoopsOfAnInteraction() {
+    profiler.addListener(listener);
+    profiler.interactionStarted();
+    assertTrue(profiler.isRecording());
+    profiler.recordConditionWait(IdleCondition.ASYNC_TASKS_HAVE_IDLED, 30);
+    profiler.recordLoop(12, 3, 40, 10);
+    profiler.recordConditionWait(IdleCondition.ASYNC_TASKS_HAVE_IDLED, 5);
+    profiler.recordConditionWait(IdleCondition.MOTION_INJECTION_HAS_COMPLETED, 7);
+    profiler.recordLoop(2, 1, 8, 1);
+    profiler.interactionFinished("click");
+
+    SyncMetrics metrics = published.get();
+    assertNotNull(metrics);
+    assertEquals("click", metrics.getInteraction());
+    assertEquals(48, metrics.getSyncMillis());
+    assertEquals(11, metrics.getQueueDrainMillis());
+    assertEquals(14, metrics.getLoopIterations());
+    assertEquals(4, metrics.getWakeups());
+    assertEquals(2, metrics.getConditionWaitMillis().size());
+    assertEquals(Long.valueOf(35),
+        metrics.getConditionWaitMillis().get(IdleCondition.ASYNC_TASKS_HAVE_IDLED.name()));
+    assertEquals(Long.valueOf(7), metrics.getConditionWaitMillis().get(
+        IdleCondition.MOTION_INJECTION_HAS_COMPLETED.name()));
+    assertFalse(profiler.isRecording());
+  }
+
+  public void testResetsBetweenInteractions() {
+    profiler.addListener(listener);
+    profiler.interactionStarted();
+    profiler.recordConditionWait(IdleCondition.DELAY_HAS_PAST, 100);
+    profiler.interactionFinished("first");
+    profiler.interactionStarted();
+    profiler.interactionFinished("second");
+    assertEquals("second", published.get().getInteraction());
+    assertTrue(published.get().getConditionWaitMillis().isEmpty());
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.action.ViewActions.swipeLeft;
+import static android.support.test.espresso.action.ViewActions.typeText;
+import static android.support.test.espresso.benchmark.Benchmarks.allocationsPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+
+import android.support.test.espresso.UiController;
+import android.support.test.espresso.ViewAction;
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+import android.support.test.testapp.R;
+import android.support.test.testapp.SendActivity;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+/**
+ * Allocation benchmark for the event injection and idle paths of {@link UiControllerImpl}.
+ *
+ * Counts the objects allocated on the main thread while a click, a swipe and 100 typed
+ * characters are performed, and reports them to be compared across changes to the controller.
+ * Those counts include the app's own work and vary by platform, so nothing is asserted about them.
+ * Looping an idle app until it's idle again involves no app work, so its count is bounded.
+ */
+@Benchmark
+public class UiControllerImplAllocationTest extends ActivityInstrumentationTestCase2<SendActivity> {
+
+  private static final String NAME = "UiControllerImplAllocation";
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int IDLE_LOOPS = 1000;
+  // the idle path reuses its signals, sets and handlers, this leaves room for the odd platform
+  // allocation averaged over the loops.
+  private static final int MAX_ALLOCATIONS_PER_IDLE_LOOP = 2;
+
+  @SuppressWarnings("deprecation")
+  public UiControllerImplAllocationTest() {
+    // Supporting froyo.
+    super("android.support.test.testapp", SendActivity.class);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    getActivity();
+  }
+
+  public void testAllocationsPerClick() {
+    measure("click", R.id.send_data_edit_text, click());
+  }
+
+  public void testAllocationsPerSwipe() {
+    measure("swipe", R.id.send_data_edit_text, swipeLeft());
+  }
+
+  public void testAllocationsPer100TypedCharacters() {
+    measure("100 typed characters", R.id.send_data_to_call_edit_text,
+        typeText(Strings.repeat("a", 100)));
+  }
+
+  public void testAllocationsPerIdleLoop() {
+    AllocationCountingAction counter = new AllocationCountingAction(IDLE_LOOPS,
+        new ViewAction() {
+          @Override
+          public Matcher<View> getConstraints() {
+            return isAssignableFrom(View.class);
+          }
+
+          @Override
+          public String getDescription() {
+            return "loop until idle";
+          }
+
+          @Override
+          public void perform(UiController uiController, View view) {
+            uiController.loopMainThreadUntilIdle();
+          }
+        });
+    measure("idle loop", R.id.send_data_edit_text, counter);
+    assertTrue("Allocations per idle loop: " + counter.allocations,
+        counter.allocations <= MAX_ALLOCATIONS_PER_IDLE_LOOP);
+  }
+
+  private void measure(String name, int viewId, ViewAction action) {
+    measure(name, viewId, new AllocationCountingAction(1, action));
+  }
+
+  private void measure(String name, int viewId, AllocationCountingAction counter) {
+    // let the pooled signals, messages and key character maps warm up.
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      onView(withId(viewId)).perform(counter.delegate);
+    }
+    onView(withId(viewId)).perform(counter);
+    report(NAME, "%s: %s objects allocated on the main thread.", name, counter.allocations);
+  }
+
+  /**
+   * Counts the allocations the delegate action makes on the main thread, on average over the
+   * given number of runs.
+   */
+  private static class AllocationCountingAction implements ViewAction {
+    private final int runs;
+    private final ViewAction delegate;
+    private int allocations;
+
+    private AllocationCountingAction(int runs, ViewAction delegate) {
+      this.runs = runs;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Matcher<View> getConstraints() {
+      return delegate.getConstraints();
+    }
+
+    @Override
+    public String getDescription() {
+      return "count allocations of: " + delegate.getDescription();
+    }
+
+    @Override
+    public void perform(final UiController uiController, final View view) {
+      try {
+        allocations = allocationsPerRun(runs, new Body() {
+          @Override
+          public void run() {
+            delegate.perform(uiController, view);
+          }
+        });
+      } catch (Exception e) {
+        throw Throwables.propagate(e);
+      }
+    }
+  }
+}
@@ -81,7 +81,9 @@ public class UiControllerImplIntegrationTest
         null,
         new IdlingResourceRegistry(Looper.getMainLooper()),
         Looper.getMainLooper(),
-        recycler);
+        recycler,
+        new SyncProfiler(),
+        new DispatchProfiler());
   }
 
 
@@ -16,22 +16,29 @@
 
 package android.support.test.espresso.base;
 
+import android.support.test.espresso.IdlingPolicies;
 import android.support.test.espresso.IdlingResourceTimeoutException;
 import com.google.common.collect.Lists;
 
+import android.animation.ValueAnimator;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -45,6 +52,9 @@ public class UiControllerImplTest extends TestCase {
   private AtomicReference<UiControllerImpl> uiController = new AtomicReference<UiControllerImpl>();
   private ThreadPoolExecutor asyncPool;
   private IdlingResourceRegistry idlingResourceRegistry;
+  private DispatchProfiler dispatchProfiler;
+  private EventInjector injector;
+  private Recycler recycler;
 
   private static class LooperThread extends Thread {
     private final CountDownLatch init = new CountDownLatch(1);
@@ -97,7 +107,6 @@ public class UiControllerImplTest extends TestCase {
     idlingResourceRegistry = new IdlingResourceRegistry(testThread.getLooper());
     asyncPool = new ThreadPoolExecutor(3, 3, 1, TimeUnit.SECONDS,
         new LinkedBlockingQueue<Runnable>());
-    EventInjector injector = null;
     if (Build.VERSION.SDK_INT > 15) {
       InputManagerEventInjectionStrategy strat = new InputManagerEventInjectionStrategy();
       strat.initialize();
@@ -108,21 +117,26 @@ public class UiControllerImplTest extends TestCase {
       injector = new EventInjector(strat);
     }
 
-    Recycler recycler = Recycler.DEFAULT_RECYCLER;
+    dispatchProfiler = new DispatchProfiler();
+    recycler = Recycler.DEFAULT_RECYCLER;
     if (Build.VERSION.SDK_INT > 20) {
       recycler = new UncheckedRecycler();
     }
 
-    uiController.set(new UiControllerImpl(
+    uiController.set(newUiController(new AsyncTaskPoolMonitor(asyncPool)));
+  }
+
+  private UiControllerImpl newUiController(AsyncTaskPoolMonitor asyncTaskMonitor) {
+    return new UiControllerImpl(
         injector,
-        new AsyncTaskPoolMonitor(asyncPool),
+        asyncTaskMonitor,
         null,
         idlingResourceRegistry,
         testThread.getLooper(),
-        recycler
-        ));
-
-
+        recycler,
+        new SyncProfiler(),
+        dispatchProfiler
+        );
   }
 
   @Override
@@ -204,6 +218,90 @@ public class UiControllerImplTest extends TestCase {
         latch.await(10, TimeUnit.SECONDS));
   }
 
+  public void testLoopForAtLeast_fastForwardsDelayedMessages() throws Exception {
+    IdlingPolicies.setDelayedMessageFastForward(10, TimeUnit.SECONDS);
+    try {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+      final AtomicReference<Long> elapsed = new AtomicReference<Long>();
+      assertTrue(testThread.getHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          Handler handler = new Handler();
+          handler.postDelayed(new Recorder(dispatched, "late"), 6000);
+          handler.postDelayed(new Recorder(dispatched, "second"), 4000);
+          handler.postDelayed(new Recorder(dispatched, "first"), 2000);
+          handler.postDelayed(new Recorder(dispatched, "after"), 9000);
+          long start = SystemClock.uptimeMillis();
+          uiController.get().loopMainThreadForAtLeast(7000);
+          elapsed.set(SystemClock.uptimeMillis() - start);
+          handler.removeCallbacksAndMessages(null);
+          latch.countDown();
+        }
+      }));
+      assertTrue("Never returned from UiControllerImpl.loopMainThreadForAtLeast();",
+          latch.await(5, TimeUnit.SECONDS));
+      assertEquals(Lists.newArrayList("first", "second", "late"), dispatched);
+      assertTrue("Should not have waited in real time: " + elapsed.get(), elapsed.get() < 2000);
+    } finally {
+      IdlingPolicies.setDelayedMessageFastForward(0, TimeUnit.SECONDS);
+    }
+  }
+
+  public void testLoopForAtLeast_fastForwardLeavesRepostedMessagesToRealTime() throws Exception {
+    IdlingPolicies.setDelayedMessageFastForward(10, TimeUnit.SECONDS);
+    try {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicInteger ticks = new AtomicInteger();
+      final AtomicReference<Long> elapsed = new AtomicReference<Long>();
+      final AtomicReference<Long> fastForwarded = new AtomicReference<Long>();
+      assertTrue(testThread.getHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          final Handler handler = new Handler();
+          handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+              ticks.incrementAndGet();
+              handler.postDelayed(this, 100);
+            }
+          }, 100);
+          long start = SystemClock.uptimeMillis();
+          uiController.get().loopMainThreadForAtLeast(5000);
+          elapsed.set(SystemClock.uptimeMillis() - start);
+          fastForwarded.set(uiController.get().getFastForwardedCount());
+          handler.removeCallbacksAndMessages(null);
+          latch.countDown();
+        }
+      }));
+      assertTrue("Never returned from UiControllerImpl.loopMainThreadForAtLeast();",
+          latch.await(5, TimeUnit.SECONDS));
+      assertEquals("Only the tick queued up front is fast-forwarded", 1L,
+          fastForwarded.get().longValue());
+      // the re-posted ticks are due in real time, a few of them may come due while idling.
+      assertTrue("Re-posted ticks were fast-forwarded: " + ticks.get(),
+          ticks.get() <= 1 + elapsed.get() / 100);
+      assertTrue("Should not have waited in real time: " + elapsed.get(), elapsed.get() < 2000);
+    } finally {
+      IdlingPolicies.setDelayedMessageFastForward(0, TimeUnit.SECONDS);
+    }
+  }
+
+  private static class Recorder implements Runnable {
+    private final List<String> dispatched;
+    private final String name;
+
+    private Recorder(List<String> dispatched, String name) {
+      this.dispatched = dispatched;
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      dispatched.add(name);
+    }
+  }
+
   public void testLoopMainThreadUntilIdle_fullQueue() {
     final CountDownLatch latch = new CountDownLatch(3);
     assertTrue(testThread.getHandler().post(new Runnable() {
@@ -295,6 +393,138 @@ public class UiControllerImplTest extends TestCase {
   }
 
 
+  public void testLoopMainThreadUntilIdle_evaluatesConditionsOnWakeupsOnly() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Long> iterations = new AtomicReference<Long>();
+    final AtomicReference<Long> wakeups = new AtomicReference<Long>();
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        Handler handler = new Handler();
+        for (int i = 0; i < 50; i++) {
+          handler.post(new Runnable() {
+            @Override
+            public void run() {
+            }
+          });
+        }
+        uiController.get().loopMainThreadUntilIdle();
+        iterations.set(uiController.get().getIterationCount());
+        wakeups.set(uiController.get().getWakeupCount());
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilIdle();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertTrue("Expected all posted tasks to be dispatched: " + iterations.get(),
+        iterations.get() >= 50);
+    assertTrue("Expected conditions to be evaluated on wakeups only: " + wakeups.get(),
+        wakeups.get() < 10);
+  }
+
+  public void testLoopMainThreadUntilIdle_unchangedEpochTakesFastPath() throws Exception {
+    final CountingExecutor counter = new CountingExecutor(asyncPool);
+    uiController.set(newUiController(new AsyncTaskPoolMonitor(asyncPool, counter)));
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Long> fastPathsWhileStatic = new AtomicReference<Long>();
+    final AtomicReference<Long> fastPathsAfterSubmit = new AtomicReference<Long>();
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        uiController.get().loopMainThreadUntilIdle();
+        uiController.get().loopMainThreadUntilIdle();
+        uiController.get().loopMainThreadUntilIdle();
+        fastPathsWhileStatic.set(uiController.get().getFastPathCount());
+        counter.execute(new Runnable() {
+          @Override
+          public void run() {
+          }
+        });
+        uiController.get().loopMainThreadUntilIdle();
+        fastPathsAfterSubmit.set(uiController.get().getFastPathCount());
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilIdle();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertEquals(2L, fastPathsWhileStatic.get().longValue());
+    assertEquals("Executor submission should force a full sync",
+        2L, fastPathsAfterSubmit.get().longValue());
+  }
+
+  public void testLoopMainThreadUntilIdle_uncountedPoolNeverTakesFastPath() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        uiController.get().loopMainThreadUntilIdle();
+        uiController.get().loopMainThreadUntilIdle();
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilIdle();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertEquals("The pool's own task count can't prove nothing was submitted",
+        0L, uiController.get().getFastPathCount());
+  }
+
+  public void testLoopMainThreadUntilIdle_attributesDispatchesWhenProfiling() throws Exception {
+    dispatchProfiler.setEnabled(true);
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        Handler handler = new Handler();
+        for (int i = 0; i < 3; i++) {
+          handler.post(new SlowTask());
+        }
+        handler.sendEmptyMessage(42);
+        uiController.get().loopMainThreadUntilIdle();
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilIdle();",
+        latch.await(10, TimeUnit.SECONDS));
+    String report = dispatchProfiler.getReport(DispatchProfiler.DEFAULT_REPORT_ENTRIES);
+    assertTrue(report, report.contains("count=3 android.os.Handler callback="
+        + SlowTask.class.getName()));
+    assertTrue(report, report.contains("count=1 android.os.Handler what=42"));
+    assertFalse("Espresso's own signals shouldn't be attributed: " + report,
+        report.contains(UiControllerImpl.class.getName()));
+  }
+
+  private static class SlowTask implements Runnable {
+    @Override
+    public void run() {
+      SystemClock.sleep(5);
+    }
+  }
+
+  public void testLoopMainThreadUntilUiSettled_waitsForAnimation() throws Exception {
+    if (Build.VERSION.SDK_INT < 16) {
+      return;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Boolean> waited = new AtomicReference<Boolean>();
+    final AtomicReference<Boolean> stillRunning = new AtomicReference<Boolean>();
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        ValueAnimator animator = ValueAnimator.ofFloat(0f, 1f).setDuration(300);
+        animator.start();
+        waited.set(uiController.get().loopMainThreadUntilUiSettled(5000));
+        stillRunning.set(animator.isRunning());
+        // nothing is moving anymore.
+        waited.set(waited.get() && !uiController.get().loopMainThreadUntilUiSettled(5000));
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilUiSettled();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertTrue(waited.get());
+    assertFalse(stillRunning.get());
+  }
+
   public void testLoopMainThreadUntilIdle_emptyQueue() {
     final CountDownLatch latch = new CountDownLatch(1);
     assertTrue(testThread.getHandler().post(new Runnable() {
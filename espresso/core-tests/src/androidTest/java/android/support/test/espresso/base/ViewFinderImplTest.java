@@ -16,7 +16,11 @@
 
 package android.support.test.espresso.base;
 
+import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
+import static android.support.test.espresso.matcher.ViewMatchers.isEnabled;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
@@ -31,6 +35,13 @@ import android.view.View;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.inject.Provider;
 
 /** Unit tests for {@link ViewFinderImpl}. */
@@ -42,10 +53,19 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
   private View child3;
   private View child4;
   private View nestedChild;
+  private RelativeLayout nestingLayout;
+  private AtomicReference<Matcher<View>> scopeMatcherRef;
+  private AtomicInteger matchIndexRef;
+  private ViewLookupStats lookupStats;
+  private ParallelViewMatcher parallelMatcher;
 
   @Override
   public void setUp() throws Exception {
     super.setUp();
+    scopeMatcherRef = new AtomicReference<Matcher<View>>();
+    matchIndexRef = new AtomicInteger(ViewFinderImpl.UNIQUE_MATCH);
+    lookupStats = new ViewLookupStats();
+    parallelMatcher = new ParallelViewMatcher();
     testView = new RelativeLayout(getInstrumentation().getTargetContext());
     child1 = new TextView(getInstrumentation().getTargetContext());
     child1.setId(1);
@@ -57,7 +77,7 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
     child4.setId(4);
     nestedChild = new TextView(getInstrumentation().getTargetContext());
     nestedChild.setId(5);
-    RelativeLayout nestingLayout = new RelativeLayout(getInstrumentation().getTargetContext());
+    nestingLayout = new RelativeLayout(getInstrumentation().getTargetContext());
     nestingLayout.addView(nestedChild);
     testView.addView(child1);
     testView.addView(child2);
@@ -79,13 +99,13 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
 
   @UiThreadTest
   public void testGetView_present() {
-    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider);
+    ViewFinder finder = newFinder(sameInstance(nestedChild));
     assertThat(finder.getView(), sameInstance(nestedChild));
   }
 
   @UiThreadTest
   public void testGetView_missing() {
-    ViewFinder finder = new ViewFinderImpl(nullValue(View.class), testViewProvider);
+    ViewFinder finder = newFinder(nullValue(View.class));
     try {
       finder.getView();
       fail("No children should pass that matcher!");
@@ -94,19 +114,115 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
 
   @UiThreadTest
   public void testGetView_multiple() {
-    ViewFinder finder = new ViewFinderImpl(notNullValue(View.class), testViewProvider);
+    ViewFinder finder = newFinder(notNullValue(View.class));
+    try {
+      finder.getView();
+      fail("All nodes hit that matcher!");
+    } catch (AmbiguousViewMatcherException expected) {}
+  }
+
+  @UiThreadTest
+  public void testGetView_inside() {
+    Counting counting = new Counting();
+    scopeMatcherRef.set(sameInstance((View) nestingLayout));
+    ViewFinder finder = newFinder(counting);
+    assertThat(finder.getView(), sameInstance(nestedChild));
+    assertEquals("only the scope's descendants are matched", 1, counting.invocations);
+
+    scopeMatcherRef.set(sameInstance((View) child1));
+    try {
+      finder.getView();
+      fail("child1 has no children!");
+    } catch (NoMatchingViewException expected) {}
+  }
+
+  @SuppressWarnings("unchecked")
+  @UiThreadTest
+  public void testGetView_descendantOfARewrittenToScope() {
+    nestingLayout.setId(6);
+    Counting counting = new Counting();
+    ViewFinder finder = newFinder(allOf(counting, isDescendantOfA(withId(6))));
+    assertThat(finder.getView(), sameInstance(nestedChild));
+    assertEquals(1, counting.invocations);
+
+    finder = newFinder(isDescendantOfA(sameInstance((View) testView)));
     try {
       finder.getView();
+      fail("All children of the root hit that matcher!");
+    } catch (AmbiguousViewMatcherException expected) {}
+  }
+
+  @UiThreadTest
+  public void testGetView_firstMatch() {
+    lookupStats.setEnabled(true);
+    matchIndexRef.set(0);
+    Counting counting = new Counting();
+    assertThat(newFinder(counting).getView(), sameInstance((View) testView));
+    assertEquals(1, counting.invocations);
+    assertEquals(1, lookupStats.getStoppedLookupCount());
+    assertEquals(1, lookupStats.getViewsMatched());
+    assertEquals(1, lookupStats.getViewsMatchedByStoppedLookups());
+    assertEquals("what's left of a traversal isn't counted", 0, lookupStats.getViewsSkipped());
+
+    matchIndexRef.set(3);
+    assertThat(newFinder(notNullValue(View.class)).getView(),
+        sameInstance((View) nestingLayout));
+    matchIndexRef.set(7);
+    try {
+      newFinder(notNullValue(View.class)).getView();
+      fail("There are only 7 views!");
+    } catch (NoMatchingViewException expected) {}
+    assertEquals(3, lookupStats.getLookupCount());
+    assertEquals(2, lookupStats.getStoppedLookupCount());
+    assertEquals(1 + 4 + 7, lookupStats.getViewsMatched());
+    assertEquals(1 + 4, lookupStats.getViewsMatchedByStoppedLookups());
+  }
+
+  @SuppressWarnings("unchecked")
+  @UiThreadTest
+  public void testGetView_parallel() {
+    parallelMatcher.setEnabled(true);
+    lookupStats.setEnabled(true);
+    assertThat(newFinder(allOf(isEnabled(), withId(5))).getView(), sameInstance(nestedChild));
+    assertEquals("only the view matched on other threads is matched live",
+        1, lookupStats.getViewsMatched());
+    try {
+      newFinder(isEnabled()).getView();
       fail("All nodes hit that matcher!");
     } catch (AmbiguousViewMatcherException expected) {}
+
+    // can't be matched on other threads.
+    Counting counting = new Counting();
+    matchIndexRef.set(6);
+    assertThat(newFinder(allOf(isEnabled(), counting)).getView(), sameInstance(nestedChild));
+    assertEquals(7, counting.invocations);
   }
 
   public void testFind_offUiThread() {
-    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider);
+    ViewFinder finder = newFinder(sameInstance(nestedChild));
     try {
       finder.getView();
       fail("not on main thread, should die.");
     } catch (IllegalStateException expected) {}
   }
 
+  private ViewFinder newFinder(Matcher<View> viewMatcher) {
+    return new ViewFinderImpl(viewMatcher, testViewProvider, new ViewHierarchyIndex(),
+        scopeMatcherRef, matchIndexRef, lookupStats, parallelMatcher);
+  }
+
+  private static class Counting extends BaseMatcher<View> {
+    private int invocations;
+
+    @Override
+    public boolean matches(Object item) {
+      invocations++;
+      return true;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("any view");
+    }
+  }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.assertion.ViewAssertions.matches;
+import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.is;
+
+import android.support.test.espresso.AmbiguousViewMatcherException;
+import android.support.test.espresso.Espresso;
+import android.support.test.testapp.R;
+import android.support.test.testapp.SimpleActivity;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.UiThreadTest;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+/** Unit tests for {@link ViewHierarchyIndex}. */
+@LargeTest
+public class ViewHierarchyIndexTest extends ActivityInstrumentationTestCase2<SimpleActivity> {
+
+  private static final int SCOPE_ID = 1001;
+  private static final int MATCH_ID = 1002;
+
+  private ViewHierarchyIndex index;
+
+  @SuppressWarnings("deprecation")
+  public ViewHierarchyIndexTest() {
+    // Supporting froyo.
+    super("android.support.test.testapp", SimpleActivity.class);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    getActivity();
+    index = new ViewHierarchyIndex();
+    index.setEnabled(true);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    Espresso.setViewHierarchyIndexEnabled(false);
+    super.tearDown();
+  }
+
+  @UiThreadTest
+  public void testLookUp_byIdAndText() {
+    View root = getActivity().getWindow().getDecorView();
+    TextView text = (TextView) getActivity().findViewById(R.id.text_simple);
+
+    List<View> byId = index.lookUp(root, withId(R.id.text_simple));
+    assertEquals(1, byId.size());
+    assertSame(text, byId.get(0));
+    List<View> byText = index.lookUp(root, withText(text.getText().toString()));
+    assertTrue(byText.contains(text));
+    assertTrue(index.lookUp(root, withId(View.NO_ID - 1)).isEmpty());
+
+    assertNull("Only indexable matchers use the index", index.lookUp(root, withText(is("x"))));
+    assertNull("Detached views aren't indexed", index.lookUp(new View(getActivity()),
+        withText(text.getText().toString())));
+    index.setEnabled(false);
+    assertNull(index.lookUp(root, withId(R.id.text_simple)));
+  }
+
+  @UiThreadTest
+  public void testViewFinder_sameOrderInsideScopesWithIndex() {
+    // the first scope holds its view deeper than the second scope, so a breadth first traversal
+    // of the whole hierarchy meets the second scope's view first.
+    LinearLayout firstScope = new LinearLayout(getActivity());
+    firstScope.setId(SCOPE_ID);
+    LinearLayout wrapper = new LinearLayout(getActivity());
+    TextView deep = new TextView(getActivity());
+    deep.setId(MATCH_ID);
+    wrapper.addView(deep);
+    firstScope.addView(wrapper);
+    LinearLayout secondScope = new LinearLayout(getActivity());
+    secondScope.setId(SCOPE_ID);
+    TextView shallow = new TextView(getActivity());
+    shallow.setId(MATCH_ID);
+    secondScope.addView(shallow);
+    ViewGroup content = (ViewGroup) getActivity().findViewById(android.R.id.content);
+    content.addView(firstScope);
+    content.addView(secondScope);
+
+    for (boolean indexed : new boolean[] {false, true}) {
+      index.setEnabled(indexed);
+      assertSame(deep, find(withId(MATCH_ID), withId(SCOPE_ID), 0));
+      assertSame(shallow, find(withId(MATCH_ID), withId(SCOPE_ID), 1));
+      assertSame(deep, find(allOf(withId(MATCH_ID), isDescendantOfA(withId(SCOPE_ID))), null, 0));
+    }
+  }
+
+  @UiThreadTest
+  public void testViewFinder_seesIdsChangedAfterLookUp() {
+    View root = getActivity().getWindow().getDecorView();
+    TextView text = (TextView) getActivity().findViewById(R.id.text_simple);
+    assertSame(text, find(withId(R.id.text_simple), null, ViewFinderImpl.UNIQUE_MATCH));
+
+    // changing an id neither lays out nor draws the window.
+    TextView other = new TextView(getActivity());
+    ((ViewGroup) getActivity().findViewById(android.R.id.content)).addView(other);
+    other.setId(R.id.text_simple);
+    assertEquals(2, index.lookUp(root, withId(R.id.text_simple)).size());
+    try {
+      find(withId(R.id.text_simple), null, ViewFinderImpl.UNIQUE_MATCH);
+      fail("Should have found both views");
+    } catch (AmbiguousViewMatcherException expected) { }
+  }
+
+  private View find(Matcher<View> viewMatcher, Matcher<View> scopeMatcher, int matchIndex) {
+    final View root = getActivity().getWindow().getDecorView();
+    Provider<View> rootProvider = new Provider<View>() {
+      @Override
+      public View get() {
+        return root;
+      }
+    };
+    return new ViewFinderImpl(viewMatcher, rootProvider, index,
+        new AtomicReference<Matcher<View>>(scopeMatcher), new AtomicInteger(matchIndex),
+        new ViewLookupStats(), new ParallelViewMatcher()).getView();
+  }
+
+  public void testFindsViewsAfterTextChanges() {
+    Espresso.setViewHierarchyIndexEnabled(true);
+    onView(withId(R.id.text_simple)).check(matches(isDisplayed()));
+    onView(withId(R.id.button_simple)).perform(click());
+    // the text changed after the index was built.
+    onView(withText("Hello Espresso!")).check(matches(isDisplayed()));
+    onView(withId(R.id.text_simple)).check(matches(withText("Hello Espresso!")));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.benchmark;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Times the work of {@link Benchmark}s and reports their results, logged under {@link #TAG} so a
+ * run's results can be collected with {@code adb logcat -s EspressoBenchmark}.
+ */
+public final class Benchmarks {
+
+  public static final String TAG = "EspressoBenchmark";
+
+  private Benchmarks() {}
+
+  /**
+   * The work measured by a benchmark.
+   */
+  public interface Body {
+    void run() throws Exception;
+  }
+
+  /**
+   * Runs the body warmups times, then returns how long it takes on average over runs more runs.
+   */
+  public static long nanosPerRun(int warmups, int runs, Body body) throws Exception {
+    for (int i = 0; i < warmups; i++) {
+      body.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      body.run();
+    }
+    return (System.nanoTime() - start) / runs;
+  }
+
+  /**
+   * Returns the objects the calling thread allocates on average over runs runs of the body, which
+   * should have been warmed up already.
+   */
+  @SuppressWarnings("deprecation")
+  public static int allocationsPerRun(int runs, Body body) throws Exception {
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    try {
+      for (int i = 0; i < runs; i++) {
+        body.run();
+      }
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    return Debug.getThreadAllocCount() / runs;
+  }
+
+  /**
+   * Reports a result of the named benchmark.
+   */
+  public static void report(String benchmark, String format, Object... args) {
+    Log.i(TAG, benchmark + ": " + String.format(format, args));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.hasDescendant;
+import static android.support.test.espresso.matcher.ViewMatchers.hasSibling;
+import static android.support.test.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static android.support.test.espresso.matcher.ViewMatchers.withParent;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+import android.support.test.espresso.util.TreeIterables;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+/**
+ * Benchmark of looking up the button of a row in a list of deep rows by the row's label, with and
+ * without a {@link MatchMemo}. The time a lookup takes is reported.
+ */
+@Benchmark
+public class MatchMemoBenchmarkTest extends InstrumentationTestCase {
+
+  private static final String NAME = "MatchMemo";
+  private static final int ROWS = 200;
+  private static final int ROW_DEPTH = 6;
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  @SuppressWarnings("unchecked")
+  public void testRowButtonByDescendantOfParent() throws Exception {
+    measure("withParent(hasDescendant(..))", allOf(isAssignableFrom(Button.class),
+        withParent(hasDescendant(withText("Row 150")))));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testRowButtonBySibling() throws Exception {
+    measure("hasSibling(hasDescendant(..))", allOf(isAssignableFrom(Button.class),
+        hasSibling(hasDescendant(withText("Row 150")))));
+  }
+
+  private void measure(String name, Matcher<View> matcher) throws Exception {
+    View root = buildRows(getInstrumentation().getContext());
+    long withoutMemo = nanosPerLookup(root, matcher, false);
+    long withMemo = nanosPerLookup(root, matcher, true);
+    report(NAME, "%s, %s rows %s deep: %sus per lookup, %sus with a memo",
+        name, ROWS, ROW_DEPTH, withoutMemo / 1000, withMemo / 1000);
+  }
+
+  private static long nanosPerLookup(final View root, final Matcher<View> matcher,
+      final boolean memoized) throws Exception {
+    return nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, new Body() {
+      @Override
+      public void run() {
+        lookUp(root, matcher, memoized);
+      }
+    });
+  }
+
+  private static void lookUp(View root, Matcher<View> matcher, boolean memoized) {
+    MatchMemo memo = memoized ? MatchMemo.open() : null;
+    try {
+      int matches = 0;
+      for (View view : TreeIterables.breadthFirstViewTraversal(root)) {
+        if (matcher.matches(view)) {
+          matches++;
+        }
+      }
+      assertEquals(1, matches);
+    } finally {
+      if (null != memo) {
+        memo.close();
+      }
+    }
+  }
+
+  /**
+   * A list of rows, each nesting a labelled layout {@link #ROW_DEPTH} deep next to a button.
+   */
+  private static View buildRows(Context context) {
+    LinearLayout list = new LinearLayout(context);
+    for (int i = 0; i < ROWS; i++) {
+      TextView label = new TextView(context);
+      label.setText("Row " + i);
+      View content = label;
+      for (int depth = 0; depth < ROW_DEPTH; depth++) {
+        LinearLayout layout = new LinearLayout(context);
+        layout.addView(content);
+        content = layout;
+      }
+      LinearLayout row = new LinearLayout(context);
+      row.addView(content);
+      row.addView(new Button(context));
+      list.addView(row);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import static android.support.test.espresso.matcher.ViewMatchers.hasDescendant;
+import static android.support.test.espresso.matcher.ViewMatchers.hasSibling;
+import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
+import static android.support.test.espresso.matcher.ViewMatchers.withChild;
+import static android.support.test.espresso.matcher.ViewMatchers.withParent;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+
+import android.support.test.espresso.util.TreeIterables;
+import com.google.common.collect.Lists;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link MatchMemo}.
+ */
+public class MatchMemoTest extends InstrumentationTestCase {
+
+  private static final int ROWS = 10;
+
+  private View root;
+  private List<View> views;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    root = buildRows(getInstrumentation().getContext());
+    views = Lists.newArrayList(TreeIterables.breadthFirstViewTraversal(root));
+  }
+
+  public void testStructuralMatchers_sameMatchesWithMemo() {
+    List<Matcher<View>> matchers = Lists.newArrayList(
+        hasDescendant(withText("Row 5")),
+        hasSibling(withText("Row 5")),
+        withParent(hasDescendant(withText("Row 5"))),
+        withChild(withText("Row 5")),
+        isDescendantOfA(withChild(withText("Row 5"))));
+    for (Matcher<View> matcher : matchers) {
+      List<View> matched = matchAll(matcher);
+      MatchMemo memo = MatchMemo.open();
+      try {
+        assertEquals(matcher.toString(), matched, matchAll(matcher));
+      } finally {
+        memo.close();
+      }
+      assertFalse(matched.isEmpty());
+    }
+  }
+
+  public void testHasDescendant_matchesEachViewOnce() {
+    Counting counting = new Counting(withText("Row 5"));
+    Matcher<View> matcher = hasDescendant(counting);
+    matchAll(matcher);
+    int withoutMemo = counting.invocations;
+
+    counting.invocations = 0;
+    MatchMemo memo = MatchMemo.open();
+    try {
+      matchAll(matcher);
+    } finally {
+      memo.close();
+    }
+    // every view but the root is somebody's descendant.
+    assertEquals(views.size() - 1, counting.invocations);
+    assertTrue(withoutMemo > counting.invocations);
+  }
+
+  public void testIsDescendantOfA_matchesEachAncestorOnce() {
+    Counting counting = new Counting(withChild(withText("Row 5")));
+    MatchMemo memo = MatchMemo.open();
+    try {
+      matchAll(isDescendantOfA(counting));
+    } finally {
+      memo.close();
+    }
+    // views without children are nobody's ancestor.
+    int ancestors = 0;
+    for (View view : views) {
+      ancestors += view instanceof LinearLayout ? 1 : 0;
+    }
+    assertEquals(ancestors, counting.invocations);
+  }
+
+  public void testOpenAndClose() {
+    assertFalse(MatchMemo.isOpen());
+    MatchMemo outer = MatchMemo.open();
+    MatchMemo inner = MatchMemo.open();
+    try {
+      outer.close();
+      fail("Closing the outer memo first should fail!");
+    } catch (IllegalStateException expected) {}
+    inner.close();
+    assertTrue(MatchMemo.isOpen());
+    outer.close();
+    assertFalse(MatchMemo.isOpen());
+  }
+
+  private List<View> matchAll(Matcher<View> matcher) {
+    List<View> matched = Lists.newArrayList();
+    for (View view : views) {
+      if (matcher.matches(view)) {
+        matched.add(view);
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * A list of rows, each a layout nesting a layout holding a label and a value.
+   */
+  private static View buildRows(Context context) {
+    LinearLayout list = new LinearLayout(context);
+    for (int i = 0; i < ROWS; i++) {
+      LinearLayout content = new LinearLayout(context);
+      TextView label = new TextView(context);
+      label.setText("Row " + i);
+      content.addView(label);
+      content.addView(new TextView(context));
+      LinearLayout row = new LinearLayout(context);
+      row.addView(content);
+      list.addView(row);
+    }
+    return list;
+  }
+
+  private static class Counting extends BaseMatcher<View> {
+    private final Matcher<View> delegate;
+    private int invocations;
+
+    Counting(Matcher<View> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean matches(Object item) {
+      invocations++;
+      return delegate.matches(item);
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      delegate.describeTo(description);
+    }
+  }
+}
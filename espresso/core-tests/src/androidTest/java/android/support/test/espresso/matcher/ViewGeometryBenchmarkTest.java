@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withEffectiveVisibility;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+import android.support.test.espresso.matcher.ViewMatchers.Visibility;
+import android.support.test.espresso.util.TreeIterables;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+/**
+ * Benchmark of matching every view of a hierarchy of deep rows against the display matchers,
+ * with and without a {@link MatchMemo}. The time matching the hierarchy takes is reported.
+ */
+@Benchmark
+public class ViewGeometryBenchmarkTest extends InstrumentationTestCase {
+
+  private static final String NAME = "ViewGeometry";
+  private static final int ROWS = 100;
+  private static final int ROW_DEPTH = 10;
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 20;
+
+  public void testEffectiveVisibility() throws Exception {
+    measure("withEffectiveVisibility(VISIBLE)", withEffectiveVisibility(Visibility.VISIBLE));
+  }
+
+  public void testIsDisplayed() throws Exception {
+    measure("isDisplayed()", isDisplayed());
+  }
+
+  private void measure(String name, Matcher<View> matcher) throws Exception {
+    View root = buildRows(getInstrumentation().getContext());
+    long withoutMemo = nanosPerLookup(root, matcher, false);
+    long withMemo = nanosPerLookup(root, matcher, true);
+    report(NAME, "%s, %s rows %s deep: %sus per lookup, %sus with a memo",
+        name, ROWS, ROW_DEPTH, withoutMemo / 1000, withMemo / 1000);
+  }
+
+  private static long nanosPerLookup(final View root, final Matcher<View> matcher,
+      final boolean memoized) throws Exception {
+    return nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, new Body() {
+      @Override
+      public void run() {
+        matchAll(root, matcher, memoized);
+      }
+    });
+  }
+
+  private static void matchAll(View root, Matcher<View> matcher, boolean memoized) {
+    MatchMemo memo = memoized ? MatchMemo.open() : null;
+    try {
+      for (View view : TreeIterables.breadthFirstViewTraversal(root)) {
+        matcher.matches(view);
+      }
+    } finally {
+      if (null != memo) {
+        memo.close();
+      }
+    }
+  }
+
+  /**
+   * A list of rows, each nesting a text view {@link #ROW_DEPTH} layouts deep.
+   */
+  private static View buildRows(Context context) {
+    LinearLayout list = new LinearLayout(context);
+    for (int i = 0; i < ROWS; i++) {
+      View content = new TextView(context);
+      for (int depth = 0; depth < ROW_DEPTH; depth++) {
+        LinearLayout layout = new LinearLayout(context);
+        layout.addView(content);
+        content = layout;
+      }
+      list.addView(content);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withEffectiveVisibility;
+
+import android.support.test.espresso.matcher.ViewMatchers.Visibility;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.LinearLayout;
+
+/**
+ * Unit tests for {@link ViewGeometry}.
+ */
+public class ViewGeometryTest extends InstrumentationTestCase {
+
+  private Context context;
+  private LinearLayout invisible;
+  private LinearLayout gone;
+  private View visible;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    context = getInstrumentation().getContext();
+    invisible = new LinearLayout(context);
+    invisible.setVisibility(View.INVISIBLE);
+    gone = new LinearLayout(context);
+    gone.setVisibility(View.GONE);
+    visible = new View(context);
+    invisible.addView(gone);
+    gone.addView(visible);
+  }
+
+  public void testVisibilityFlags() {
+    for (ViewGeometry geometry : new ViewGeometry[] {
+        ViewGeometry.current(), ViewGeometry.remembering()}) {
+      assertEquals(ViewGeometry.VISIBLE, geometry.getVisibilityFlags(new View(context)));
+      assertEquals(ViewGeometry.INVISIBLE_FLAG, geometry.getVisibilityFlags(invisible));
+      assertEquals(ViewGeometry.INVISIBLE_FLAG | ViewGeometry.GONE_FLAG,
+          geometry.getVisibilityFlags(visible));
+    }
+  }
+
+  public void testEffectiveVisibility_withMemo() {
+    MatchMemo memo = MatchMemo.open();
+    try {
+      assertTrue(withEffectiveVisibility(Visibility.INVISIBLE).matches(visible));
+      assertTrue(withEffectiveVisibility(Visibility.GONE).matches(visible));
+      assertFalse(withEffectiveVisibility(Visibility.VISIBLE).matches(visible));
+      assertFalse(withEffectiveVisibility(Visibility.GONE).matches(invisible));
+      assertFalse(isDisplayed().matches(visible));
+    } finally {
+      memo.close();
+    }
+  }
+
+  public void testVisibilityFlags_rememberedForDescendants() {
+    ViewGeometry geometry = ViewGeometry.remembering();
+    assertEquals(ViewGeometry.INVISIBLE_FLAG, geometry.getVisibilityFlags(invisible));
+    // the hierarchy mustn't change while a memo is open, the parent's flags are reused.
+    invisible.setVisibility(View.VISIBLE);
+    assertEquals(ViewGeometry.INVISIBLE_FLAG | ViewGeometry.GONE_FLAG,
+        geometry.getVisibilityFlags(visible));
+    assertEquals(ViewGeometry.GONE_FLAG, ViewGeometry.current().getVisibilityFlags(visible));
+  }
+
+  public void testScreen_rememberedPerContext() {
+    ViewGeometry geometry = ViewGeometry.remembering();
+    Rect screen = geometry.getScreenWithoutStatusBarActionBar(context);
+    assertSame(screen, geometry.getScreenWithoutStatusBarActionBar(context));
+    assertTrue(screen.width() > 0);
+
+    Rect uncached = ViewGeometry.current().getScreenWithoutStatusBarActionBar(context);
+    assertEquals(screen, uncached);
+    assertNotSame(uncached, ViewGeometry.current().getScreenWithoutStatusBarActionBar(context));
+  }
+
+  public void testGeometry_sharedByNestedMemos() {
+    MatchMemo outer = MatchMemo.open();
+    try {
+      ViewGeometry geometry = ViewGeometry.current();
+      MatchMemo inner = MatchMemo.open();
+      try {
+        assertSame(geometry, ViewGeometry.current());
+      } finally {
+        inner.close();
+      }
+    } finally {
+      outer.close();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.util;
+
+import static android.support.test.espresso.benchmark.Benchmarks.allocationsPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.nanosPerRun;
+import static android.support.test.espresso.benchmark.Benchmarks.report;
+
+import android.support.test.espresso.benchmark.Benchmark;
+import android.support.test.espresso.benchmark.Benchmarks.Body;
+import android.support.test.espresso.util.TreeIterables.ViewVisitor;
+import android.support.test.espresso.util.TreeIterables.VisitResult;
+import com.google.common.collect.Lists;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Benchmark of traversing synthetic view hierarchies of 1k and 10k views, comparing the
+ * traversals of {@link TreeIterables} with a copy of the LinkedList based traversal they
+ * replaced. Each traversal is warmed up before being measured; the time and the number of
+ * allocations per traversal are reported.
+ */
+@Benchmark
+public class TreeIterablesBenchmarkTest extends InstrumentationTestCase {
+
+  private static final String NAME = "TreeIterables";
+  private static final int CHILDREN_PER_GROUP = 4;
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final int MEASURED_ITERATIONS = 50;
+
+  public void testThousandViews() throws Exception {
+    compare(1000);
+  }
+
+  public void testTenThousandViews() throws Exception {
+    compare(10000);
+  }
+
+  private void compare(int viewCount) throws Exception {
+    final View root = buildHierarchy(getInstrumentation().getContext(), viewCount);
+    final int[] visited = new int[1];
+    final ViewVisitor countingVisitor = new ViewVisitor() {
+      @Override
+      public VisitResult visit(View view, int distanceFromRoot) {
+        visited[0]++;
+        return VisitResult.CONTINUE;
+      }
+    };
+
+    measure(viewCount, "legacy breadth first", new Traversal() {
+      @Override
+      public int run() {
+        return legacyBreadthFirstCount(root);
+      }
+    });
+    measure(viewCount, "breadth first iterable", new Traversal() {
+      @Override
+      public int run() {
+        int count = 0;
+        for (View view : TreeIterables.breadthFirstViewTraversal(root)) {
+          count++;
+        }
+        return count;
+      }
+    });
+    measure(viewCount, "depth first iterable", new Traversal() {
+      @Override
+      public int run() {
+        int count = 0;
+        for (View view : TreeIterables.depthFirstViewTraversal(root)) {
+          count++;
+        }
+        return count;
+      }
+    });
+    measure(viewCount, "breadth first visitor", new Traversal() {
+      @Override
+      public int run() {
+        visited[0] = 0;
+        TreeIterables.visitBreadthFirst(root, countingVisitor);
+        return visited[0];
+      }
+    });
+    measure(viewCount, "depth first visitor", new Traversal() {
+      @Override
+      public int run() {
+        visited[0] = 0;
+        TreeIterables.visitDepthFirst(root, countingVisitor);
+        return visited[0];
+      }
+    });
+  }
+
+  private static void measure(int viewCount, String name, final Traversal traversal)
+      throws Exception {
+    assertEquals(viewCount, traversal.run());
+    Body body = new Body() {
+      @Override
+      public void run() {
+        traversal.run();
+      }
+    };
+    long nanosPerTraversal = nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, body);
+    int allocationsPerTraversal = allocationsPerRun(MEASURED_ITERATIONS, body);
+    report(NAME, "%s views, %s: %sus and %s allocations per traversal.",
+        viewCount, name, nanosPerTraversal / 1000, allocationsPerTraversal);
+  }
+
+  /**
+   * Builds a hierarchy of the given number of views, filled breadth first with
+   * CHILDREN_PER_GROUP children per group.
+   */
+  private static View buildHierarchy(Context context, int viewCount) {
+    FrameLayout root = new FrameLayout(context);
+    LinkedList<ViewGroup> groups = Lists.newLinkedList();
+    groups.add(root);
+    int created = 1;
+    while (created < viewCount) {
+      ViewGroup parent = groups.removeFirst();
+      for (int i = 0; i < CHILDREN_PER_GROUP && created < viewCount; i++) {
+        FrameLayout child = new FrameLayout(context);
+        parent.addView(child);
+        groups.add(child);
+        created++;
+      }
+    }
+    return root;
+  }
+
+  /**
+   * The traversal TreeIterables used to do: a LinkedList work queue and a copy of the children of
+   * every group.
+   */
+  private static int legacyBreadthFirstCount(View root) {
+    LinkedList<View> nodes = Lists.newLinkedList();
+    nodes.add(root);
+    int count = 0;
+    while (!nodes.isEmpty()) {
+      View view = nodes.removeFirst();
+      count++;
+      if (view instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup) view;
+        List<View> children = Lists.newArrayList();
+        for (int i = 0; i < group.getChildCount(); i++) {
+          children.add(group.getChildAt(i));
+        }
+        nodes.addAll(children);
+      }
+    }
+    return count;
+  }
+
+  private interface Traversal {
+    int run();
+  }
+}
@@ -18,28 +18,27 @@ package android.support.test.espresso.util;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.allOf;
-import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
 
-import android.support.test.espresso.util.TreeIterables.DistanceRecordingTreeViewer;
 import android.support.test.espresso.util.TreeIterables.TreeViewer;
+import android.support.test.espresso.util.TreeIterables.ViewAndDistance;
+import android.support.test.espresso.util.TreeIterables.ViewVisitor;
+import android.support.test.espresso.util.TreeIterables.VisitResult;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
-import junit.framework.TestCase;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /** Unit tests for {@link TreeIterables}. */
-public class TreeIterablesTest extends TestCase {
+public class TreeIterablesTest extends InstrumentationTestCase {
 
   private static class TestElement {
     private final String data;
@@ -87,79 +86,6 @@ public class TreeIterablesTest extends TestCase {
             new TestElement("p"),
             new TestElement("q"))));
 
-  public void testDistanceRecorder_unknownItemThrowsException() {
-    final DistanceRecordingTreeViewer<TestElement> distanceRecorder =
-        new DistanceRecordingTreeViewer<TestElement>(complexTree, new TestElementTreeViewer());
-    try {
-      distanceRecorder.getDistance(new TestElement("hello"));
-      fail("node should be unknown");
-    } catch (RuntimeException expected) { }
-  }
-
-  public void testDistanceRecorder_unprocessedChildThrowsException() {
-    final DistanceRecordingTreeViewer<TestElement> distanceRecorder =
-        new DistanceRecordingTreeViewer<TestElement>(complexTree, new TestElementTreeViewer());
-
-    try {
-      distanceRecorder.getDistance(complexTree.children.iterator().next());
-      fail("distance recorder hasnt processed this child yet, cannot know distance");
-    } catch (RuntimeException expected) { }
-  }
-
-  public void testDistanceRecorder_distanceKnownAfterChildrenCall() {
-    final DistanceRecordingTreeViewer<TestElement> distanceRecorder =
-        new DistanceRecordingTreeViewer<TestElement>(complexTree, new TestElementTreeViewer());
-
-    @SuppressWarnings("unused")
-    List<TestElement> createdForSideEffect = Lists.newArrayList(
-        distanceRecorder.children(complexTree));
-
-    assertThat(distanceRecorder.getDistance(complexTree), is(0));
-    assertThat(distanceRecorder.getDistance(complexTree.children.iterator().next()), is(1));
-  }
-
-  @SuppressWarnings("unchecked")
-  public void testComplexTree_Distances() {
-    final DistanceRecordingTreeViewer<TestElement> distanceRecorder =
-        new DistanceRecordingTreeViewer<TestElement>(complexTree, new TestElementTreeViewer());
-    Iterable<TestElement> complexIterable = TreeIterables.depthFirstTraversal(complexTree,
-        distanceRecorder);
-    Set<TestElement> complexSet = Sets.newHashSet(complexIterable);
-    Map<String, Integer> distancesByData = Maps.newHashMap();
-    for (TestElement e : complexSet) {
-      distancesByData.put(e.data, distanceRecorder.getDistance(e));
-    }
-
-    assertThat(distancesByData, allOf(
-        hasEntry("a", 0),
-        hasEntry("b", 1),
-        hasEntry("c", 2),
-        hasEntry("d", 3),
-        hasEntry("e", 3),
-        hasEntry("f", 4),
-        hasEntry("g", 2),
-        hasEntry("h", 2),
-        hasEntry("i", 3),
-        hasEntry("j", 4),
-        hasEntry("k", 5),
-        hasEntry("l", 1),
-        hasEntry("m", 1),
-        hasEntry("n", 1),
-        hasEntry("o", 2),
-        hasEntry("p", 3),
-        hasEntry("q", 3)));
-    assertThat(distancesByData.size(), is(17));
-
-    List<String> traversalOrder = Lists.newArrayList(Iterables.transform(
-        complexIterable,
-        new TestElementStringConvertor()));
-
-    // should be depth first if forwarding correctly.
-    assertThat(traversalOrder,
-        is((List<String>) Lists.newArrayList(
-            "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q")));
-  }
-
   public void testComplexTraversal_depthFirst() {
     List<String> breadthFirst = Lists.newArrayList(Iterables.transform(
         TreeIterables.depthFirstTraversal(complexTree, new TestElementTreeViewer()),
@@ -198,24 +124,61 @@ public class TreeIterablesTest extends TestCase {
     assertThat(depthFirst, is((List<String>) Lists.newArrayList("a", "b", "c", "d")));
   }
 
-  @SuppressWarnings("unchecked")
-  public void testTrivial_distance() {
-    final DistanceRecordingTreeViewer<TestElement> distanceRecorder =
-        new DistanceRecordingTreeViewer<TestElement>(trivialTree, new TestElementTreeViewer());
-
-    Iterable<TestElement> trivialIterable = TreeIterables.depthFirstTraversal(trivialTree,
-        distanceRecorder);
-    Set<TestElement> trivialSet = Sets.newHashSet(trivialIterable);
-    Map<String, Integer> distancesByData = Maps.newHashMap();
-    for (TestElement e : trivialSet) {
-      distancesByData.put(e.data, distanceRecorder.getDistance(e));
+  public void testViewTraversal_distances() {
+    LinearLayout root = new LinearLayout(getInstrumentation().getContext());
+    FrameLayout frame = new FrameLayout(getInstrumentation().getContext());
+    View leaf = new View(getInstrumentation().getContext());
+    View sibling = new View(getInstrumentation().getContext());
+    frame.addView(leaf);
+    root.addView(frame);
+    root.addView(sibling);
+
+    List<View> views = Lists.newArrayList();
+    List<Integer> distances = Lists.newArrayList();
+    for (ViewAndDistance each : TreeIterables.depthFirstViewTraversalWithDistance(root)) {
+      views.add(each.getView());
+      distances.add(each.getDistanceFromRoot());
+    }
+    assertEquals(Lists.newArrayList(root, frame, leaf, sibling), views);
+    assertEquals(Lists.newArrayList(0, 1, 2, 1), distances);
+    assertEquals(Lists.newArrayList(root, frame, sibling, leaf),
+        Lists.newArrayList(TreeIterables.breadthFirstViewTraversal(root)));
+  }
+
+  public void testVisit_skipChildrenAndStop() {
+    LinearLayout root = new LinearLayout(getInstrumentation().getContext());
+    FrameLayout frame = new FrameLayout(getInstrumentation().getContext());
+    View leaf = new View(getInstrumentation().getContext());
+    final View sibling = new View(getInstrumentation().getContext());
+    frame.addView(leaf);
+    root.addView(frame);
+    root.addView(sibling);
+
+    for (boolean depthFirst : new boolean[] {true, false}) {
+      final List<View> visited = Lists.newArrayList();
+      final View skipped = frame;
+      ViewVisitor visitor = new ViewVisitor() {
+        @Override
+        public VisitResult visit(View view, int distanceFromRoot) {
+          visited.add(view);
+          if (view == skipped) {
+            return VisitResult.SKIP_CHILDREN;
+          }
+          return view == sibling ? VisitResult.STOP : VisitResult.CONTINUE;
+        }
+      };
+      View stoppedAt = depthFirst
+          ? TreeIterables.visitDepthFirst(root, visitor)
+          : TreeIterables.visitBreadthFirst(root, visitor);
+      assertSame(sibling, stoppedAt);
+      assertEquals(Lists.newArrayList(root, frame, sibling), visited);
     }
 
-    assertThat(distancesByData, allOf(
-        hasEntry("a", 0),
-        hasEntry("b", 1),
-        hasEntry("c", 2),
-        hasEntry("d", 3)));
-    assertThat(distancesByData.size(), is(4));
+    assertNull(TreeIterables.visitDepthFirst(root, new ViewVisitor() {
+      @Override
+      public VisitResult visit(View view, int distanceFromRoot) {
+        return VisitResult.CONTINUE;
+      }
+    }));
   }
 }
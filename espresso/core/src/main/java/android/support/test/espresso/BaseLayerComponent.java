@@ -1,9 +1,15 @@
 package android.support.test.espresso;
 
 import android.support.test.espresso.base.ActiveRootLister;
+import android.support.test.espresso.base.AsyncTaskCounting;
 import android.support.test.espresso.base.BaseLayerModule;
+import android.support.test.espresso.base.DispatchProfiler;
 import android.support.test.espresso.base.IdlingResourceRegistry;
+import android.support.test.espresso.base.ParallelViewMatcher;
+import android.support.test.espresso.base.SyncProfiler;
 import android.support.test.espresso.base.UiControllerModule;
+import android.support.test.espresso.base.ViewHierarchyIndex;
+import android.support.test.espresso.base.ViewLookupStats;
 
 import dagger.Component;
 
@@ -19,5 +25,11 @@ public interface BaseLayerComponent {
   FailureHandler failureHandler();
   ActiveRootLister activeRootLister();
   IdlingResourceRegistry idlingResourceRegistry();
+  SyncProfiler syncProfiler();
+  DispatchProfiler dispatchProfiler();
+  ViewHierarchyIndex viewHierarchyIndex();
+  ViewLookupStats viewLookupStats();
+  ParallelViewMatcher parallelViewMatcher();
+  AsyncTaskCounting asyncTaskCounting();
   ViewInteractionComponent plus(ViewInteractionModule module);
 }
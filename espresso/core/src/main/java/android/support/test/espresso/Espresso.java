@@ -29,18 +29,23 @@ import static org.hamcrest.Matchers.endsWith;
 
 import android.support.test.espresso.action.ViewActions;
 import android.support.test.espresso.base.IdlingResourceRegistry;
+import android.support.test.espresso.base.UiControllers;
 import android.support.test.espresso.util.TreeIterables;
 import com.google.common.collect.ImmutableList;
 
 import android.content.Context;
 import android.os.Build;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewConfiguration;
 
 import org.hamcrest.Matcher;
 
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Entry point to the Espresso framework. Test authors can initiate testing by using one of the on*
@@ -105,6 +110,42 @@ public final class Espresso {
     REGISTRY.registerLooper(looper, considerWaitIdle);
   }
 
+  /**
+   * Registers a {@link ThreadPoolExecutor} of the application for idle checking. Espresso waits
+   * for the executor to have no queued or running tasks, as it does for the AsyncTask pool. Any
+   * number of executors may be registered; together they are tracked as a single resource.
+   *
+   * <p>Tasks scheduled on a {@link java.util.concurrent.ScheduledThreadPoolExecutor} only keep it
+   * busy once they are about to be due, the same lookahead used for the main thread's messages.
+   *
+   * @return {@code false} if the executor was already registered
+   */
+  public static boolean registerExecutorAsIdlingResource(ThreadPoolExecutor executor) {
+    return REGISTRY.registerExecutor(executor);
+  }
+
+  /**
+   * Registers a {@link ThreadPoolExecutor} of the application for idle checking, like
+   * {@link #registerExecutorAsIdlingResource(ThreadPoolExecutor)}. Scheduled tasks only keep the
+   * executor busy once they are due within the given lookahead.
+   *
+   * @return {@code false} if the executor was already registered
+   */
+  public static boolean registerExecutorAsIdlingResource(ThreadPoolExecutor executor,
+      long lookahead, TimeUnit unit) {
+    return REGISTRY.registerExecutor(executor, lookahead, unit);
+  }
+
+  /**
+   * Stops idle checking of an executor registered with
+   * {@link #registerExecutorAsIdlingResource(ThreadPoolExecutor)}.
+   *
+   * @return {@code false} if the executor wasn't registered
+   */
+  public static boolean unregisterExecutorAsIdlingResource(ThreadPoolExecutor executor) {
+    return REGISTRY.unregisterExecutor(executor);
+  }
+
   /**
    * Registers one or more {@link IdlingResource}s with the framework. It is expected, although not
    * strictly required, that this method will be called at test setup time prior to any interaction
@@ -127,6 +168,27 @@ public final class Espresso {
     return REGISTRY.unregisterResources(ImmutableList.copyOf(checkNotNull(resources)));
   }
 
+  /**
+   * Registers one or more {@link IdlingResource}s without waiting for the main thread, which makes
+   * it suitable for app threads that create resources as they go (e.g. one per network call). The
+   * resources are registered before Espresso next checks whether the app is idle.
+   *
+   * @return a future of whether all resources were successfully registered
+   */
+  public static Future<Boolean> registerIdlingResourcesAsync(IdlingResource... resources) {
+    return REGISTRY.registerResourcesAsync(ImmutableList.copyOf(checkNotNull(resources)));
+  }
+
+  /**
+   * Unregisters one or more {@link IdlingResource}s without waiting for the main thread. See
+   * {@link #registerIdlingResourcesAsync(IdlingResource...)}.
+   *
+   * @return a future of whether all resources were successfully unregistered
+   */
+  public static Future<Boolean> unregisterIdlingResourcesAsync(IdlingResource... resources) {
+    return REGISTRY.unregisterResourcesAsync(ImmutableList.copyOf(checkNotNull(resources)));
+  }
+
   /**
    * Returns a list of all currently registered {@link IdlingResource}s.
    */
@@ -134,6 +196,47 @@ public final class Espresso {
     return REGISTRY.getResources();
   }
 
+  /**
+   * Returns how long each {@link IdlingResource} has kept Espresso waiting, the longest total wait
+   * first. Resources are tracked by name, whether or not they are still registered.
+   */
+  public static List<IdlingResourceStats> getIdlingResourceStats() {
+    return REGISTRY.getResourceStats();
+  }
+
+  /**
+   * Enables or disables the index of the view hierarchy by id and text. While enabled, views
+   * matched by {@link android.support.test.espresso.matcher.ViewMatchers#withId(int)} or
+   * {@link android.support.test.espresso.matcher.ViewMatchers#withText(String)} are looked up in
+   * the index instead of matching every view of the hierarchy. The text index is rebuilt after
+   * every layout or draw pass of the window. Ids can change without one, so they are compared
+   * on every lookup.
+   */
+  public static void setViewHierarchyIndexEnabled(boolean enabled) {
+    BASE.viewHierarchyIndex().setEnabled(enabled);
+  }
+
+  /**
+   * Enables or disables matching the views of the hierarchy on background threads. While
+   * enabled, lookups whose matchers only combine matchers that can match a snapshot of a view -
+   * like {@link android.support.test.espresso.matcher.ViewMatchers#withId(int)} or
+   * {@link android.support.test.espresso.matcher.ViewMatchers#isEnabled()} - copy the hierarchy
+   * on the main thread and match the copy on all cores.
+   */
+  public static void setParallelViewMatchingEnabled(boolean enabled) {
+    BASE.parallelViewMatcher().setEnabled(enabled);
+  }
+
+  /**
+   * Enables or disables counting the tasks started with AsyncTask.execute(). While enabled,
+   * Espresso waits for the last counted task to complete instead of blocking the threads of the
+   * AsyncTask pool, but tasks handed to AsyncTask.THREAD_POOL_EXECUTOR directly are not waited for.
+   * Counting replaces the app's default AsyncTask executor until it is disabled again.
+   */
+  public static void setAsyncTaskCountingEnabled(boolean enabled) {
+    BASE.asyncTaskCounting().setEnabled(enabled);
+  }
+
   /**
    * Changes the default {@link FailureHandler} to the given one.
    */
@@ -236,9 +339,17 @@ public final class Espresso {
     @Override
     public void perform(UiController controller, View view) {
       int loops = 0;
+      long giveUpAt = SystemClock.uptimeMillis() + IdlingPolicies.getUiSettleTimeoutMillis();
       while (isTransitioningBetweenActionBars(view) && loops < 100) {
         loops++;
-        controller.loopMainThreadForAtLeast(50);
+        long remaining = giveUpAt - SystemClock.uptimeMillis();
+        if (remaining <= 0) {
+          break;
+        }
+        // the action bars swap with an animation, wait for it to end rather than polling.
+        if (!UiControllers.loopMainThreadUntilUiSettled(controller, remaining)) {
+          controller.loopMainThreadForAtLeast(50);
+        }
       }
       // if we're not transitioning properly the next viewaction
       // will give a decent enough exception.
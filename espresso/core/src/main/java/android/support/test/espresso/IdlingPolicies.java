@@ -53,6 +53,10 @@ public final class IdlingPolicies {
         .logWarning()
         .build();
 
+  private static volatile long delayedMessageFastForwardMillis = 0;
+
+  private static volatile long uiSettleTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
 
   /**
    * Updates the IdlingPolicy used in UiController.loopUntil to detect AppNotIdleExceptions.
@@ -85,6 +89,45 @@ public final class IdlingPolicies {
         .build();
   }
 
+  /**
+   * Lets UiController.loopMainThreadForAtLeast fast-forward the main queue instead of waiting.
+   *
+   * Waits no longer than the given window dispatch the messages which would have become due
+   * during the wait right away, in the order the queue would have delivered them, and return
+   * without waiting in real time. Longer waits are not affected. Only the queue is fast-forwarded:
+   * code comparing timestamps still sees the real time, and messages posted while fast-forwarding
+   * are due relative to the real time. Disabled by default.
+   *
+   * @param window the longest wait to fast-forward, 0 disables fast-forwarding.
+   * @param unit the unit of the window value.
+   */
+  public static void setDelayedMessageFastForward(long window, TimeUnit unit) {
+    checkArgument(window >= 0);
+    checkNotNull(unit);
+    delayedMessageFastForwardMillis = unit.toMillis(window);
+  }
+
+  public static long getDelayedMessageFastForwardMillis() {
+    return delayedMessageFastForwardMillis;
+  }
+
+  /**
+   * Updates how long Espresso waits at a time for the UI to settle - for a pending layout,
+   * animation or scroll to finish - while getting a root view ready, loading adapter data or
+   * bridging action bar transitions. Defaults to 5 seconds.
+   *
+   * @param timeout the longest wait for the UI to settle.
+   * @param unit the unit of the timeout value.
+   */
+  public static void setUiSettleTimeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout > 0);
+    checkNotNull(unit);
+    uiSettleTimeoutMillis = unit.toMillis(timeout);
+  }
+
+  public static long getUiSettleTimeoutMillis() {
+    return uiSettleTimeoutMillis;
+  }
 
   public static IdlingPolicy getMasterIdlingPolicy() {
     return masterIdlingPolicy;
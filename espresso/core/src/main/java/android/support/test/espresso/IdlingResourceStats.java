@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Describes how long an {@link IdlingResource} has kept Espresso waiting for it to become idle.
+ *
+ * A wait is a stretch of time the resource was busy while Espresso was waiting for the registered
+ * resources to idle. Percentiles are approximate: wait times are collected in buckets which double
+ * in size, and a percentile is reported as the upper bound of its bucket.
+ */
+public final class IdlingResourceStats {
+  private final String name;
+  private final int idleTransitions;
+  private final int busyTransitions;
+  private final int waits;
+  private final long totalWaitMillis;
+  private final long p50WaitMillis;
+  private final long p95WaitMillis;
+  private final long maxWaitMillis;
+  private final int lastToIdleCount;
+
+  private IdlingResourceStats(Builder builder) {
+    this.name = checkNotNull(builder.name);
+    this.idleTransitions = builder.idleTransitions;
+    this.busyTransitions = builder.busyTransitions;
+    this.waits = builder.waits;
+    this.totalWaitMillis = builder.totalWaitMillis;
+    this.p50WaitMillis = builder.p50WaitMillis;
+    this.p95WaitMillis = builder.p95WaitMillis;
+    this.maxWaitMillis = builder.maxWaitMillis;
+    this.lastToIdleCount = builder.lastToIdleCount;
+  }
+
+  /**
+   * The name of the resource, as returned by {@link IdlingResource#getName()}.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The number of busy to idle transitions observed.
+   */
+  public int getIdleTransitions() {
+    return idleTransitions;
+  }
+
+  /**
+   * The number of idle to busy transitions observed.
+   */
+  public int getBusyTransitions() {
+    return busyTransitions;
+  }
+
+  /**
+   * The number of times Espresso waited on the resource.
+   */
+  public int getWaits() {
+    return waits;
+  }
+
+  /**
+   * The total time Espresso waited on the resource.
+   */
+  public long getTotalWaitMillis() {
+    return totalWaitMillis;
+  }
+
+  public long getP50WaitMillis() {
+    return p50WaitMillis;
+  }
+
+  public long getP95WaitMillis() {
+    return p95WaitMillis;
+  }
+
+  public long getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+  /**
+   * The number of times the resource was the last one to become idle, ending Espresso's wait.
+   */
+  public int getLastToIdleCount() {
+    return lastToIdleCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: waited %sms over %s waits (p50 %sms, p95 %sms, max %sms), last to "
+        + "idle %s times, %s busy and %s idle transitions", name, totalWaitMillis, waits,
+        p50WaitMillis, p95WaitMillis, maxWaitMillis, lastToIdleCount, busyTransitions,
+        idleTransitions);
+  }
+
+  /**
+   * Creates {@link IdlingResourceStats} instances.
+   */
+  public static final class Builder {
+    private String name;
+    private int idleTransitions;
+    private int busyTransitions;
+    private int waits;
+    private long totalWaitMillis;
+    private long p50WaitMillis;
+    private long p95WaitMillis;
+    private long maxWaitMillis;
+    private int lastToIdleCount;
+
+    public Builder withName(String name) {
+      this.name = name;
+      return this;
+    }
+
+    public Builder withIdleTransitions(int idleTransitions) {
+      this.idleTransitions = idleTransitions;
+      return this;
+    }
+
+    public Builder withBusyTransitions(int busyTransitions) {
+      this.busyTransitions = busyTransitions;
+      return this;
+    }
+
+    public Builder withWaits(int waits) {
+      this.waits = waits;
+      return this;
+    }
+
+    public Builder withTotalWaitMillis(long totalWaitMillis) {
+      this.totalWaitMillis = totalWaitMillis;
+      return this;
+    }
+
+    public Builder withP50WaitMillis(long p50WaitMillis) {
+      this.p50WaitMillis = p50WaitMillis;
+      return this;
+    }
+
+    public Builder withP95WaitMillis(long p95WaitMillis) {
+      this.p95WaitMillis = p95WaitMillis;
+      return this;
+    }
+
+    public Builder withMaxWaitMillis(long maxWaitMillis) {
+      this.maxWaitMillis = maxWaitMillis;
+      return this;
+    }
+
+    public Builder withLastToIdleCount(int lastToIdleCount) {
+      this.lastToIdleCount = lastToIdleCount;
+      return this;
+    }
+
+    public IdlingResourceStats build() {
+      return new IdlingResourceStats(this);
+    }
+  }
+}
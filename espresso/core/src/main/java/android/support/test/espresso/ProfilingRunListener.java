@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso;
+
+import android.support.test.InstrumentationRegistry;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles how Espresso synchronizes with the app over a whole run.
+ *
+ * <p>Use it with AndroidJUnitRunner by passing
+ * {@code -e listener android.support.test.espresso.ProfilingRunListener}. The profilers to run
+ * are picked with {@code -e espresso_profilers} and a comma separated list of:
+ * <ul>
+ * <li>{@value #SYNC}: the time each test spent synchronizing, and what it waited for.</li>
+ * <li>{@value #DISPATCH}: the main thread messages dispatched while waiting for idle. The report
+ * is also logged whenever waiting gives up with an {@link AppNotIdleException} or an
+ * {@link IdlingResourceTimeoutException}.</li>
+ * <li>{@value #IDLING_RESOURCES}: the {@link IdlingResource}s which kept Espresso waiting the
+ * longest.</li>
+ * <li>{@value #VIEW_LOOKUPS}: the views matched by view lookups, and how many of them lookups
+ * using {@link ViewInteraction#firstMatch()} or {@link ViewInteraction#atIndex(int)} matched
+ * before stopping at their match.</li>
+ * </ul>
+ * All of them run when the argument is absent. Once the run finishes the reports are sent as an
+ * instrumentation status with code {@value #REPORT_STATUS_CODE}: each profiler's report is
+ * printed to the instrumentation output and added to the status bundle under
+ * {@value #REPORT_KEY_PREFIX}&lt;profiler&gt;.
+ */
+public class ProfilingRunListener extends RunListener {
+
+  public static final String ARGUMENT_PROFILERS = "espresso_profilers";
+  public static final String REPORT_KEY_PREFIX = "espresso_profile.";
+  // the in progress code, which test runners and tools pass through without treating it as a test.
+  public static final int REPORT_STATUS_CODE = 2;
+  public static final String SYNC = "sync";
+  public static final String DISPATCH = "dispatch";
+  public static final String IDLING_RESOURCES = "idling_resources";
+  public static final String VIEW_LOOKUPS = "view_lookups";
+  private static final String ALL_PROFILERS =
+      SYNC + "," + DISPATCH + "," + IDLING_RESOURCES + "," + VIEW_LOOKUPS;
+  private static final int REPORTED_ENTRIES = 25;
+
+  private final List<Profiler> profilers = Lists.newArrayList();
+
+  @Override
+  public void testRunStarted(Description description) throws Exception {
+    BaseLayerComponent baseLayer = GraphHolder.baseLayer();
+    String names = InstrumentationRegistry.getArguments().getString(ARGUMENT_PROFILERS);
+    for (String name : Splitter.on(',').trimResults().omitEmptyStrings()
+        .split(null == names ? ALL_PROFILERS : names)) {
+      profilers.add(newProfiler(name, baseLayer));
+    }
+    for (Profiler profiler : profilers) {
+      profiler.start();
+    }
+  }
+
+  @Override
+  public void testStarted(Description description) throws Exception {
+    String testName = description.getClassName() + "#" + description.getMethodName();
+    for (Profiler profiler : profilers) {
+      profiler.testStarted(testName);
+    }
+  }
+
+  @Override
+  public void testFinished(Description description) throws Exception {
+    for (Profiler profiler : profilers) {
+      profiler.testFinished();
+    }
+  }
+
+  @Override
+  public void testRunFinished(Result result) throws Exception {
+    Bundle reports = new Bundle();
+    StringBuilder stream = new StringBuilder();
+    for (Profiler profiler : profilers) {
+      stream.append(profiler.finish(reports)).append('\n');
+    }
+    reports.putString(Instrumentation.REPORT_KEY_STREAMRESULT, stream.toString());
+    InstrumentationRegistry.getInstrumentation().sendStatus(REPORT_STATUS_CODE, reports);
+  }
+
+  private static Profiler newProfiler(String name, final BaseLayerComponent baseLayer) {
+    if (SYNC.equals(name)) {
+      return new SyncMetricsProfiler(baseLayer);
+    } else if (DISPATCH.equals(name)) {
+      return new Profiler(name) {
+        @Override
+        void start() {
+          baseLayer.dispatchProfiler().setEnabled(true);
+        }
+
+        @Override
+        String stop() {
+          baseLayer.dispatchProfiler().setEnabled(false);
+          return baseLayer.dispatchProfiler().getReport(REPORTED_ENTRIES);
+        }
+      };
+    } else if (IDLING_RESOURCES.equals(name)) {
+      return new Profiler(name) {
+        @Override
+        void start() {
+          baseLayer.idlingResourceRegistry().resetResourceStats();
+        }
+
+        @Override
+        String stop() {
+          return baseLayer.idlingResourceRegistry().getResourceStatsReport(REPORTED_ENTRIES);
+        }
+      };
+    } else if (VIEW_LOOKUPS.equals(name)) {
+      return new Profiler(name) {
+        @Override
+        void start() {
+          baseLayer.viewLookupStats().reset();
+          baseLayer.viewLookupStats().setEnabled(true);
+        }
+
+        @Override
+        String stop() {
+          baseLayer.viewLookupStats().setEnabled(false);
+          return baseLayer.viewLookupStats().getReport();
+        }
+      };
+    }
+    throw new IllegalArgumentException(String.format("Unknown %s: %s, expected some of: %s",
+        ARGUMENT_PROFILERS, name, ALL_PROFILERS));
+  }
+
+  /**
+   * One kind of profiling, started when the run starts and reported once it finishes.
+   */
+  private abstract static class Profiler {
+    final String name;
+
+    Profiler(String name) {
+      this.name = name;
+    }
+
+    abstract void start();
+
+    void testStarted(String testName) { }
+
+    void testFinished() { }
+
+    /**
+     * Stops profiling and returns the report.
+     */
+    abstract String stop();
+
+    /**
+     * Stops profiling, adds the report to the given bundle and returns it.
+     */
+    String finish(Bundle reports) {
+      String report = stop();
+      reports.putString(REPORT_KEY_PREFIX + name, report);
+      return report;
+    }
+  }
+
+  /**
+   * Aggregates the {@link SyncMetrics} of every interaction into per-test summaries. Besides the
+   * slowest tests in the report, every summary is added to the status bundle under
+   * espresso_profile.sync.&lt;class&gt;#&lt;method&gt;.
+   */
+  private static class SyncMetricsProfiler extends Profiler implements SyncMetricsListener {
+    private static final int SLOWEST_TESTS_REPORTED = 10;
+
+    private final BaseLayerComponent baseLayer;
+    // guarded by this; written by the instrumentation thread, read by the main thread.
+    private final Map<String, TestSummary> summaries = Maps.newLinkedHashMap();
+    private TestSummary currentTest;
+
+    private SyncMetricsProfiler(BaseLayerComponent baseLayer) {
+      super(SYNC);
+      this.baseLayer = baseLayer;
+    }
+
+    @Override
+    void start() {
+      baseLayer.syncProfiler().addListener(this);
+    }
+
+    @Override
+    synchronized void testStarted(String testName) {
+      currentTest = new TestSummary(testName);
+    }
+
+    @Override
+    synchronized void testFinished() {
+      if (null != currentTest && currentTest.interactions > 0) {
+        summaries.put(currentTest.name, currentTest);
+      }
+      currentTest = null;
+    }
+
+    @Override
+    public synchronized void onInteractionCompleted(SyncMetrics metrics) {
+      if (null != currentTest) {
+        currentTest.add(metrics);
+      }
+    }
+
+    @Override
+    synchronized String finish(Bundle reports) {
+      for (TestSummary summary : summaries.values()) {
+        reports.putString(REPORT_KEY_PREFIX + SYNC + "." + summary.name, summary.toString());
+      }
+      return super.finish(reports);
+    }
+
+    @Override
+    synchronized String stop() {
+      baseLayer.syncProfiler().removeListener(this);
+      List<TestSummary> ranked = Lists.newArrayList(summaries.values());
+      Collections.sort(ranked, new Comparator<TestSummary>() {
+        @Override
+        public int compare(TestSummary a, TestSummary b) {
+          return a.syncMillis < b.syncMillis ? 1 : (a.syncMillis == b.syncMillis ? 0 : -1);
+        }
+      });
+      StringBuilder report = new StringBuilder("Espresso synchronization time by test:");
+      for (TestSummary summary : ranked.subList(0,
+          Math.min(ranked.size(), SLOWEST_TESTS_REPORTED))) {
+        report.append("\n  ").append(summary.name).append(": ").append(summary);
+      }
+      return report.toString();
+    }
+  }
+
+  private static class TestSummary {
+    private final String name;
+    private final Map<String, Long> conditionWaitMillis = Maps.newTreeMap();
+    private int interactions;
+    private long interactionMillis;
+    private long syncMillis;
+    private long queueDrainMillis;
+    private long loopIterations;
+
+    private TestSummary(String name) {
+      this.name = name;
+    }
+
+    private void add(SyncMetrics metrics) {
+      interactions++;
+      interactionMillis += metrics.getInteractionMillis();
+      syncMillis += metrics.getSyncMillis();
+      queueDrainMillis += metrics.getQueueDrainMillis();
+      loopIterations += metrics.getLoopIterations();
+      for (Map.Entry<String, Long> wait : metrics.getConditionWaitMillis().entrySet()) {
+        Long total = conditionWaitMillis.get(wait.getKey());
+        conditionWaitMillis.put(wait.getKey(), (null == total ? 0 : total) + wait.getValue());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s interactions in %sms, %sms synchronizing (queue %sms, %s "
+          + "iterations) %s", interactions, interactionMillis, syncMillis, queueDrainMillis,
+          loopIterations, conditionWaitMillis);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Describes how long a single interaction spent waiting for the application to become idle.
+ *
+ * Wait times are broken down by the idle condition Espresso was waiting on (e.g.
+ * ASYNC_TASKS_HAVE_IDLED, DYNAMIC_TASKS_HAVE_IDLED or DELAY_HAS_PAST). Conditions are awaited
+ * concurrently, so their wait times overlap and need not add up to {@link #getSyncMillis()}.
+ */
+public final class SyncMetrics {
+  private final String interaction;
+  private final long interactionMillis;
+  private final long syncMillis;
+  private final long queueDrainMillis;
+  private final int loopIterations;
+  private final int wakeups;
+  private final Map<String, Long> conditionWaitMillis;
+
+  private SyncMetrics(Builder builder) {
+    this.interaction = checkNotNull(builder.interaction);
+    this.interactionMillis = builder.interactionMillis;
+    this.syncMillis = builder.syncMillis;
+    this.queueDrainMillis = builder.queueDrainMillis;
+    this.loopIterations = builder.loopIterations;
+    this.wakeups = builder.wakeups;
+    this.conditionWaitMillis = builder.conditionWaitMillis.build();
+  }
+
+  /**
+   * A description of the interaction, e.g. the action performed and the view matcher used.
+   */
+  public String getInteraction() {
+    return interaction;
+  }
+
+  /**
+   * The wall time of the whole interaction, including the action or assertion itself.
+   */
+  public long getInteractionMillis() {
+    return interactionMillis;
+  }
+
+  /**
+   * The wall time spent looping the main thread until the application was idle.
+   */
+  public long getSyncMillis() {
+    return syncMillis;
+  }
+
+  /**
+   * The wall time spent draining the main thread's queue after every other condition was met.
+   */
+  public long getQueueDrainMillis() {
+    return queueDrainMillis;
+  }
+
+  /**
+   * The number of main thread messages dispatched while waiting.
+   */
+  public int getLoopIterations() {
+    return loopIterations;
+  }
+
+  /**
+   * The number of times the idle conditions were evaluated while waiting.
+   */
+  public int getWakeups() {
+    return wakeups;
+  }
+
+  /**
+   * The wall time spent waiting on each idle condition, keyed by condition name. Conditions which
+   * were never waited on are absent.
+   */
+  public Map<String, Long> getConditionWaitMillis() {
+    return conditionWaitMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %sms (sync %sms, queue %sms, %s iterations, %s wakeups) %s",
+        interaction, interactionMillis, syncMillis, queueDrainMillis, loopIterations, wakeups,
+        conditionWaitMillis);
+  }
+
+  /**
+   * Creates {@link SyncMetrics} instances.
+   */
+  public static final class Builder {
+    private String interaction;
+    private long interactionMillis;
+    private long syncMillis;
+    private long queueDrainMillis;
+    private int loopIterations;
+    private int wakeups;
+    private final ImmutableMap.Builder<String, Long> conditionWaitMillis = ImmutableMap.builder();
+
+    public Builder withInteraction(String interaction) {
+      this.interaction = interaction;
+      return this;
+    }
+
+    public Builder withInteractionMillis(long interactionMillis) {
+      this.interactionMillis = interactionMillis;
+      return this;
+    }
+
+    public Builder withSyncMillis(long syncMillis) {
+      this.syncMillis = syncMillis;
+      return this;
+    }
+
+    public Builder withQueueDrainMillis(long queueDrainMillis) {
+      this.queueDrainMillis = queueDrainMillis;
+      return this;
+    }
+
+    public Builder withLoopIterations(int loopIterations) {
+      this.loopIterations = loopIterations;
+      return this;
+    }
+
+    public Builder withWakeups(int wakeups) {
+      this.wakeups = wakeups;
+      return this;
+    }
+
+    public Builder withConditionWaitMillis(String condition, long waitMillis) {
+      conditionWaitMillis.put(condition, waitMillis);
+      return this;
+    }
+
+    public SyncMetrics build() {
+      return new SyncMetrics(this);
+    }
+  }
+}
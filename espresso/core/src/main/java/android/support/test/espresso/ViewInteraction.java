@@ -18,10 +18,13 @@ package android.support.test.espresso;
 
 import static android.support.test.espresso.matcher.ViewMatchers.isAssignableFrom;
 import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import android.support.test.espresso.action.ScrollToAction;
 import android.support.test.espresso.base.MainThread;
+import android.support.test.espresso.base.SyncProfiler;
+import android.support.test.espresso.matcher.MatchMemo;
 import android.support.test.espresso.util.HumanReadables;
 
 import android.util.Log;
@@ -34,6 +37,7 @@ import org.hamcrest.StringDescription;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
@@ -56,6 +60,9 @@ public final class ViewInteraction {
   private volatile FailureHandler failureHandler;
   private final Matcher<View> viewMatcher;
   private final AtomicReference<Matcher<Root>> rootMatcherRef;
+  private final AtomicReference<Matcher<View>> scopeMatcherRef;
+  private final AtomicInteger matchIndexRef;
+  private final SyncProfiler syncProfiler;
 
   @Inject
   ViewInteraction(
@@ -64,13 +71,19 @@ public final class ViewInteraction {
       @MainThread Executor mainThreadExecutor,
       FailureHandler failureHandler,
       Matcher<View> viewMatcher,
-      AtomicReference<Matcher<Root>> rootMatcherRef) {
+      AtomicReference<Matcher<Root>> rootMatcherRef,
+      AtomicReference<Matcher<View>> scopeMatcherRef,
+      AtomicInteger matchIndexRef,
+      SyncProfiler syncProfiler) {
     this.viewFinder = checkNotNull(viewFinder);
     this.uiController = checkNotNull(uiController);
     this.failureHandler = checkNotNull(failureHandler);
     this.mainThreadExecutor = checkNotNull(mainThreadExecutor);
     this.viewMatcher = checkNotNull(viewMatcher);
     this.rootMatcherRef = checkNotNull(rootMatcherRef);
+    this.scopeMatcherRef = checkNotNull(scopeMatcherRef);
+    this.matchIndexRef = checkNotNull(matchIndexRef);
+    this.syncProfiler = checkNotNull(syncProfiler);
   }
 
   /**
@@ -109,6 +122,44 @@ public final class ViewInteraction {
     return this;
   }
 
+  /**
+   * Makes this ViewInteraction look for its view among the descendants of the views selected by
+   * the given scope matcher only. This selects the same view as adding
+   * {@code isDescendantOfA(scopeMatcher)} to the view matcher, but the view matcher never runs on
+   * views outside of the scope's subtrees.
+   */
+  public ViewInteraction inside(Matcher<View> scopeMatcher) {
+    this.scopeMatcherRef.set(checkNotNull(scopeMatcher));
+    return this;
+  }
+
+  /**
+   * Makes this ViewInteraction act on the first view selected by the view matcher, rather than
+   * fail if more than one view is selected. The search of the hierarchy stops at that view.
+   *
+   * @see #atIndex(int)
+   */
+  public ViewInteraction firstMatch() {
+    return atIndex(0);
+  }
+
+  /**
+   * Makes this ViewInteraction act on the view at the given position among the views selected by
+   * the view matcher, rather than fail if more than one view is selected. Views are in breadth
+   * first order of the hierarchy. Views inside a scope - looked up with {@link #inside(Matcher)}, or
+   * with a view matcher which is {@code isDescendantOfA(scopeMatcher)}, alone or combined with
+   * others by {@code allOf(..)} - are in breadth first order of each scope's subtree instead, the
+   * subtrees in breadth first order of the outermost views the scope matcher selects. The search
+   * of the hierarchy stops at the view.
+   *
+   * @param index the zero-based position of the view among the matches.
+   */
+  public ViewInteraction atIndex(int index) {
+    checkArgument(index >= 0, "index must not be negative, got %s", index);
+    this.matchIndexRef.set(index);
+    return this;
+  }
+
   private void doPerform(final ViewAction viewAction) {
     checkNotNull(viewAction);
     final Matcher<? extends View> constraints = checkNotNull(viewAction.getConstraints());
@@ -116,37 +167,58 @@ public final class ViewInteraction {
 
       @Override
       public void run() {
-        uiController.loopMainThreadUntilIdle();
-        View targetView = viewFinder.getView();
-        Log.i(TAG, String.format(
-            "Performing '%s' action on view %s", viewAction.getDescription(), viewMatcher));
-        if (!constraints.matches(targetView)) {
-          // TODO(user): update this to describeMismatch once hamcrest is updated to new
-          StringDescription stringDescription = new StringDescription(new StringBuilder(
-              "Action will not be performed because the target view "
-              + "does not match one or more of the following constraints:\n"));
-          constraints.describeTo(stringDescription);
-          stringDescription.appendText("\nTarget view: ")
-              .appendValue(HumanReadables.describe(targetView));
-
-          if (viewAction instanceof ScrollToAction
-              && isDescendantOfA(isAssignableFrom((AdapterView.class))).matches(targetView)) {
-            stringDescription.appendText(
-                "\nFurther Info: ScrollToAction on a view inside an AdapterView will not work. "
-                + "Use Espresso.onData to load the view.");
+        syncProfiler.interactionStarted();
+        try {
+          doPerformOnUiThread(viewAction, constraints);
+        } finally {
+          if (syncProfiler.isRecording()) {
+            syncProfiler.interactionFinished(
+                String.format("perform '%s' on %s", viewAction.getDescription(), viewMatcher));
           }
-          throw new PerformException.Builder()
-            .withActionDescription(viewAction.getDescription())
-            .withViewDescription(viewMatcher.toString())
-            .withCause(new RuntimeException(stringDescription.toString()))
-            .build();
-        } else {
-          viewAction.perform(uiController, targetView);
         }
       }
     });
   }
 
+  private void doPerformOnUiThread(ViewAction viewAction, Matcher<? extends View> constraints) {
+    uiController.loopMainThreadUntilIdle();
+    View targetView;
+    boolean constraintsMet;
+    // nothing changes before the action is performed, constraints reuse the lookup's geometry.
+    MatchMemo memo = MatchMemo.open();
+    try {
+      targetView = viewFinder.getView();
+      constraintsMet = constraints.matches(targetView);
+    } finally {
+      memo.close();
+    }
+    Log.i(TAG, String.format(
+        "Performing '%s' action on view %s", viewAction.getDescription(), viewMatcher));
+    if (!constraintsMet) {
+      // TODO(user): update this to describeMismatch once hamcrest is updated to new
+      StringDescription stringDescription = new StringDescription(new StringBuilder(
+          "Action will not be performed because the target view "
+          + "does not match one or more of the following constraints:\n"));
+      constraints.describeTo(stringDescription);
+      stringDescription.appendText("\nTarget view: ")
+          .appendValue(HumanReadables.describe(targetView));
+
+      if (viewAction instanceof ScrollToAction
+          && isDescendantOfA(isAssignableFrom((AdapterView.class))).matches(targetView)) {
+        stringDescription.appendText(
+            "\nFurther Info: ScrollToAction on a view inside an AdapterView will not work. "
+            + "Use Espresso.onData to load the view.");
+      }
+      throw new PerformException.Builder()
+        .withActionDescription(viewAction.getDescription())
+        .withViewDescription(viewMatcher.toString())
+        .withCause(new RuntimeException(stringDescription.toString()))
+        .build();
+    } else {
+      viewAction.perform(uiController, targetView);
+    }
+  }
+
   /**
    * Checks the given {@link ViewAssertion} on the the view selected by the current view matcher.
    *
@@ -158,21 +230,33 @@ public final class ViewInteraction {
     runSynchronouslyOnUiThread(new Runnable() {
       @Override
       public void run() {
-        uiController.loopMainThreadUntilIdle();
-
-        View targetView = null;
-        NoMatchingViewException missingViewException = null;
+        syncProfiler.interactionStarted();
         try {
-          targetView = viewFinder.getView();
-        } catch (NoMatchingViewException nsve) {
-          missingViewException = nsve;
+          doCheckOnUiThread(viewAssert);
+        } finally {
+          if (syncProfiler.isRecording()) {
+            syncProfiler.interactionFinished(
+                String.format("check %s on %s", viewAssert, viewMatcher));
+          }
         }
-        viewAssert.check(targetView, missingViewException);
       }
     });
     return this;
   }
 
+  private void doCheckOnUiThread(ViewAssertion viewAssert) {
+    uiController.loopMainThreadUntilIdle();
+
+    View targetView = null;
+    NoMatchingViewException missingViewException = null;
+    try {
+      targetView = viewFinder.getView();
+    } catch (NoMatchingViewException nsve) {
+      missingViewException = nsve;
+    }
+    viewAssert.check(targetView, missingViewException);
+  }
+
   private void runSynchronouslyOnUiThread(Runnable action) {
     FutureTask<Void> uiTask = new FutureTask<Void>(action, null);
     mainThreadExecutor.execute(uiTask);
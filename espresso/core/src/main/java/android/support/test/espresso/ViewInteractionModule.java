@@ -29,6 +29,7 @@ import dagger.Provides;
 
 import org.hamcrest.Matcher;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Singleton;
@@ -43,6 +44,9 @@ class ViewInteractionModule {
   private final Matcher<View> viewMatcher;
   private final AtomicReference<Matcher<Root>> rootMatcher =
       new AtomicReference<Matcher<Root>>(RootMatchers.DEFAULT);
+  private final AtomicReference<Matcher<View>> scopeMatcher =
+      new AtomicReference<Matcher<View>>();
+  private final AtomicInteger matchIndex = new AtomicInteger(ViewFinderImpl.UNIQUE_MATCH);
 
   ViewInteractionModule(Matcher<View> viewMatcher) {
     this.viewMatcher = checkNotNull(viewMatcher);
@@ -53,6 +57,16 @@ class ViewInteractionModule {
     return rootMatcher;
   }
 
+  @Provides
+  AtomicReference<Matcher<View>> provideScopeMatcher() {
+    return scopeMatcher;
+  }
+
+  @Provides
+  AtomicInteger provideMatchIndex() {
+    return matchIndex;
+  }
+
   @Provides
   Matcher<View> provideViewMatcher() {
     return viewMatcher;
@@ -22,9 +22,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.hamcrest.Matchers.allOf;
 
+import android.support.test.espresso.IdlingPolicies;
 import android.support.test.espresso.PerformException;
 import android.support.test.espresso.UiController;
 import android.support.test.espresso.ViewAction;
+import android.support.test.espresso.base.UiControllers;
 import android.support.test.espresso.util.HumanReadables;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
@@ -44,6 +46,7 @@ import java.util.List;
  *
  */
 public final class AdapterDataLoaderAction implements ViewAction {
+
   private final Matcher<? extends Object> dataToLoadMatcher;
   private final AdapterViewProtocol adapterViewProtocol;
   private final Optional<Integer> atPosition;
@@ -144,7 +147,11 @@ public final class AdapterDataLoaderAction implements ViewAction {
       } else {
         adapterViewProtocol.makeDataRenderedWithinAdapterView(adapterView, adaptedData);
       }
-      uiController.loopMainThreadForAtLeast(100);
+      // wait for the scroll to finish rather than polling, unless nothing is moving.
+      if (!UiControllers.loopMainThreadUntilUiSettled(uiController,
+          IdlingPolicies.getUiSettleTimeoutMillis())) {
+        uiController.loopMainThreadForAtLeast(100);
+      }
       requestCount++;
     }
   }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Counts the tasks started with AsyncTask.execute(), so waiting for them doesn't put blocking
+ * tasks on the AsyncTask pool.
+ *
+ * While enabled, AsyncTask's process wide default executor is replaced by a
+ * {@link CountingExecutor} and the pool is idle once no counted task is in flight. Tasks handed to
+ * the pool directly - like executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR) does - bypass the
+ * default executor and are not waited for, so only enable counting for apps which don't do that.
+ * Disabling restores the app's default executor. Counting is off by default and unavailable
+ * before Honeycomb.
+ */
+@Singleton
+public final class AsyncTaskCounting {
+
+  private final ThreadPoolExecutorExtractor extractor;
+  private final AsyncTaskPoolMonitor monitor;
+  // guarded by this.
+  private CountingExecutor counter;
+
+  @Inject
+  AsyncTaskCounting(ThreadPoolExecutorExtractor extractor,
+      @SdkAsyncTask AsyncTaskPoolMonitor monitor) {
+    this.extractor = checkNotNull(extractor);
+    this.monitor = checkNotNull(monitor);
+  }
+
+  public synchronized void setEnabled(boolean enabled) {
+    if (enabled == (null != counter)) {
+      return;
+    }
+    if (enabled) {
+      counter = extractor.installAsyncTaskCounter().orNull();
+      monitor.setCounter(counter);
+    } else {
+      monitor.setCounter(null);
+      extractor.uninstallAsyncTaskCounter(counter);
+      counter = null;
+    }
+  }
+
+  /**
+   * Returns whether AsyncTasks are being counted, which is never the case before Honeycomb.
+   */
+  public synchronized boolean isEnabled() {
+    return null != counter;
+  }
+}
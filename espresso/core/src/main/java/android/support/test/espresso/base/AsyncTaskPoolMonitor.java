@@ -21,7 +21,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -33,14 +35,61 @@ import java.util.concurrent.atomic.AtomicReference;
  * That is currently possible and easy in Froyo to JB. If it ever becomes impossible, as long as we
  * know the max # of executor threads the AsyncTask framework allows we can still use this
  * interface, just need a different implementation.
+ *
+ * When the pool's tasks are submitted through a {@link CountingExecutor}, idleness is read from
+ * its in-flight count alone and the monitor waits for the last counted task to complete instead
+ * of blocking the pool's threads. Tasks submitted to the pool directly are then not seen.
+ *
+ * Given a lookahead, queued {@link Delayed} tasks - the scheduled work of a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor} - which are not due within it don't
+ * keep the pool busy, just like messages due later don't keep the main looper busy.
  */
 class AsyncTaskPoolMonitor {
+  /** Delayed tasks keep the pool busy no matter when they are due. */
+  static final long NO_LOOKAHEAD = -1;
+  /** The submitted task count of a pool whose tasks aren't counted. */
+  static final long UNCOUNTED = -1;
+
   private final AtomicReference<IdleMonitor> monitor = new AtomicReference<IdleMonitor>(null);
   private final ThreadPoolExecutor pool;
+  private volatile CountingExecutor counter;
+  // guarded by this: the tasks counted by replaced counters, plus one per replacement so the
+  // submitted task count changes whenever the counter does.
+  private long replacedCounterTasks = 0;
+  private final long lookaheadMillis;
   private final AtomicInteger activeBarrierChecks = new AtomicInteger(0);
 
   AsyncTaskPoolMonitor(ThreadPoolExecutor pool) {
+    this(pool, null);
+  }
+
+  /**
+   * @param counter counts the tasks submitted to the pool, or null if they can't be counted.
+   */
+  AsyncTaskPoolMonitor(ThreadPoolExecutor pool, CountingExecutor counter) {
+    this(pool, counter, NO_LOOKAHEAD);
+  }
+
+  /**
+   * @param counter counts the tasks submitted to the pool, or null if they can't be counted.
+   * @param lookaheadMillis queued delayed tasks due later than this are ignored, or
+   *     {@link #NO_LOOKAHEAD}.
+   */
+  AsyncTaskPoolMonitor(ThreadPoolExecutor pool, CountingExecutor counter, long lookaheadMillis) {
     this.pool = checkNotNull(pool);
+    this.counter = counter;
+    this.lookaheadMillis = lookaheadMillis;
+  }
+
+  /**
+   * Starts or stops reading idleness from the given counter, null to monitor the pool itself.
+   */
+  synchronized void setCounter(CountingExecutor counter) {
+    if (null != this.counter) {
+      replacedCounterTasks += this.counter.getSubmittedTaskCount();
+    }
+    replacedCounterTasks++;
+    this.counter = counter;
   }
 
   /**
@@ -49,7 +98,11 @@ class AsyncTaskPoolMonitor {
    * @return true if the pool is idle, false otherwise.
    */
   boolean isIdleNow() {
-    if (!pool.getQueue().isEmpty()) {
+    CountingExecutor currentCounter = counter;
+    if (null != currentCounter) {
+      return currentCounter.isIdleNow();
+    }
+    if (!queueIsIdle()) {
       return false;
     } else {
       int activeCount = pool.getActiveCount();
@@ -60,8 +113,53 @@ class AsyncTaskPoolMonitor {
           activeCount = activeCount - activeBarrierChecks.get();
         }
       }
-      return 0 == activeCount;
+      return 0 >= activeCount;
+    }
+  }
+
+  /**
+   * Whether nothing in the pool's queue is due to run within the lookahead.
+   */
+  private boolean queueIsIdle() {
+    if (pool.getQueue().isEmpty()) {
+      return true;
+    }
+    return NO_LOOKAHEAD != lookaheadMillis && getMillisUntilQueuedTaskDue() > lookaheadMillis;
+  }
+
+  /**
+   * Returns how long until the earliest queued task is due, 0 if any queued task isn't delayed
+   * and {@link Long#MAX_VALUE} if the queue is empty.
+   */
+  private long getMillisUntilQueuedTaskDue() {
+    long earliest = Long.MAX_VALUE;
+    // the queues of scheduled executors iterate over a snapshot.
+    for (Runnable task : pool.getQueue()) {
+      if (!(task instanceof Delayed)) {
+        return 0;
+      }
+      long delay = ((Delayed) task).getDelay(TimeUnit.MILLISECONDS);
+      if (delay <= 0) {
+        return 0;
+      }
+      earliest = Math.min(earliest, delay);
     }
+    return earliest;
+  }
+
+  /**
+   * Returns the number of tasks ever submitted through the counter, or {@link #UNCOUNTED} if the
+   * pool's tasks aren't counted.
+   *
+   * The count only grows, so if it is unchanged since the pool was last seen idle, no work has
+   * been submitted in the meantime. The pool's own task count can't tell that: a task handed to
+   * a worker which hasn't started running it yet is missing from it.
+   */
+  synchronized long getSubmittedTaskCount() {
+    if (null == counter) {
+      return UNCOUNTED;
+    }
+    return replacedCounterTasks + counter.getSubmittedTaskCount();
   }
 
   /**
@@ -75,6 +173,8 @@ class AsyncTaskPoolMonitor {
    * Obviously this strategy will fail horribly if 2 parties are doing it at the same time,
    * we prevent recursion here the best we can.
    *
+   * If tasks are counted, we wait for the last counted task to complete instead.
+   *
    * @param idleCallback called once the pool is idle.
    */
   void notifyWhenIdle(final Runnable idleCallback) {
@@ -95,6 +195,10 @@ class AsyncTaskPoolMonitor {
     IdleMonitor myMonitor = monitor.getAndSet(null);
     if (null != myMonitor) {
       myMonitor.poison();
+      CountingExecutor currentCounter = counter;
+      if (null != currentCounter) {
+        currentCounter.cancelIdleMonitor();
+      }
     }
   }
 
@@ -111,7 +215,7 @@ class AsyncTaskPoolMonitor {
           new Runnable() {
             @Override
             public void run() {
-              if (pool.getQueue().isEmpty()) {
+              if (null == counter && queueIsIdle()) {
                 // no one is behind us, so the queue is idle!
                 monitor.compareAndSet(IdleMonitor.this, null);
                 onIdle.run();
@@ -139,7 +243,19 @@ class AsyncTaskPoolMonitor {
         return;
       }
 
-      if (isIdleNow()) {
+      CountingExecutor currentCounter = counter;
+      if (null != currentCounter) {
+        // run by whichever thread completes the last counted task.
+        currentCounter.notifyWhenIdle(new Runnable() {
+          @Override
+          public void run() {
+            if (!poisoned) {
+              monitor.compareAndSet(IdleMonitor.this, null);
+              onIdle.run();
+            }
+          }
+        });
+      } else if (isIdleNow()) {
         monitor.compareAndSet(this, null);
         onIdle.run();
       } else {
@@ -89,7 +89,6 @@ public class BaseLayerModule {
   @Provides @Singleton @SdkAsyncTask
   public AsyncTaskPoolMonitor provideSdkAsyncTaskMonitor(ThreadPoolExecutorExtractor extractor) {
     return new AsyncTaskPoolMonitor(extractor.getAsyncTaskThreadPool());
-
   }
 
   @Provides @Singleton
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tells when the UI of the calling looper has stopped moving.
+ *
+ * The UI is settled once a frame completes without scheduling another one. Pending traversals,
+ * running animators, scrollers and anything posted with View.postOnAnimation all keep the
+ * Choreographer scheduling frames, so this covers them without knowing about each of them. The
+ * Choreographer doesn't expose whether a frame is scheduled - we read its mFrameScheduled field.
+ * Before Jelly Bean, or if the field can't be read, the UI is always considered settled.
+ *
+ * Only to be used on the thread which owns the handler given at construction.
+ */
+@SuppressLint("NewApi")
+final class ChoreographerMonitor {
+  private static final String TAG = "ChoreographerMonitor";
+
+  private static final Field frameScheduledField;
+
+  static {
+    Field field = null;
+    if (Build.VERSION.SDK_INT >= 16) {
+      try {
+        field = Choreographer.class.getDeclaredField("mFrameScheduled");
+        field.setAccessible(true);
+      } catch (NoSuchFieldException e) {
+        Log.w(TAG, "Could not find Choreographer.mFrameScheduled, ignoring animations.", e);
+      } catch (SecurityException e) {
+        Log.w(TAG, "Could not access Choreographer.mFrameScheduled, ignoring animations.", e);
+      }
+    }
+    frameScheduledField = field;
+  }
+
+  private final Handler handler;
+  private final Runnable checkSettled = new Runnable() {
+    @Override
+    public void run() {
+      check();
+    }
+  };
+  private final Runnable timeout = new Runnable() {
+    @Override
+    public void run() {
+      Log.w(TAG, "UI didn't settle in time, giving up on waiting for it.");
+      finish();
+    }
+  };
+  // created on first use so the Choreographer classes aren't touched before Jelly Bean.
+  private FrameCompletedCallback frameCallback;
+  private Runnable settledSignal;
+  private long deadline;
+
+  ChoreographerMonitor(Handler handler) {
+    this.handler = checkNotNull(handler);
+  }
+
+  /**
+   * Returns true if the Choreographer of the calling thread is going to draw another frame.
+   */
+  boolean isFrameScheduled() {
+    if (null == frameScheduledField) {
+      return false;
+    }
+    try {
+      return frameScheduledField.getBoolean(Choreographer.getInstance());
+    } catch (IllegalAccessException e) {
+      Log.w(TAG, "Could not read Choreographer.mFrameScheduled.", e);
+      return false;
+    }
+  }
+
+  /**
+   * Runs the signal once a frame completes without scheduling another, or once maxMillis have
+   * passed, whichever happens first.
+   */
+  void signalWhenSettled(Runnable signal, long maxMillis) {
+    checkState(null == settledSignal, "Already waiting for the UI to settle.");
+    settledSignal = checkNotNull(signal);
+    deadline = SystemClock.uptimeMillis() + maxMillis;
+    handler.postDelayed(timeout, maxMillis);
+    check();
+  }
+
+  /**
+   * Stops waiting without raising the signal.
+   */
+  void cancel() {
+    settledSignal = null;
+    handler.removeCallbacks(checkSettled);
+    handler.removeCallbacks(timeout);
+    if (null != frameCallback) {
+      Choreographer.getInstance().removeFrameCallback(frameCallback);
+    }
+  }
+
+  private void check() {
+    if (null == settledSignal) {
+      return;
+    }
+    if (isFrameScheduled() && SystemClock.uptimeMillis() < deadline) {
+      if (null == frameCallback) {
+        frameCallback = new FrameCompletedCallback();
+      }
+      Choreographer.getInstance().postFrameCallback(frameCallback);
+    } else {
+      finish();
+    }
+  }
+
+  private void finish() {
+    Runnable signal = settledSignal;
+    cancel();
+    if (null != signal) {
+      signal.run();
+    }
+  }
+
+  /**
+   * Checks again once the frame it was posted for has completed. Frame callbacks run before the
+   * frame's traversal, so the check is deferred to a message which can only run after it.
+   */
+  private class FrameCompletedCallback implements Choreographer.FrameCallback {
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      handler.post(checkSettled);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decorates an {@link Executor} to count the tasks submitted through it which haven't completed
+ * yet.
+ *
+ * A task counts from the moment it is submitted, so tasks waiting in the delegate - or in any
+ * executor the delegate hands them on to - are accounted for. Idleness is a single atomic read
+ * and an idle notification is given by the last task to complete, without putting any work on
+ * the delegate.
+ */
+final class CountingExecutor implements Executor {
+  private final Executor delegate;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final AtomicLong submitted = new AtomicLong(0);
+  private final AtomicReference<Runnable> idleCallback = new AtomicReference<Runnable>(null);
+
+  CountingExecutor(Executor delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    checkNotNull(task);
+    inFlight.incrementAndGet();
+    submitted.incrementAndGet();
+    try {
+      delegate.execute(new CountedTask(task));
+    } catch (RuntimeException re) {
+      // rejected, it will never complete.
+      taskCompleted();
+      throw re;
+    }
+  }
+
+  /**
+   * Returns the executor tasks are handed on to.
+   */
+  Executor getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Returns the number of tasks ever submitted. The count only grows.
+   */
+  long getSubmittedTaskCount() {
+    return submitted.get();
+  }
+
+  boolean isIdleNow() {
+    return 0 == inFlight.get();
+  }
+
+  /**
+   * Runs the callback once no counted task is in flight, right away if that's the case already.
+   * The callback is run on the thread which completed the last task, and replaces any callback
+   * given before.
+   */
+  void notifyWhenIdle(Runnable callback) {
+    idleCallback.set(checkNotNull(callback));
+    if (isIdleNow()) {
+      runIdleCallback();
+    }
+  }
+
+  /**
+   * Drops the idle callback, if it hasn't been run yet.
+   */
+  void cancelIdleMonitor() {
+    idleCallback.set(null);
+  }
+
+  private void taskCompleted() {
+    if (0 == inFlight.decrementAndGet()) {
+      runIdleCallback();
+    }
+  }
+
+  private void runIdleCallback() {
+    Runnable callback = idleCallback.getAndSet(null);
+    if (null != callback) {
+      callback.run();
+    }
+  }
+
+  private class CountedTask implements Runnable {
+    private final Runnable task;
+
+    private CountedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        taskCompleted();
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Attributes the main thread time Espresso spends dispatching app messages while it waits for
+ * idle.
+ *
+ * Every message dispatched by {@link UiControllerImpl} is charged to its target {@link Handler}
+ * class and to its callback class (or its what, if it has no callback). Profiling is off by
+ * default; once enabled, the ranked report is logged whenever a sync gives up with an
+ * {@link android.support.test.espresso.AppNotIdleException} or an
+ * {@link android.support.test.espresso.IdlingResourceTimeoutException}, and can be fetched at any
+ * time with {@link #getReport(int)}.
+ */
+@Singleton
+public final class DispatchProfiler {
+  private static final String TAG = DispatchProfiler.class.getSimpleName();
+  static final int DEFAULT_REPORT_ENTRIES = 20;
+
+  // guarded by this. Dispatches are recorded on the main thread, reports are read from anywhere.
+  private final Map<DispatchKey, DispatchStats> stats = new HashMap<DispatchKey, DispatchStats>();
+  // reused to look up the stats of every dispatch without allocating a key.
+  private final DispatchKey probe = new DispatchKey();
+  private volatile boolean enabled = false;
+
+  @Inject
+  public DispatchProfiler() { }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Discards everything recorded so far.
+   */
+  public synchronized void reset() {
+    stats.clear();
+  }
+
+  /**
+   * Returns the recorded dispatches, most expensive first.
+   *
+   * @param maxEntries the maximum number of targets included in the report.
+   */
+  public synchronized String getReport(int maxEntries) {
+    List<Map.Entry<DispatchKey, DispatchStats>> ranked =
+        new ArrayList<Map.Entry<DispatchKey, DispatchStats>>(stats.entrySet());
+    Collections.sort(ranked, new Comparator<Map.Entry<DispatchKey, DispatchStats>>() {
+      @Override
+      public int compare(Map.Entry<DispatchKey, DispatchStats> a,
+          Map.Entry<DispatchKey, DispatchStats> b) {
+        long left = a.getValue().totalNanos;
+        long right = b.getValue().totalNanos;
+        return left < right ? 1 : (left == right ? 0 : -1);
+      }
+    });
+    StringBuilder report = new StringBuilder(String.format(
+        "Main thread dispatches while waiting for idle (%s targets, top %s by total time):",
+        ranked.size(), Math.min(maxEntries, ranked.size())));
+    for (Map.Entry<DispatchKey, DispatchStats> entry : ranked.subList(0,
+        Math.min(maxEntries, ranked.size()))) {
+      DispatchStats dispatchStats = entry.getValue();
+      report.append(String.format("%n  total=%sms max=%sms count=%s %s",
+          dispatchStats.totalNanos / 1000000, dispatchStats.maxNanos / 1000000,
+          dispatchStats.count, entry.getKey()));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Dispatches the message to its target and charges the time it took.
+   */
+  void dispatch(Message message) {
+    Handler target = message.getTarget();
+    Class<?> targetClass = target.getClass();
+    Class<?> callbackClass = null == message.getCallback() ? null
+        : message.getCallback().getClass();
+    int what = message.what;
+    long start = System.nanoTime();
+    try {
+      target.dispatchMessage(message);
+    } finally {
+      record(targetClass, callbackClass, what, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Logs the report, if anything has been recorded.
+   */
+  void logReport(String reason) {
+    if (enabled) {
+      Log.w(TAG, reason + "\n" + getReport(DEFAULT_REPORT_ENTRIES));
+    }
+  }
+
+  private synchronized void record(Class<?> targetClass, Class<?> callbackClass, int what,
+      long nanos) {
+    probe.set(targetClass, callbackClass, what);
+    DispatchStats dispatchStats = stats.get(probe);
+    if (null == dispatchStats) {
+      dispatchStats = new DispatchStats();
+      DispatchKey key = new DispatchKey();
+      key.set(targetClass, callbackClass, what);
+      stats.put(key, dispatchStats);
+    }
+    dispatchStats.count++;
+    dispatchStats.totalNanos += nanos;
+    dispatchStats.maxNanos = Math.max(dispatchStats.maxNanos, nanos);
+  }
+
+  private static class DispatchKey {
+    private Class<?> targetClass;
+    private Class<?> callbackClass;
+    private int what;
+
+    private void set(Class<?> targetClass, Class<?> callbackClass, int what) {
+      this.targetClass = targetClass;
+      this.callbackClass = callbackClass;
+      // the what of a callback message is meaningless, don't let it split the callback's stats.
+      this.what = null == callbackClass ? what : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof DispatchKey)) {
+        return false;
+      }
+      DispatchKey other = (DispatchKey) o;
+      return targetClass == other.targetClass && callbackClass == other.callbackClass
+          && what == other.what;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = targetClass.hashCode();
+      result = 31 * result + (null == callbackClass ? 0 : callbackClass.hashCode());
+      return 31 * result + what;
+    }
+
+    @Override
+    public String toString() {
+      return targetClass.getName() + (null == callbackClass ? " what=" + what
+          : " callback=" + callbackClass.getName());
+    }
+  }
+
+  private static class DispatchStats {
+    private int count;
+    private long totalNanos;
+    private long maxNanos;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import android.support.test.espresso.IdlingResource;
+import com.google.common.collect.Lists;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A single {@link IdlingResource} watching any number of app {@link ThreadPoolExecutor}s, idle
+ * once all of them are.
+ *
+ * Each executor is watched by an {@link AsyncTaskPoolMonitor}, which is only asked to notify of
+ * idleness once the executor has been seen busy. Executors which may grow beyond their core pool
+ * size can't be waited on with blocking tasks, so those are re-checked after {@link #POLL_MILLIS}
+ * while busy instead. Either way, one transition callback is sent once every executor is idle.
+ *
+ * Scheduled work which isn't due within an executor's lookahead doesn't keep it busy, so a
+ * periodic task due in a minute doesn't hold up Espresso. Once such a task comes due the executor
+ * is busy again when next polled.
+ */
+final class ExecutorMonitor implements IdlingResource {
+
+  static final long POLL_MILLIS = 10;
+  /** The lookahead the main looper's queue is checked with. */
+  static final long DEFAULT_LOOKAHEAD_MILLIS = 15;
+
+  private final String name;
+  private final Handler handler;
+  // only accessed on main thread.
+  private final List<MonitoredExecutor> monitored = Lists.newArrayList();
+  private final Runnable recheck = new Runnable() {
+    @Override
+    public void run() {
+      ResourceCallback callback = resourceCallback;
+      if (isIdleNow() && null != callback) {
+        callback.onTransitionToIdle();
+      }
+    }
+  };
+  private volatile ResourceCallback resourceCallback;
+
+  ExecutorMonitor(String name) {
+    this.name = checkNotNull(name);
+    this.handler = new Handler(Looper.getMainLooper());
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  boolean isMonitoring(ThreadPoolExecutor executor) {
+    return null != find(executor);
+  }
+
+  /**
+   * Starts watching the given executor. Must be called on the main thread.
+   *
+   * @param lookaheadMillis scheduled tasks due later than this don't keep the executor busy.
+   */
+  void addExecutor(ThreadPoolExecutor executor, long lookaheadMillis) {
+    checkMainThread();
+    checkArgument(lookaheadMillis >= 0, "negative lookahead: %s", lookaheadMillis);
+    checkState(!isMonitoring(executor), "Already monitoring %s.", executor);
+    monitored.add(new MonitoredExecutor(executor, lookaheadMillis));
+  }
+
+  /**
+   * Stops watching the given executor. Must be called on the main thread.
+   *
+   * @return false if the executor wasn't being watched.
+   */
+  boolean removeExecutor(ThreadPoolExecutor executor) {
+    checkMainThread();
+    MonitoredExecutor monitoredExecutor = find(executor);
+    if (null == monitoredExecutor) {
+      return false;
+    }
+    monitored.remove(monitoredExecutor);
+    monitoredExecutor.disarm();
+    // it may have been the only busy one.
+    handler.post(recheck);
+    return true;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    // on main thread here.
+    boolean idle = true;
+    for (int i = 0; i < monitored.size(); i++) {
+      MonitoredExecutor monitoredExecutor = monitored.get(i);
+      if (!monitoredExecutor.monitor.isIdleNow()) {
+        monitoredExecutor.arm();
+        idle = false;
+      }
+    }
+    return idle;
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  private MonitoredExecutor find(ThreadPoolExecutor executor) {
+    for (int i = 0; i < monitored.size(); i++) {
+      if (monitored.get(i).executor == executor) {
+        return monitored.get(i);
+      }
+    }
+    return null;
+  }
+
+  private static void checkMainThread() {
+    checkState(Looper.myLooper() == Looper.getMainLooper(), "Expecting to be on main thread!");
+  }
+
+  private class MonitoredExecutor implements Runnable {
+    private final ThreadPoolExecutor executor;
+    private final AsyncTaskPoolMonitor monitor;
+    private final boolean canBlock;
+    // only accessed on main thread.
+    private boolean armed = false;
+
+    private MonitoredExecutor(ThreadPoolExecutor executor, long lookaheadMillis) {
+      this.executor = checkNotNull(executor);
+      this.monitor = new AsyncTaskPoolMonitor(executor, null, lookaheadMillis);
+      // blocking tasks only prove idleness if they occupy every thread the executor may run.
+      int corePoolSize = executor.getCorePoolSize();
+      this.canBlock = corePoolSize > 0 && (corePoolSize == executor.getMaximumPoolSize()
+          || executor instanceof ScheduledThreadPoolExecutor);
+    }
+
+    /**
+     * Makes sure the monitor re-checks once the executor may have gone idle.
+     */
+    private void arm() {
+      if (armed) {
+        return;
+      }
+      armed = true;
+      if (canBlock) {
+        monitor.notifyWhenIdle(new Runnable() {
+          @Override
+          public void run() {
+            // on a pool thread, or on main if the executor went idle in the meantime.
+            handler.post(MonitoredExecutor.this);
+          }
+        });
+      } else {
+        handler.postDelayed(this, POLL_MILLIS);
+      }
+    }
+
+    private void disarm() {
+      monitor.cancelIdleMonitor();
+      handler.removeCallbacks(this);
+      armed = false;
+    }
+
+    @Override
+    public void run() {
+      // on main thread.
+      if (!armed) {
+        return;
+      }
+      armed = false;
+      monitor.cancelIdleMonitor();
+      recheck.run();
+    }
+  }
+}
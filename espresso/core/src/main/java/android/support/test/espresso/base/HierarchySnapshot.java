@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.matcher.ViewMatchers.Visibility;
+import android.support.test.espresso.matcher.ViewSnapshot;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * A compact, immutable copy of the properties of every view of a hierarchy, taken on the main
+ * thread and readable from any thread.
+ *
+ * Views are kept in flat arrays, in the breadth first order of the hierarchy, each with the index
+ * of its parent.
+ */
+final class HierarchySnapshot {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final int ENABLED = 1;
+  private static final int CLICKABLE = 1 << 1;
+  // set if the view, or any of its ancestors, has that visibility.
+  private static final int INVISIBLE = 1 << 2;
+  private static final int GONE = 1 << 3;
+  private static final int INHERITED = INVISIBLE | GONE;
+
+  private final int size;
+  // may be longer than size.
+  private final View[] views;
+  private final int[] parents;
+  private final int[] ids;
+  private final Class<?>[] classes;
+  private final String[] texts;
+  private final int[] flags;
+
+  private HierarchySnapshot(int size, View[] views, int[] parents, int[] ids, Class<?>[] classes,
+      String[] texts, int[] flags) {
+    this.size = size;
+    this.views = views;
+    this.parents = parents;
+    this.ids = ids;
+    this.classes = classes;
+    this.texts = texts;
+    this.flags = flags;
+  }
+
+  /**
+   * Copies the hierarchy under the given root, which must be done on the main thread.
+   */
+  static HierarchySnapshot capture(View root) {
+    View[] views = new View[INITIAL_CAPACITY];
+    int[] parents = new int[INITIAL_CAPACITY];
+    views[0] = root;
+    parents[0] = -1;
+    int size = 1;
+    for (int i = 0; i < size; i++) {
+      if (views[i] instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup) views[i];
+        int childCount = group.getChildCount();
+        if (size + childCount > views.length) {
+          int capacity = Math.max(views.length * 2, size + childCount);
+          View[] grownViews = new View[capacity];
+          System.arraycopy(views, 0, grownViews, 0, size);
+          views = grownViews;
+          int[] grownParents = new int[capacity];
+          System.arraycopy(parents, 0, grownParents, 0, size);
+          parents = grownParents;
+        }
+        for (int child = 0; child < childCount; child++) {
+          views[size] = group.getChildAt(child);
+          parents[size] = i;
+          size++;
+        }
+      }
+    }
+
+    int[] ids = new int[size];
+    Class<?>[] classes = new Class<?>[size];
+    String[] texts = new String[size];
+    int[] flags = new int[size];
+    for (int i = 0; i < size; i++) {
+      View view = views[i];
+      ids[i] = view.getId();
+      classes[i] = view.getClass();
+      if (view instanceof TextView) {
+        CharSequence text = ((TextView) view).getText();
+        texts[i] = null == text ? null : text.toString();
+      }
+      // parents come first, their visibility is known already.
+      flags[i] = flagsOf(view) | (i == 0 ? 0 : flags[parents[i]] & INHERITED);
+    }
+    return new HierarchySnapshot(size, views, parents, ids, classes, texts, flags);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the live view the snapshot at the given index was taken of.
+   */
+  View getView(int index) {
+    return views[index];
+  }
+
+  /**
+   * Returns a snapshot reading the view at {@link Cursor#moveTo(int)}'s index. Cursors may only be
+   * used by one thread at a time.
+   */
+  Cursor newCursor() {
+    return new Cursor();
+  }
+
+  private static int flagsOf(View view) {
+    int viewFlags = (view.isEnabled() ? ENABLED : 0) | (view.isClickable() ? CLICKABLE : 0);
+    switch (view.getVisibility()) {
+      case View.INVISIBLE:
+        return viewFlags | INVISIBLE;
+      case View.GONE:
+        return viewFlags | GONE;
+      default:
+        return viewFlags;
+    }
+  }
+
+  final class Cursor implements ViewSnapshot {
+    private int index;
+
+    private Cursor() { }
+
+    void moveTo(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public int getId() {
+      return ids[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Class<? extends View> getViewClass() {
+      return (Class<? extends View>) classes[index];
+    }
+
+    @Override
+    public String getText() {
+      return texts[index];
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return (flags[index] & ENABLED) != 0;
+    }
+
+    @Override
+    public boolean isClickable() {
+      return (flags[index] & CLICKABLE) != 0;
+    }
+
+    @Override
+    public boolean hasEffectiveVisibility(Visibility visibility) {
+      switch (visibility) {
+        case INVISIBLE:
+          return (flags[index] & INVISIBLE) != 0;
+        case GONE:
+          return (flags[index] & GONE) != 0;
+        default:
+          return (flags[index] & INHERITED) == 0;
+      }
+    }
+  }
+}
@@ -24,20 +24,35 @@ import android.support.test.espresso.IdlingPolicies;
 import android.support.test.espresso.IdlingPolicy;
 import android.support.test.espresso.IdlingResource;
 import android.support.test.espresso.IdlingResource.ResourceCallback;
+import android.support.test.espresso.IdlingResourceStats;
+import android.support.test.espresso.TransitionReportingIdlingResource;
+import android.support.test.espresso.TransitionReportingIdlingResource.TransitionCallback;
+import android.support.test.espresso.base.IdlingResourceTelemetry.ResourceRecord;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -53,7 +68,10 @@ public final class IdlingResourceRegistry {
   private static final int TIMEOUT_OCCURRED = 2;
   private static final int IDLE_WARNING_REACHED = 3;
   private static final int POSSIBLE_RACE_CONDITION_DETECTED = 4;
+  private static final int DYNAMIC_RESOURCE_HAS_BUSIED = 5;
+  private static final int APPLY_PENDING_CHANGES = 6;
   private static final Object TIMEOUT_MESSAGE_TAG = new Object();
+  private static final String EXECUTOR_MONITOR_NAME = "Executors";
 
   private static final IdleNotificationCallback NO_OP_CALLBACK = new IdleNotificationCallback() {
 
@@ -67,14 +85,38 @@ public final class IdlingResourceRegistry {
     public void resourcesHaveTimedOut(List<String> busys) {}
   };
 
-  // resources and idleState should only be accessed on main thread
-  private final List<IdlingResource> resources = Lists.newArrayList();
-  // idleState.get(i) == true indicates resources.get(i) is idle, false indicates it's busy
+  // everything but busyTrackedResources should only be accessed on main thread.
+  // registered resources by name, in order of registration.
+  private final Map<String, Slot> resources = Maps.newLinkedHashMap();
+  // slots.get(i) is the resource holding slot i for as long as it's registered, or null if
+  // slot i is free. Slots are handed out again from freeSlots, so the bit sets stay dense.
+  private final List<Slot> slots = Lists.newArrayList();
+  private final List<Integer> freeSlots = Lists.newArrayList();
+  // idleState.get(i) == true indicates the resource in slot i is idle, false indicates it's busy
   private final BitSet idleState = new BitSet();
+  // pollOnly.get(i) == true indicates the resource in slot i doesn't report its busy
+  // transitions, so its idleness has to be polled.
+  private final BitSet pollOnly = new BitSet();
+  // number of transition reporting resources which are busy, maintained from any thread.
+  private final AtomicInteger busyTrackedResources = new AtomicInteger();
+  // registrations submitted from any thread, applied on the main thread in submission order.
+  private final Queue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<PendingChange>();
+  private final AtomicBoolean applyScheduled = new AtomicBoolean(false);
+  private final IdlingResourceTelemetry telemetry = new IdlingResourceTelemetry();
   private final Looper looper;
   private final Handler handler;
   private final Dispatcher dispatcher;
   private IdleNotificationCallback idleNotificationCallback = NO_OP_CALLBACK;
+  // bumped whenever the registered set changes or a transition reporting resource goes busy,
+  // from any thread. Resources which don't report their transitions are polled instead.
+  private final AtomicInteger epoch = new AtomicInteger();
+  // numbers the registrations, so messages from a resource's earlier registration are told apart
+  // from its current one even when it got the same slot back.
+  private int registrations = 0;
+  private int looperMonitorCount = 0;
+  private ExecutorMonitor executorMonitor;
+  // whether Espresso is waiting for all resources to idle, i.e. busy resources are being timed.
+  private boolean waiting = false;
 
   @Inject
   public IdlingResourceRegistry(Looper looper) {
@@ -98,35 +140,57 @@ public final class IdlingResourceRegistry {
         }
       });
     } else {
-      boolean allRegisteredSuccesfully = true;
-      for (IdlingResource resource : resourceList) {
-        checkNotNull(resource.getName(), "IdlingResource.getName() should not be null");
-
-        boolean duplicate = false;
-        for (IdlingResource oldResource : resources) {
-          if (resource.getName().equals(oldResource.getName())) {
-            // This does not throw an error to avoid leaving tests that register resource in test
-            // setup in an undeterministic state (we cannot assume that everyone clears vm state
-            // between each test run)
-            Log.e(TAG, String.format("Attempted to register resource with same names:"
-                + " %s. R1: %s R2: %s.\nDuplicate resource registration will be ignored.",
-                resource.getName(), resource, oldResource));
-            duplicate = true;
-            break;
-          }
-        }
+      applyPendingChanges();
+      return register(resourceList);
+    }
+  }
+
+  /**
+   * Registers the given resources without waiting on the main thread. The registration is applied
+   * before the registry is next checked for idleness, in order with the other registrations
+   * submitted before it.
+   *
+   * @return a future of whether all resources were successfully registered, which callers are free
+   *     to ignore
+   */
+  public Future<Boolean> registerResourcesAsync(List<? extends IdlingResource> resourceList) {
+    return submit(new PendingChange(ImmutableList.<IdlingResource>copyOf(resourceList), true));
+  }
 
-        if (!duplicate) {
-          resources.add(resource);
-          final int position = resources.size() - 1;
-          registerToIdleCallback(resource, position);
-          idleState.set(position, resource.isIdleNow());
+  private boolean register(List<? extends IdlingResource> resourceList) {
+    boolean allRegisteredSuccesfully = true;
+    for (IdlingResource resource : resourceList) {
+      checkNotNull(resource.getName(), "IdlingResource.getName() should not be null");
+
+      Slot oldSlot = resources.get(resource.getName());
+      if (null == oldSlot) {
+        epoch.incrementAndGet();
+        Slot slot = new Slot(resource, takeFreeSlot(), ++registrations,
+            telemetry.recordFor(resource.getName()));
+        resources.put(resource.getName(), slot);
+        slots.set(slot.index, slot);
+        if (resource instanceof TransitionReportingIdlingResource) {
+          slot.callback = registerToTransitionCallback(
+              (TransitionReportingIdlingResource) resource, slot);
         } else {
-          allRegisteredSuccesfully = false;
+          pollOnly.set(slot.index);
+          registerToIdleCallback(resource, slot);
+          idleState.set(slot.index, resource.isIdleNow());
+        }
+        if (waiting && !idleState.get(slot.index)) {
+          slot.busySince = SystemClock.uptimeMillis();
         }
+      } else {
+        // This does not throw an error to avoid leaving tests that register resource in test
+        // setup in an undeterministic state (we cannot assume that everyone clears vm state
+        // between each test run)
+        Log.e(TAG, String.format("Attempted to register resource with same names:"
+            + " %s. R1: %s R2: %s.\nDuplicate resource registration will be ignored.",
+            resource.getName(), resource, oldSlot.resource));
+        allRegisteredSuccesfully = false;
       }
-      return allRegisteredSuccesfully;
     }
+    return allRegisteredSuccesfully;
   }
 
   /**
@@ -144,40 +208,299 @@ public final class IdlingResourceRegistry {
         }
       });
     } else {
-      boolean allUnregisteredSuccesfully = true;
-      for (IdlingResource resource : resourceList) {
-        int resourceIndex = resources.indexOf(resource);
-
-        if (resourceIndex != -1) {
-          // Left shift BitSet values to right of position of resource in array.
-          // Must be done before removing the resource in order to set the last bit to 0.
-          for (int i = resourceIndex; i < resources.size(); i++) {
-            idleState.set(i, idleState.get(i + 1));
-          }
-
-          resources.remove(resourceIndex);
-        } else {
-          allUnregisteredSuccesfully = false;
-          Log.e(TAG, String.format("Attempted to unregister resource that is not registered: "
-              + "'%s'. Resource list: %s", resource.getName(), resources));
+      applyPendingChanges();
+      return unregister(resourceList);
+    }
+  }
+
+  /**
+   * Unregisters the given resources without waiting on the main thread. Like
+   * {@link #registerResourcesAsync(List)}, this is applied before the registry is next checked for
+   * idleness.
+   *
+   * @return a future of whether all resources were successfully unregistered, which callers are
+   *     free to ignore
+   */
+  public Future<Boolean> unregisterResourcesAsync(List<? extends IdlingResource> resourceList) {
+    return submit(new PendingChange(ImmutableList.<IdlingResource>copyOf(resourceList), false));
+  }
+
+  private boolean unregister(List<? extends IdlingResource> resourceList) {
+    boolean allUnregisteredSuccesfully = true;
+    for (IdlingResource resource : resourceList) {
+      Slot slot = resources.get(resource.getName());
+
+      if (null != slot && slot.resource.equals(resource)) {
+        resources.remove(resource.getName());
+        stopTiming(slot, SystemClock.uptimeMillis());
+        releaseSlot(slot);
+        if (null != slot.callback) {
+          slot.callback.detach();
         }
+        epoch.incrementAndGet();
+      } else {
+        allUnregisteredSuccesfully = false;
+        Log.e(TAG, String.format("Attempted to unregister resource that is not registered: "
+            + "'%s'. Resource list: %s", resource.getName(), resources.keySet()));
       }
-      return allUnregisteredSuccesfully;
     }
+    return allUnregisteredSuccesfully;
   }
 
-  public void registerLooper(Looper looper, boolean considerWaitIdle) {
+  /**
+   * Registers a non-UI looper for idle checking. Loopers are multiplexed onto shared
+   * {@link LooperMonitor}s rather than registered as a resource each. Registering a looper twice
+   * logs an error and is otherwise ignored.
+   */
+  public void registerLooper(final Looper looper, final boolean considerWaitIdle) {
     checkNotNull(looper);
     checkArgument(Looper.getMainLooper() != looper, "Not intended for use with main looper!");
-    registerResources(Lists.newArrayList(new LooperIdlingResource(looper, considerWaitIdle)));
+    if (Looper.myLooper() != this.looper) {
+      runSynchronouslyOnMainThread(new Callable<Void>() {
+        @Override
+        public Void call() {
+          registerLooper(looper, considerWaitIdle);
+          return null;
+        }
+      });
+      return;
+    }
+    applyPendingChanges();
+    LooperMonitor monitor = null;
+    for (Slot slot : resources.values()) {
+      if (slot.resource instanceof LooperMonitor) {
+        LooperMonitor registered = (LooperMonitor) slot.resource;
+        if (registered.isMonitoring(looper)) {
+          Log.e(TAG, String.format("Attempted to register looper of thread %s twice."
+              + " Duplicate looper registration will be ignored.", looper.getThread().getName()));
+          return;
+        }
+        if (!registered.isFull()) {
+          monitor = registered;
+        }
+      }
+    }
+    if (null == monitor) {
+      monitor = new LooperMonitor("Loopers-" + looperMonitorCount++);
+      monitor.addLooper(looper, considerWaitIdle);
+      registerResources(Lists.newArrayList(monitor));
+    } else {
+      monitor.addLooper(looper, considerWaitIdle);
+      // the new looper hasn't gone idle yet.
+      Slot slot = resources.get(monitor.getName());
+      if (idleState.get(slot.index)) {
+        markBusy(slot);
+      }
+    }
+  }
+
+  /**
+   * Registers a {@link ThreadPoolExecutor} for idle checking. All executors are watched by a single
+   * {@link ExecutorMonitor} rather than registered as a resource each.
+   *
+   * Scheduled tasks due later than the main looper's lookahead don't keep the executor busy.
+   *
+   * @return {@code false} if the executor was already registered
+   */
+  public boolean registerExecutor(ThreadPoolExecutor executor) {
+    return registerExecutor(executor, ExecutorMonitor.DEFAULT_LOOKAHEAD_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Registers a {@link ThreadPoolExecutor} for idle checking, ignoring scheduled tasks which are
+   * not due within the given lookahead.
+   *
+   * @return {@code false} if the executor was already registered
+   */
+  public boolean registerExecutor(final ThreadPoolExecutor executor, final long lookahead,
+      final TimeUnit unit) {
+    checkNotNull(executor);
+    checkNotNull(unit);
+    checkArgument(lookahead >= 0, "negative lookahead: %s", lookahead);
+    if (Looper.myLooper() != looper) {
+      return runSynchronouslyOnMainThread(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return registerExecutor(executor, lookahead, unit);
+        }
+      });
+    }
+    long lookaheadMillis = unit.toMillis(lookahead);
+    applyPendingChanges();
+    Slot slot = resources.get(EXECUTOR_MONITOR_NAME);
+    if (null == slot || slot.resource != executorMonitor) {
+      // created on first use, or again if it has been unregistered along with other resources.
+      executorMonitor = new ExecutorMonitor(EXECUTOR_MONITOR_NAME);
+      executorMonitor.addExecutor(executor, lookaheadMillis);
+      return register(Lists.newArrayList(executorMonitor));
+    }
+    if (executorMonitor.isMonitoring(executor)) {
+      Log.e(TAG, String.format("Attempted to register executor %s twice."
+          + " Duplicate executor registration will be ignored.", executor));
+      return false;
+    }
+    executorMonitor.addExecutor(executor, lookaheadMillis);
+    return true;
+  }
+
+  /**
+   * Stops idle checking of an executor registered with {@link #registerExecutor}.
+   *
+   * @return {@code false} if the executor wasn't registered
+   */
+  public boolean unregisterExecutor(final ThreadPoolExecutor executor) {
+    checkNotNull(executor);
+    if (Looper.myLooper() != looper) {
+      return runSynchronouslyOnMainThread(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return unregisterExecutor(executor);
+        }
+      });
+    }
+    applyPendingChanges();
+    Slot slot = resources.get(EXECUTOR_MONITOR_NAME);
+    if (null == slot || slot.resource != executorMonitor
+        || !executorMonitor.removeExecutor(executor)) {
+      Log.e(TAG, String.format("Attempted to unregister executor that is not registered: %s",
+          executor));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns how long each resource has kept Espresso waiting, the longest total wait first. This
+   * method is safe to call from any thread.
+   */
+  public List<IdlingResourceStats> getResourceStats() {
+    return telemetry.getStats();
+  }
+
+  /**
+   * Returns a table of the resources which have kept Espresso waiting the longest. This method is
+   * safe to call from any thread.
+   *
+   * @param maxEntries the maximum number of resources included in the report.
+   */
+  public String getResourceStatsReport(int maxEntries) {
+    return telemetry.getReport(maxEntries);
+  }
+
+  /**
+   * Discards the statistics recorded so far.
+   */
+  public void resetResourceStats() {
+    telemetry.reset();
+  }
+
+  private void markBusy(Slot slot) {
+    idleState.clear(slot.index);
+    telemetry.transitioned(slot.record, false);
+    if (waiting) {
+      slot.busySince = SystemClock.uptimeMillis();
+    }
+  }
+
+  private void markIdle(Slot slot) {
+    idleState.set(slot.index);
+    telemetry.transitioned(slot.record, true);
+    stopTiming(slot, SystemClock.uptimeMillis());
+  }
+
+  private void startWaiting() {
+    waiting = true;
+    long now = SystemClock.uptimeMillis();
+    for (int i = idleState.nextClearBit(0); i < slots.size(); i = idleState.nextClearBit(i + 1)) {
+      if (null != slots.get(i)) {
+        slots.get(i).busySince = now;
+      }
+    }
+  }
+
+  /**
+   * Charges the resources still busy with the time waited on them so far.
+   */
+  private void stopWaiting() {
+    if (!waiting) {
+      return;
+    }
+    waiting = false;
+    long now = SystemClock.uptimeMillis();
+    for (int i = idleState.nextClearBit(0); i < slots.size(); i = idleState.nextClearBit(i + 1)) {
+      if (null != slots.get(i)) {
+        stopTiming(slots.get(i), now);
+      }
+    }
+  }
+
+  private void stopTiming(Slot slot, long now) {
+    if (0 != slot.busySince) {
+      telemetry.waited(slot.record, now - slot.busySince);
+      slot.busySince = 0;
+    }
+  }
+
+  private Future<Boolean> submit(PendingChange change) {
+    pendingChanges.add(change);
+    // makes sure the change is applied even if the registry isn't checked for idleness soon.
+    if (applyScheduled.compareAndSet(false, true)) {
+      handler.sendEmptyMessage(APPLY_PENDING_CHANGES);
+    }
+    return change.result;
+  }
+
+  /**
+   * Applies the registrations submitted from any thread so far, each batch as a whole. Must be
+   * called on the main thread.
+   */
+  private void applyPendingChanges() {
+    applyScheduled.set(false);
+    PendingChange change;
+    while (null != (change = pendingChanges.poll())) {
+      try {
+        change.result.set(change.register
+            ? register(change.resources) : unregister(change.resources));
+      } catch (RuntimeException re) {
+        change.result.setException(re);
+      }
+    }
+  }
+
+  private int takeFreeSlot() {
+    if (freeSlots.isEmpty()) {
+      slots.add(null);
+      return slots.size() - 1;
+    }
+    return freeSlots.remove(freeSlots.size() - 1);
+  }
+
+  private void releaseSlot(Slot slot) {
+    slots.set(slot.index, null);
+    idleState.clear(slot.index);
+    pollOnly.clear(slot.index);
+    freeSlots.add(slot.index);
+  }
+
+  private TrackingCallback registerToTransitionCallback(
+      TransitionReportingIdlingResource resource, Slot slot) {
+    TrackingCallback callback = new TrackingCallback(resource, slot.index, slot.generation);
+    resource.registerTransitionCallback(callback);
+    // polled after registering so no transition can be missed in between.
+    idleState.set(slot.index, callback.initialize());
+    return callback;
   }
 
-  private void registerToIdleCallback(final IdlingResource resource, final int position) {
+  private void registerToIdleCallback(final IdlingResource resource, Slot slot) {
+    final int position = slot.index;
+    final int generation = slot.generation;
     resource.registerIdleTransitionCallback(new ResourceCallback() {
       @Override
       public void onTransitionToIdle() {
         Message m = handler.obtainMessage(DYNAMIC_RESOURCE_HAS_IDLED);
         m.arg1 = position;
+        m.arg2 = generation;
         m.obj = resource;
         handler.sendMessage(m);
       }
@@ -199,17 +522,73 @@ public final class IdlingResourceRegistry {
         }
       });
     } else {
-      return ImmutableList.copyOf(resources);
+      applyPendingChanges();
+      ImmutableList.Builder<IdlingResource> registered = ImmutableList.builder();
+      for (Slot slot : resources.values()) {
+        registered.add(slot.resource);
+      }
+      return registered.build();
     }
   }
 
   boolean allResourcesAreIdle() {
     checkState(Looper.myLooper() == looper);
-    for (int i = idleState.nextSetBit(0); i >= 0 && i < resources.size();
-        i = idleState.nextSetBit(i + 1)) {
-      idleState.set(i, resources.get(i).isIdleNow());
+    applyPendingChanges();
+    boolean pollOnlyIdle = pollOnlyResourcesAreIdle();
+    // transition reporting resources are known to be idle or not without asking them.
+    return busyTrackedResources.get() == 0 && pollOnlyIdle;
+  }
+
+  /**
+   * Whether every resource is idle and no transition reporting resource went busy since
+   * {@link #getEpoch()} returned the given epoch. Only the resources which don't report their
+   * transitions are polled.
+   */
+  boolean idleSince(int sinceEpoch) {
+    checkState(Looper.myLooper() == looper);
+    applyPendingChanges();
+    return epoch.get() == sinceEpoch && busyTrackedResources.get() == 0
+        && pollOnlyResourcesAreIdle();
+  }
+
+  /**
+   * Polls the resources which don't report their transitions, marking the busy ones.
+   */
+  private boolean pollOnlyResourcesAreIdle() {
+    boolean allIdle = true;
+    for (int i = pollOnly.nextSetBit(0); i >= 0; i = pollOnly.nextSetBit(i + 1)) {
+      if (!idleState.get(i)) {
+        allIdle = false;
+      } else if (!slots.get(i).resource.isIdleNow()) {
+        markBusy(slots.get(i));
+        allIdle = false;
+      }
     }
-    return idleState.cardinality() == resources.size();
+    return allIdle;
+  }
+
+  /**
+   * Whether every resource is known to be idle, without polling any of them.
+   */
+  private boolean allResourcesMarkedIdle() {
+    if (busyTrackedResources.get() != 0) {
+      return false;
+    }
+    for (int i = pollOnly.nextSetBit(0); i >= 0; i = pollOnly.nextSetBit(i + 1)) {
+      if (!idleState.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a counter which changes whenever a resource is registered or unregistered, or a
+   * transition reporting resource goes busy. Resources which don't report their transitions
+   * don't change it, they have to be polled.
+   */
+  int getEpoch() {
+    return epoch.get();
   }
 
   interface IdleNotificationCallback {
@@ -228,6 +607,7 @@ public final class IdlingResourceRegistry {
       callback.allResourcesIdle();
     } else {
       idleNotificationCallback = callback;
+      startWaiting();
       scheduleTimeoutMessages();
     }
   }
@@ -265,17 +645,16 @@ public final class IdlingResourceRegistry {
 
   private List<String> getBusyResources() {
     List<String> busyResourceNames = Lists.newArrayList();
-    List<Integer> racyResources = Lists.newArrayList();
+    List<Slot> racyResources = Lists.newArrayList();
 
-    for (int i = 0; i < resources.size(); i++) {
-      IdlingResource resource = resources.get(i);
-      if (!idleState.get(i)) {
-        if (resource.isIdleNow()) {
+    for (Slot slot : resources.values()) {
+      if (!idleState.get(slot.index)) {
+        if (slot.resource.isIdleNow()) {
           // We have not been notified of a BUSY -> IDLE transition, but the resource is telling us
           // its that its idle. Either it's a race condition or is this resource buggy.
-          racyResources.add(i);
+          racyResources.add(slot);
         } else {
-          busyResourceNames.add(resource.getName());
+          busyResourceNames.add(slot.resource.getName());
         }
       }
     }
@@ -292,6 +671,113 @@ public final class IdlingResourceRegistry {
   }
 
 
+  /**
+   * A registration or unregistration waiting to be applied on the main thread.
+   */
+  private static final class PendingChange {
+    private final List<IdlingResource> resources;
+    private final boolean register;
+    private final SettableFuture<Boolean> result = SettableFuture.create();
+
+    private PendingChange(List<IdlingResource> resources, boolean register) {
+      this.resources = resources;
+      this.register = register;
+    }
+  }
+
+  /**
+   * A registered resource and the slot it holds in the idle state bit sets. A resource keeps its
+   * slot until it is unregistered, so messages can refer to it by slot and generation.
+   */
+  private static final class Slot {
+    private final IdlingResource resource;
+    private final int index;
+    private final int generation;
+    private final ResourceRecord record;
+    // null unless the resource reports its transitions.
+    private TrackingCallback callback;
+    // when the resource was last seen going busy while Espresso waited, or 0 if not timed.
+    private long busySince;
+
+    private Slot(IdlingResource resource, int index, int generation, ResourceRecord record) {
+      this.resource = resource;
+      this.index = index;
+      this.generation = generation;
+      this.record = record;
+    }
+  }
+
+  /**
+   * Tracks a transition reporting resource in the busy count as its transitions happen, and
+   * relays them to the main thread so its idle state and any waiting callback are updated.
+   * Transitions on different threads may be reported out of order, so each one is confirmed
+   * against the resource's current state before it's taken into account.
+   */
+  private class TrackingCallback implements TransitionCallback {
+    private final IdlingResource resource;
+    private final int position;
+    private final int generation;
+    // guarded by this.
+    private boolean initialized = false;
+    private boolean busy = false;
+    private boolean detached = false;
+
+    private TrackingCallback(IdlingResource resource, int position, int generation) {
+      this.resource = resource;
+      this.position = position;
+      this.generation = generation;
+    }
+
+    /**
+     * Takes the resource's current state into the busy count. Returns true if it's idle.
+     */
+    private synchronized boolean initialize() {
+      busy = !resource.isIdleNow();
+      initialized = true;
+      if (busy) {
+        busyTrackedResources.incrementAndGet();
+      }
+      return !busy;
+    }
+
+    private synchronized void detach() {
+      if (busy && !detached) {
+        busyTrackedResources.decrementAndGet();
+      }
+      detached = true;
+    }
+
+    @Override
+    public void onTransitionToBusy() {
+      synchronized (this) {
+        // a busy reported after the resource already went idle again is stale.
+        if (!initialized || detached || busy || resource.isIdleNow()) {
+          return;
+        }
+        busy = true;
+        busyTrackedResources.incrementAndGet();
+        epoch.incrementAndGet();
+      }
+      handler.sendMessage(handler.obtainMessage(DYNAMIC_RESOURCE_HAS_BUSIED, position, generation,
+          resource));
+    }
+
+    @Override
+    public void onTransitionToIdle() {
+      synchronized (this) {
+        // an idle reported after the resource already went busy again is stale, the resource
+        // reports idle again once it gets there.
+        if (!initialized || detached || !busy || !resource.isIdleNow()) {
+          return;
+        }
+        busy = false;
+        busyTrackedResources.decrementAndGet();
+      }
+      handler.sendMessage(handler.obtainMessage(DYNAMIC_RESOURCE_HAS_IDLED, position, generation,
+          resource));
+    }
+  }
+
   private class Dispatcher implements Handler.Callback {
     @Override
     public boolean handleMessage(Message m) {
@@ -299,6 +785,9 @@ public final class IdlingResourceRegistry {
         case DYNAMIC_RESOURCE_HAS_IDLED:
           handleResourceIdled(m);
           break;
+        case DYNAMIC_RESOURCE_HAS_BUSIED:
+          handleResourceBusied(m);
+          break;
         case IDLE_WARNING_REACHED:
           handleTimeoutWarning();
           break;
@@ -308,6 +797,9 @@ public final class IdlingResourceRegistry {
         case POSSIBLE_RACE_CONDITION_DETECTED:
           handleRaceCondition(m);
           break;
+        case APPLY_PENDING_CHANGES:
+          applyPendingChanges();
+          break;
         default:
           Log.w(TAG, "Unknown message type: " + m);
           return false;
@@ -316,15 +808,23 @@ public final class IdlingResourceRegistry {
     }
 
     private void handleResourceIdled(Message m) {
-      int position = m.arg1;
       IdlingResource resource = (IdlingResource) m.obj;
-      if (position >= resources.size() || resources.get(position) != resource) {
+      int position = m.arg1;
+      if (!isRegisteredAt(resource, position, m.arg2)) {
         Log.i(TAG, "Ignoring message from unregistered resource: " + resource);
         return;
       }
 
-      idleState.set(position, true);
-      if (idleState.cardinality() == resources.size()) {
+      Slot slot = slots.get(position);
+      if (!idleState.get(position)) {
+        markIdle(slot);
+      }
+      // a resource registered meanwhile may still be busy.
+      applyPendingChanges();
+      if (allResourcesMarkedIdle()) {
+        if (waiting) {
+          telemetry.lastToIdle(slot.record);
+        }
         try {
           idleNotificationCallback.allResourcesIdle();
         } finally {
@@ -333,6 +833,27 @@ public final class IdlingResourceRegistry {
       }
     }
 
+    private void handleResourceBusied(Message m) {
+      IdlingResource resource = (IdlingResource) m.obj;
+      int position = m.arg1;
+      if (!isRegisteredAt(resource, position, m.arg2)) {
+        Log.i(TAG, "Ignoring message from unregistered resource: " + resource);
+        return;
+      }
+      if (idleState.get(position)) {
+        markBusy(slots.get(position));
+      }
+    }
+
+    /**
+     * Whether the resource still holds the slot it was registered in. Once unregistered, its slot
+     * may have been handed to another resource, or back to the same one by a new registration.
+     */
+    private boolean isRegisteredAt(IdlingResource resource, int index, int generation) {
+      Slot slot = slots.get(index);
+      return null != slot && slot.generation == generation && slot.resource == resource;
+    }
+
     private void handleTimeoutWarning() {
       List<String> busyResources = getBusyResources();
       if (busyResources == null) {
@@ -368,19 +889,20 @@ public final class IdlingResourceRegistry {
 
     @SuppressWarnings("unchecked")
     private void handleRaceCondition(Message m) {
-      for (Integer i : (List<Integer>) m.obj) {
-        if (idleState.get(i)) {
-          // it was a race... i is now idle, everything is fine...
+      for (Slot slot : (List<Slot>) m.obj) {
+        if (slots.get(slot.index) != slot || idleState.get(slot.index)) {
+          // it was a race... the resource is now idle or gone, everything is fine...
         } else {
           throw new IllegalStateException(String.format(
               "Resource %s isIdleNow() is returning true, but a message indicating that the "
               + "resource has transitioned from busy to idle was never sent.",
-              resources.get(i).getName()));
+              slot.resource.getName()));
         }
       }
     }
 
     private void deregister() {
+      stopWaiting();
       handler.removeCallbacksAndMessages(TIMEOUT_MESSAGE_TAG);
       idleNotificationCallback = NO_OP_CALLBACK;
     }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.IdlingResourceStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of how long each {@link android.support.test.espresso.IdlingResource} kept Espresso
+ * waiting, as recorded by {@link IdlingResourceRegistry}.
+ *
+ * Statistics are kept by resource name, so they survive a resource being unregistered and
+ * registered again.
+ */
+final class IdlingResourceTelemetry {
+  // wait times are bucketed by their bit length, the last bucket takes everything longer.
+  private static final int BUCKETS = 24;
+
+  // guarded by this. Recorded on the main thread, read from anywhere.
+  private final Map<String, ResourceRecord> records = new HashMap<String, ResourceRecord>();
+
+  /**
+   * Returns the record of the named resource, creating it if needed. The registry keeps it for as
+   * long as the resource is registered to avoid a lookup per transition.
+   */
+  synchronized ResourceRecord recordFor(String name) {
+    ResourceRecord record = records.get(name);
+    if (null == record) {
+      record = new ResourceRecord(name);
+      records.put(name, record);
+    }
+    return record;
+  }
+
+  synchronized void transitioned(ResourceRecord record, boolean toIdle) {
+    if (toIdle) {
+      record.idleTransitions++;
+    } else {
+      record.busyTransitions++;
+    }
+  }
+
+  synchronized void waited(ResourceRecord record, long millis) {
+    millis = Math.max(0, millis);
+    if (null == record.buckets) {
+      record.buckets = new int[BUCKETS];
+    }
+    record.waits++;
+    record.totalWaitMillis += millis;
+    record.maxWaitMillis = Math.max(record.maxWaitMillis, millis);
+    record.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis))]++;
+  }
+
+  synchronized void lastToIdle(ResourceRecord record) {
+    record.lastToIdleCount++;
+  }
+
+  /**
+   * Discards everything recorded so far. Records stay in place, as registered resources hold on
+   * to them.
+   */
+  synchronized void reset() {
+    for (ResourceRecord record : records.values()) {
+      record.clear();
+    }
+  }
+
+  /**
+   * Returns the statistics of every resource which has transitioned or been waited on, the longest
+   * total wait first.
+   */
+  synchronized List<IdlingResourceStats> getStats() {
+    List<ResourceRecord> ranked = new ArrayList<ResourceRecord>();
+    for (ResourceRecord record : records.values()) {
+      if (record.waits > 0 || record.busyTransitions > 0 || record.idleTransitions > 0) {
+        ranked.add(record);
+      }
+    }
+    Collections.sort(ranked, new Comparator<ResourceRecord>() {
+      @Override
+      public int compare(ResourceRecord a, ResourceRecord b) {
+        if (a.totalWaitMillis != b.totalWaitMillis) {
+          return a.totalWaitMillis < b.totalWaitMillis ? 1 : -1;
+        }
+        return b.lastToIdleCount - a.lastToIdleCount;
+      }
+    });
+    List<IdlingResourceStats> stats = new ArrayList<IdlingResourceStats>(ranked.size());
+    for (ResourceRecord record : ranked) {
+      stats.add(new IdlingResourceStats.Builder()
+          .withName(record.name)
+          .withIdleTransitions(record.idleTransitions)
+          .withBusyTransitions(record.busyTransitions)
+          .withWaits(record.waits)
+          .withTotalWaitMillis(record.totalWaitMillis)
+          .withP50WaitMillis(record.percentile(50))
+          .withP95WaitMillis(record.percentile(95))
+          .withMaxWaitMillis(record.maxWaitMillis)
+          .withLastToIdleCount(record.lastToIdleCount)
+          .build());
+    }
+    return stats;
+  }
+
+  /**
+   * Returns a table of the resources which kept Espresso waiting the longest.
+   *
+   * @param maxEntries the maximum number of resources included in the report.
+   */
+  String getReport(int maxEntries) {
+    List<IdlingResourceStats> stats = getStats();
+    StringBuilder report = new StringBuilder(String.format(
+        "Idling resources Espresso waited on (%s resources, top %s by total wait):",
+        stats.size(), Math.min(maxEntries, stats.size())));
+    report.append(String.format("%n  %10s %7s %9s %9s %9s %10s %9s  %s", "total", "waits",
+        "p50", "p95", "max", "lastIdle", "busied", "name"));
+    for (IdlingResourceStats stat : stats.subList(0, Math.min(maxEntries, stats.size()))) {
+      report.append(String.format("%n  %8sms %7s %7sms %7sms %7sms %10s %9s  %s",
+          stat.getTotalWaitMillis(), stat.getWaits(), stat.getP50WaitMillis(),
+          stat.getP95WaitMillis(), stat.getMaxWaitMillis(), stat.getLastToIdleCount(),
+          stat.getBusyTransitions(), stat.getName()));
+    }
+    return report.toString();
+  }
+
+  static final class ResourceRecord {
+    private final String name;
+    private int idleTransitions;
+    private int busyTransitions;
+    private int waits;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+    private int lastToIdleCount;
+    // allocated on the first wait, most resources are never waited on.
+    private int[] buckets;
+
+    private ResourceRecord(String name) {
+      this.name = name;
+    }
+
+    private long percentile(int percent) {
+      if (0 == waits) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(waits * percent / 100.0);
+      int seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          // the upper bound of bucket i is 2^i - 1, never more than what was actually seen.
+          return i == BUCKETS - 1 ? maxWaitMillis : Math.min(maxWaitMillis, (1L << i) - 1);
+        }
+      }
+      return maxWaitMillis;
+    }
+
+    private void clear() {
+      idleTransitions = 0;
+      busyTransitions = 0;
+      waits = 0;
+      totalWaitMillis = 0;
+      maxWaitMillis = 0;
+      lastToIdleCount = 0;
+      buckets = null;
+    }
+  }
+}
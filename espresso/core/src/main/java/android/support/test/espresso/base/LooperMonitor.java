@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import android.support.test.espresso.IdlingResource;
+import android.support.test.espresso.base.QueueInterrogator.QueueState;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+import android.os.MessageQueue.IdleHandler;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single {@link IdlingResource} watching up to {@link #MAX_LOOPERS} non-UI loopers.
+ *
+ * Each monitored thread works out its own idleness from an {@link IdleHandler}, so its queue is
+ * only ever locked by its owner, and publishes it as one bit of a shared mask. A busy answer
+ * costs the main thread a single volatile read. An idle answer additionally checks, without
+ * locking, that no looper's queue head moved since it published its bit, nor came due. One
+ * transition callback is sent once every looper is idle.
+ */
+final class LooperMonitor implements IdlingResource {
+
+  static final int MAX_LOOPERS = 64;
+
+  // posted to a looper to make its idle handler run again.
+  private static final int WAKE_UP = -1;
+
+  private final String name;
+  private final MonitoredLooper[] monitored = new MonitoredLooper[MAX_LOOPERS];
+  // bit i is set while monitored[i] was idle when it last went idle and hasn't moved since.
+  private final AtomicLong idleMask = new AtomicLong();
+  // only accessed on main thread.
+  private int looperCount = 0;
+  private volatile long allLoopers = 0;
+  private volatile ResourceCallback resourceCallback;
+
+  LooperMonitor(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  boolean isFull() {
+    return looperCount == MAX_LOOPERS;
+  }
+
+  boolean isMonitoring(Looper looper) {
+    for (int i = 0; i < looperCount; i++) {
+      if (monitored[i].looper == looper) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts monitoring the given looper. Must be called on the main thread.
+   */
+  void addLooper(Looper looper, boolean considerWaitIdle) {
+    checkState(Looper.myLooper() == Looper.getMainLooper(), "Expecting to be on main thread!");
+    checkArgument(Looper.getMainLooper() != looper, "Not for use with main looper.");
+    checkState(!isFull(), "Already monitoring %s loopers.", MAX_LOOPERS);
+    int index = looperCount;
+    MonitoredLooper monitoredLooper = new MonitoredLooper(looper, index, considerWaitIdle);
+    monitored[index] = monitoredLooper;
+    looperCount++;
+    allLoopers |= 1L << index;
+    // must add idle handlers from the monitored looper thread.
+    checkState(monitoredLooper.handler.postAtFrontOfQueue(monitoredLooper),
+        "Monitored looper exiting.");
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    // on main thread here.
+    long all = allLoopers;
+    long idle = idleMask.get();
+    if (idle != all) {
+      boolean waiting = false;
+      for (int i = 0; i < looperCount; i++) {
+        long bit = 1L << i;
+        if ((idle & bit) == 0 && monitored[i].isWaiting()) {
+          idle |= bit;
+          waiting = true;
+        }
+      }
+      if (idle != all) {
+        return false;
+      }
+      if (waiting && null != resourceCallback) {
+        // idle without its idle handler having run, don't let the registry think it's racy.
+        resourceCallback.onTransitionToIdle();
+      }
+      return true;
+    }
+    boolean stillIdle = true;
+    for (int i = 0; i < looperCount; i++) {
+      if (monitored[i].hasMoved()) {
+        // its idle handler has nothing to run for until it dispatches again - make it. A head
+        // that came due is dispatched after the wake up, so the looper stays busy until then.
+        updateMask(1L << i, false);
+        monitored[i].handler.sendEmptyMessage(WAKE_UP);
+        stillIdle = false;
+      }
+    }
+    return stillIdle;
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  private void publishIdle(int index) {
+    // on monitored looper thread.
+    long bit = 1L << index;
+    long idle = updateMask(bit, true);
+    long all = allLoopers;
+    if ((idle & bit) == 0 && (idle | bit) == all) {
+      ResourceCallback callback = resourceCallback;
+      if (null != callback) {
+        callback.onTransitionToIdle();
+      }
+    }
+  }
+
+  /**
+   * Sets or clears the given bit of the idle mask, returning the mask as it was before.
+   */
+  private long updateMask(long bit, boolean set) {
+    long idle;
+    do {
+      idle = idleMask.get();
+    } while (!idleMask.compareAndSet(idle, set ? idle | bit : idle & ~bit));
+    return idle;
+  }
+
+  private class MonitoredLooper implements IdleHandler, Runnable {
+    private final Looper looper;
+    private final Handler handler;
+    private final int index;
+    private final boolean considerWaitIdle;
+    private final QueueInterrogator interrogator;
+    private final QueueAccess queueAccess = QueueAccess.get();
+    // written by the monitored thread before its bit is published, read by main after.
+    private volatile MessageQueue queue;
+    private volatile Message idleHead;
+    // the uptime after which idleHead is due soon, written before idleHead.
+    private volatile long idleUntil;
+
+    private MonitoredLooper(Looper looper, int index, boolean considerWaitIdle) {
+      this.looper = checkNotNull(looper);
+      this.handler = new Handler(looper);
+      this.index = index;
+      this.considerWaitIdle = considerWaitIdle;
+      this.interrogator = new QueueInterrogator(looper);
+    }
+
+    @Override
+    public void run() {
+      // on monitored looper thread.
+      queue = Looper.myQueue();
+      queue.addIdleHandler(this);
+    }
+
+    @Override
+    public boolean queueIdle() {
+      // invoked on the monitored looper thread.
+      QueueState queueState = interrogator.determineQueueState();
+      if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
+        // no block and no task coming 'shortly'.
+        Message head = queueAccess.head(queue);
+        idleUntil = null == head
+            ? Long.MAX_VALUE : head.getWhen() - QueueInterrogator.LOOKAHEAD_MILLIS;
+        idleHead = head;
+        publishIdle(index);
+      } else if (queueState == QueueState.BARRIER) {
+        // send a sentinal message that'll cause us to queueIdle again once the
+        // block is lifted.
+        handler.sendEmptyMessage(WAKE_UP);
+      }
+      return true;
+    }
+
+    /**
+     * Whether the queue head changed since the looper went idle, or came within the lookahead so
+     * it's no longer 'due long'.
+     */
+    private boolean hasMoved() {
+      return queueAccess.head(queue) != idleHead || SystemClock.uptimeMillis() > idleUntil;
+    }
+
+    private boolean isWaiting() {
+      return considerWaitIdle && looper.getThread().getState() == Thread.State.WAITING;
+    }
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.test.espresso.matcher.IndexableViewMatcher;
+import android.support.test.espresso.matcher.MatcherCost;
+import android.support.test.espresso.matcher.MatcherCost.Cost;
+import android.support.test.espresso.matcher.ScopedViewMatcher;
+import android.support.test.espresso.matcher.SnapshotViewMatcher;
+import android.support.test.espresso.matcher.ViewSnapshot;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.util.Log;
+import android.view.View;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.Matchers;
+import org.hamcrest.core.AllOf;
+import org.hamcrest.core.AnyOf;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reorders the matchers combined by Hamcrest's {@link AllOf} and {@link AnyOf} for matching views
+ * of the hierarchy, using the {@link MatcherCost} of each.
+ *
+ * allOf runs the matchers most likely to reject a view for the least work first, anyOf the ones
+ * most likely to accept it. Combinations nested in each other are planned as well. The planned
+ * matcher describes itself, and any mismatch, as the original matcher does. Matchers are assumed
+ * to have no side effects, as Hamcrest never promised an evaluation order.
+ */
+final class MatcherPlanner {
+  private static final String TAG = MatcherPlanner.class.getSimpleName();
+
+  private static final int CHEAP_WEIGHT = 1;
+  private static final int MODERATE_WEIGHT = 4;
+  private static final int EXPENSIVE_WEIGHT = 16;
+  // how much more often a matcher which isn't selective accepts a view.
+  private static final int SELECTIVITY_FACTOR = 4;
+
+  private static final Field ALL_OF_MATCHERS = combinedMatchersField(AllOf.class);
+  private static final Field ANY_OF_MATCHERS = combinedMatchersField(AnyOf.class);
+
+  private static final ConcurrentMap<Class<?>, MatcherCost> COSTS = Maps.newConcurrentMap();
+  private static final MatcherCost UNKNOWN_COST =
+      UnknownCost.class.getAnnotation(MatcherCost.class);
+
+  private MatcherPlanner() { }
+
+  /**
+   * Returns a matcher matching the same views as the given one, with its combinations reordered,
+   * or the given matcher if there's nothing to reorder.
+   */
+  @SuppressWarnings("unchecked")
+  static Matcher<View> plan(Matcher<View> matcher) {
+    checkNotNull(matcher);
+    Plan plan = planOf(matcher);
+    return plan.matcher == matcher ? matcher : (Matcher<View>) plan.matcher;
+  }
+
+  /**
+   * Returns a matcher of view snapshots matching the same views as the given matcher - which may
+   * have been planned - or null if any matcher it combines can't match snapshots.
+   */
+  static SnapshotViewMatcher snapshotMatcherOf(Matcher<?> matcher) {
+    checkNotNull(matcher);
+    if (matcher instanceof SnapshotViewMatcher) {
+      return (SnapshotViewMatcher) matcher;
+    }
+    boolean allOf;
+    List<Matcher<?>> children;
+    if (matcher instanceof PlannedCombination) {
+      allOf = matcher instanceof PlannedAllOf;
+      children = Lists.newArrayList(((PlannedCombination) matcher).orderedMatchers);
+    } else if (matcher instanceof AllOf || matcher instanceof AnyOf) {
+      allOf = matcher instanceof AllOf;
+      children = combinedMatchers(matcher, allOf ? ALL_OF_MATCHERS : ANY_OF_MATCHERS);
+    } else {
+      return null;
+    }
+    if (null == children) {
+      return null;
+    }
+    SnapshotViewMatcher[] snapshotMatchers = new SnapshotViewMatcher[children.size()];
+    for (int i = 0; i < snapshotMatchers.length; i++) {
+      snapshotMatchers[i] = snapshotMatcherOf(children.get(i));
+      if (null == snapshotMatchers[i]) {
+        return null;
+      }
+    }
+    return new SnapshotCombination(allOf, snapshotMatchers);
+  }
+
+  /**
+   * Splits a matcher of views inside a scope - a {@link ScopedViewMatcher}, alone or combined
+   * with others by allOf - into the matcher of the scope and the matcher of the views inside it,
+   * or returns null if the matcher isn't restricted to a scope.
+   */
+  @SuppressWarnings("unchecked")
+  static Scope scopeOf(Matcher<View> matcher) {
+    checkNotNull(matcher);
+    if (matcher instanceof ScopedViewMatcher) {
+      return new Scope(((ScopedViewMatcher) matcher).getScopeMatcher(), Matchers.any(View.class));
+    }
+    if (!(matcher instanceof AllOf)) {
+      return null;
+    }
+    List<Matcher<?>> children = combinedMatchers(matcher, ALL_OF_MATCHERS);
+    if (null == children) {
+      return null;
+    }
+    for (int i = 0; i < children.size(); i++) {
+      if (children.get(i) instanceof ScopedViewMatcher) {
+        Matcher<View> scopeMatcher = ((ScopedViewMatcher) children.get(i)).getScopeMatcher();
+        List<Matcher<? super View>> others = Lists.newArrayList();
+        for (Matcher<?> child : children) {
+          others.add((Matcher<? super View>) child);
+        }
+        others.remove(i);
+        return new Scope(scopeMatcher, others.size() == 1
+            ? (Matcher<View>) others.get(0) : Matchers.allOf(others));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A view matcher split into the matcher of its scope, and the matcher of the views inside.
+   */
+  static final class Scope {
+    final Matcher<View> scopeMatcher;
+    final Matcher<View> innerMatcher;
+
+    private Scope(Matcher<View> scopeMatcher, Matcher<View> innerMatcher) {
+      this.scopeMatcher = scopeMatcher;
+      this.innerMatcher = innerMatcher;
+    }
+  }
+
+  private static Plan planOf(Matcher<?> matcher) {
+    boolean allOf = matcher instanceof AllOf;
+    if (!allOf && !(matcher instanceof AnyOf)) {
+      MatcherCost cost = costOf(matcher);
+      return new Plan(matcher, weightOf(cost.value()), cost.selective());
+    }
+    List<Matcher<?>> children =
+        combinedMatchers(matcher, allOf ? ALL_OF_MATCHERS : ANY_OF_MATCHERS);
+    if (null == children || children.isEmpty()) {
+      return new Plan(matcher, MODERATE_WEIGHT, false);
+    }
+
+    List<Plan> plans = Lists.newArrayListWithCapacity(children.size());
+    boolean changed = false;
+    int weight = 0;
+    boolean anySelective = false;
+    boolean allSelective = true;
+    IndexableViewMatcher indexable = null;
+    for (Matcher<?> child : children) {
+      Plan plan = planOf(child);
+      changed |= plan.matcher != child;
+      plans.add(plan);
+      weight += plan.weight;
+      anySelective |= plan.selective;
+      allSelective &= plan.selective;
+      if (allOf && null == indexable && plan.matcher instanceof IndexableViewMatcher) {
+        indexable = (IndexableViewMatcher) plan.matcher;
+      }
+    }
+    List<Plan> ordered = Lists.newArrayList(plans);
+    Collections.sort(ordered, allOf ? ALL_OF_ORDER : ANY_OF_ORDER);
+    changed |= !ordered.equals(plans);
+
+    // only views matching every child match allOf, only views matching some child match anyOf.
+    boolean selective = allOf ? anySelective : allSelective;
+    if (!changed && null == indexable) {
+      return new Plan(matcher, weight, selective);
+    }
+    Matcher<?>[] orderedMatchers = new Matcher<?>[ordered.size()];
+    for (int i = 0; i < orderedMatchers.length; i++) {
+      orderedMatchers[i] = ordered.get(i).matcher;
+    }
+    Matcher<?> planned;
+    if (!allOf) {
+      planned = new PlannedAnyOf(matcher, orderedMatchers);
+    } else if (null == indexable) {
+      planned = new PlannedAllOf(matcher, orderedMatchers);
+    } else {
+      planned = new IndexablePlannedAllOf(matcher, orderedMatchers, indexable);
+    }
+    return new Plan(planned, weight, selective);
+  }
+
+  /**
+   * Returns the cost a matcher class is annotated with, or the cost its anonymous class' factory
+   * method is annotated with.
+   */
+  private static MatcherCost costOf(Matcher<?> matcher) {
+    Class<?> matcherClass = matcher.getClass();
+    MatcherCost cost = COSTS.get(matcherClass);
+    if (null == cost) {
+      cost = matcherClass.getAnnotation(MatcherCost.class);
+      if (null == cost) {
+        Method factory = matcherClass.getEnclosingMethod();
+        cost = null == factory ? null : factory.getAnnotation(MatcherCost.class);
+      }
+      if (null == cost) {
+        cost = UNKNOWN_COST;
+      }
+      COSTS.put(matcherClass, cost);
+    }
+    return cost;
+  }
+
+  private static int weightOf(Cost cost) {
+    switch (cost) {
+      case CHEAP:
+        return CHEAP_WEIGHT;
+      case EXPENSIVE:
+        return EXPENSIVE_WEIGHT;
+      default:
+        return MODERATE_WEIGHT;
+    }
+  }
+
+  private static Field combinedMatchersField(Class<?> combinationClass) {
+    // AllOf keeps its matchers itself, AnyOf in its ShortcutCombination super class.
+    for (Class<?> c = combinationClass; c != Object.class; c = c.getSuperclass()) {
+      try {
+        Field field = c.getDeclaredField("matchers");
+        field.setAccessible(true);
+        return field;
+      } catch (NoSuchFieldException nsfe) {
+        // look at the super class.
+      } catch (SecurityException se) {
+        break;
+      }
+    }
+    Log.w(TAG, "Cannot reorder the matchers of " + combinationClass.getSimpleName());
+    return null;
+  }
+
+  private static List<Matcher<?>> combinedMatchers(Matcher<?> combination, Field field) {
+    if (null == field) {
+      return null;
+    }
+    try {
+      List<Matcher<?>> matchers = Lists.newArrayList();
+      for (Object matcher : (Iterable<?>) field.get(combination)) {
+        matchers.add((Matcher<?>) matcher);
+      }
+      return matchers;
+    } catch (IllegalAccessException iae) {
+      return null;
+    } catch (ClassCastException cce) {
+      return null;
+    }
+  }
+
+  // run first: allOf the matcher least likely to accept for its weight, anyOf the most likely.
+  private static final Comparator<Plan> ALL_OF_ORDER = new Comparator<Plan>() {
+    @Override
+    public int compare(Plan plan, Plan other) {
+      return rank(plan, !plan.selective) - rank(other, !other.selective);
+    }
+  };
+
+  private static final Comparator<Plan> ANY_OF_ORDER = new Comparator<Plan>() {
+    @Override
+    public int compare(Plan plan, Plan other) {
+      return rank(plan, plan.selective) - rank(other, other.selective);
+    }
+  };
+
+  private static int rank(Plan plan, boolean penalized) {
+    return penalized ? plan.weight * SELECTIVITY_FACTOR : plan.weight;
+  }
+
+  private static class Plan {
+    private final Matcher<?> matcher;
+    private final int weight;
+    private final boolean selective;
+
+    private Plan(Matcher<?> matcher, int weight, boolean selective) {
+      this.matcher = matcher;
+      this.weight = weight;
+      this.selective = selective;
+    }
+  }
+
+  /**
+   * Runs the reordered matchers of a combination, and describes itself as the original.
+   */
+  private abstract static class PlannedCombination extends BaseMatcher<Object> {
+    private final Matcher<?> original;
+    final Matcher<?>[] orderedMatchers;
+
+    PlannedCombination(Matcher<?> original, Matcher<?>[] orderedMatchers) {
+      this.original = original;
+      this.orderedMatchers = orderedMatchers;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      original.describeTo(description);
+    }
+
+    @Override
+    public void describeMismatch(Object item, Description description) {
+      original.describeMismatch(item, description);
+    }
+  }
+
+  private static class PlannedAllOf extends PlannedCombination {
+    PlannedAllOf(Matcher<?> original, Matcher<?>[] orderedMatchers) {
+      super(original, orderedMatchers);
+    }
+
+    @Override
+    public boolean matches(Object item) {
+      for (Matcher<?> matcher : orderedMatchers) {
+        if (!matcher.matches(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Only matches views which match one of its indexable children, so it can use the index too.
+   */
+  private static final class IndexablePlannedAllOf extends PlannedAllOf
+      implements IndexableViewMatcher {
+    private final IndexableViewMatcher indexable;
+
+    IndexablePlannedAllOf(Matcher<?> original, Matcher<?>[] orderedMatchers,
+        IndexableViewMatcher indexable) {
+      super(original, orderedMatchers);
+      this.indexable = indexable;
+    }
+
+    @Override
+    public IndexType getIndexType() {
+      return indexable.getIndexType();
+    }
+
+    @Override
+    public Object getIndexKey() {
+      return indexable.getIndexKey();
+    }
+  }
+
+  private static final class PlannedAnyOf extends PlannedCombination {
+    PlannedAnyOf(Matcher<?> original, Matcher<?>[] orderedMatchers) {
+      super(original, orderedMatchers);
+    }
+
+    @Override
+    public boolean matches(Object item) {
+      for (Matcher<?> matcher : orderedMatchers) {
+        if (matcher.matches(item)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class SnapshotCombination implements SnapshotViewMatcher {
+    private final boolean allOf;
+    private final SnapshotViewMatcher[] matchers;
+
+    SnapshotCombination(boolean allOf, SnapshotViewMatcher[] matchers) {
+      this.allOf = allOf;
+      this.matchers = matchers;
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      for (SnapshotViewMatcher matcher : matchers) {
+        // allOf stops at the first matcher rejecting the view, anyOf at the first accepting it.
+        if (matcher.matchesSnapshot(view) != allOf) {
+          return !allOf;
+        }
+      }
+      return allOf;
+    }
+  }
+
+  @MatcherCost(Cost.MODERATE)
+  private static final class UnknownCost { }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.test.espresso.matcher.SnapshotViewMatcher;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Matches the views of a hierarchy on background threads, one per core.
+ *
+ * The main thread only takes a {@link HierarchySnapshot} of the hierarchy; ranges of the snapshot
+ * are matched concurrently, and the live views of the matching snapshots are returned. The main
+ * thread waits for the matching to finish, so the hierarchy can't change before the view found is
+ * acted upon. Only matchers whose every part is a {@link SnapshotViewMatcher} can be run this way.
+ * Parallel matching is off by default.
+ */
+@Singleton
+public final class ParallelViewMatcher {
+
+  // smaller ranges cost more to hand over to another thread than to match.
+  private static final int MIN_RANGE_SIZE = 256;
+
+  private final int threadCount = Runtime.getRuntime().availableProcessors();
+  private volatile boolean enabled = false;
+  // created when first enabled.
+  private ExecutorService executor;
+
+  @Inject
+  public ParallelViewMatcher() { }
+
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled && null == executor) {
+      executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+          .setNameFormat("Espresso view matcher #%d")
+          .setDaemon(true)
+          .build());
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the views under the root matched by the matcher, in breadth first order, or null if
+   * parallel matching is disabled or the matcher can't match snapshots. Must be called on the
+   * main thread.
+   */
+  List<View> matchAll(View root, Matcher<View> matcher) {
+    checkNotNull(root);
+    if (!enabled) {
+      return null;
+    }
+    SnapshotViewMatcher snapshotMatcher = MatcherPlanner.snapshotMatcherOf(matcher);
+    if (null == snapshotMatcher) {
+      return null;
+    }
+    HierarchySnapshot snapshot = HierarchySnapshot.capture(root);
+    int size = snapshot.size();
+    int rangeCount = Math.max(1, Math.min(threadCount, size / MIN_RANGE_SIZE));
+    int rangeSize = (size + rangeCount - 1) / rangeCount;
+    List<Future<int[]>> rangeMatches = Lists.newArrayListWithCapacity(rangeCount);
+    ExecutorService executor;
+    synchronized (this) {
+      executor = this.executor;
+    }
+    for (int start = 0; start < size; start += rangeSize) {
+      rangeMatches.add(executor.submit(
+          new RangeMatcher(snapshot, snapshotMatcher, start, Math.min(size, start + rangeSize))));
+    }
+
+    List<View> matched = Lists.newArrayList();
+    try {
+      for (Future<int[]> range : rangeMatches) {
+        for (int index : range.get()) {
+          matched.add(snapshot.getView(index));
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while matching views", ie);
+    } catch (ExecutionException ee) {
+      throw Throwables.propagate(ee.getCause());
+    } finally {
+      for (Future<int[]> range : rangeMatches) {
+        range.cancel(true);
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Returns the indexes of the snapshots in a range which match.
+   */
+  private static final class RangeMatcher implements Callable<int[]> {
+    private final HierarchySnapshot snapshot;
+    private final SnapshotViewMatcher matcher;
+    private final int start;
+    private final int end;
+
+    RangeMatcher(HierarchySnapshot snapshot, SnapshotViewMatcher matcher, int start, int end) {
+      this.snapshot = snapshot;
+      this.matcher = matcher;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int[] call() {
+      HierarchySnapshot.Cursor cursor = snapshot.newCursor();
+      int[] matches = new int[4];
+      int matchCount = 0;
+      for (int index = start; index < end; index++) {
+        cursor.moveTo(index);
+        if (matcher.matchesSnapshot(cursor)) {
+          if (matchCount == matches.length) {
+            int[] grown = new int[matches.length * 2];
+            System.arraycopy(matches, 0, grown, 0, matchCount);
+            matches = grown;
+          }
+          matches[matchCount++] = index;
+        }
+      }
+      int[] result = new int[matchCount];
+      System.arraycopy(matches, 0, result, 0, matchCount);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+
+import android.os.Message;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reaches into the private parts of {@link MessageQueue} and {@link Message}.
+ *
+ * The members are resolved once per process and shared by every interrogator. Invocations pass a
+ * shared empty argument array so the per-message path doesn't allocate, and none of the accessors
+ * synchronize - callers which need a consistent view of the queue hold its monitor themselves.
+ *
+ * Reflection is the only way in at the API levels Espresso supports, so this is the single
+ * strategy used everywhere rather than one of several.
+ */
+final class QueueAccess {
+  private static final String TAG = "QueueAccess";
+  private static final Object[] NO_ARGS = new Object[0];
+
+  private static final QueueAccess INSTANCE = resolve();
+
+  private final Method queueNextMethod;
+  private final Field queueHeadField;
+  // only needed to take messages off the queue, its absence doesn't break interrogation.
+  private final Field messageNextField;
+
+  private QueueAccess(Method queueNextMethod, Field queueHeadField, Field messageNextField) {
+    this.queueNextMethod = queueNextMethod;
+    this.queueHeadField = queueHeadField;
+    this.messageNextField = messageNextField;
+  }
+
+  /**
+   * Returns the access resolved for this platform.
+   */
+  static QueueAccess get() {
+    return INSTANCE;
+  }
+
+  private static QueueAccess resolve() {
+    Method nextMethod = null;
+    Field headField = null;
+    try {
+      nextMethod = MessageQueue.class.getDeclaredMethod("next");
+      nextMethod.setAccessible(true);
+      headField = MessageQueue.class.getDeclaredField("mMessages");
+      headField.setAccessible(true);
+    } catch (NoSuchFieldException e) {
+      nextMethod = null;
+      headField = null;
+      Log.e(TAG, "Could not initialize queue access!", e);
+    } catch (NoSuchMethodException e) {
+      nextMethod = null;
+      headField = null;
+      Log.e(TAG, "Could not initialize queue access!", e);
+    } catch (SecurityException e) {
+      nextMethod = null;
+      headField = null;
+      Log.e(TAG, "Could not initialize queue access!", e);
+    }
+
+    Field nextField = null;
+    try {
+      nextField = Message.class.getDeclaredField("next");
+      nextField.setAccessible(true);
+    } catch (NoSuchFieldException e) {
+      Log.w(TAG, "Could not find Message.next, taking messages is unsupported.", e);
+    } catch (SecurityException e) {
+      Log.w(TAG, "Could not access Message.next, taking messages is unsupported.", e);
+    }
+    return new QueueAccess(nextMethod, headField, nextField);
+  }
+
+  boolean isSupported() {
+    return null != queueNextMethod && null != queueHeadField;
+  }
+
+  boolean canTakeMessages() {
+    return isSupported() && null != messageNextField;
+  }
+
+  /**
+   * Blocks until the queue has a message due and returns it, as the Looper would.
+   */
+  Message next(MessageQueue queue) {
+    checkState(isSupported(), "Queue access is not supported on this platform.");
+    try {
+      return (Message) queueNextMethod.invoke(queue, NO_ARGS);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    } catch (IllegalArgumentException e) {
+      throw propagate(e);
+    } catch (InvocationTargetException e) {
+      throw propagate(e);
+    } catch (SecurityException e) {
+      throw propagate(e);
+    }
+  }
+
+  Message head(MessageQueue queue) {
+    try {
+      return (Message) queueHeadField.get(queue);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+
+  void setHead(MessageQueue queue, Message head) {
+    try {
+      queueHeadField.set(queue, head);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+
+  Message nextInQueue(Message message) {
+    try {
+      return (Message) messageNextField.get(message);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+
+  void setNextInQueue(Message message, Message next) {
+    try {
+      messageNextField.set(message, next);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+}
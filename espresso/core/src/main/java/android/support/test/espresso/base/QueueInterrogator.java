@@ -25,11 +25,9 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
 import android.os.SystemClock;
-import android.util.Log;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -40,51 +38,18 @@ import java.util.concurrent.FutureTask;
 final class QueueInterrogator {
 
   enum QueueState { EMPTY, TASK_DUE_SOON, TASK_DUE_LONG, BARRIER };
-  
-  private static final String TAG = "QueueInterrogator";
 
-  private static final Method messageQueueNextMethod;
-  private static final Field messageQueueHeadField;
-  private static final int LOOKAHEAD_MILLIS = 15;
+  // tasks due within this many millis count as due now.
+  static final int LOOKAHEAD_MILLIS = 15;
 
   private final Looper interrogatedLooper;
+  private final QueueAccess queueAccess;
   private volatile MessageQueue interrogatedQueue;
 
-  static {
-    Method nextMethod = null;
-    Field headField = null;
-    try {
-      nextMethod = MessageQueue.class.getDeclaredMethod("next");
-      nextMethod.setAccessible(true);
-
-      headField = MessageQueue.class.getDeclaredField("mMessages");
-      headField.setAccessible(true);
-    } catch (IllegalArgumentException e) {
-      nextMethod = null;
-      headField = null;
-      Log.e(TAG, "Could not initialize interrogator!", e);
-    } catch (NoSuchFieldException e) {
-      nextMethod = null;
-      headField = null;
-      Log.e(TAG, "Could not initialize interrogator!", e);
-    } catch (NoSuchMethodException e) {
-      nextMethod = null;
-      headField = null;
-      Log.e(TAG, "Could not initialize interrogator!", e);
-    } catch (SecurityException e) {
-      nextMethod = null;
-      headField = null;
-      Log.e(TAG, "Could not initialize interrogator!", e);
-    } finally {
-      messageQueueNextMethod = nextMethod;
-      messageQueueHeadField = headField;
-    }
-  }
-
   QueueInterrogator(Looper interrogatedLooper) {
     this.interrogatedLooper = checkNotNull(interrogatedLooper);
-    checkNotNull(messageQueueHeadField);
-    checkNotNull(messageQueueNextMethod);
+    this.queueAccess = QueueAccess.get();
+    checkState(queueAccess.isSupported(), "Could not initialize interrogator!");
   }
 
   // Only for use by espresso - keep package private.
@@ -95,17 +60,7 @@ final class QueueInterrogator {
       initializeQueue();
     }
 
-    try {
-      return (Message) messageQueueNextMethod.invoke(Looper.myQueue());
-    } catch (IllegalAccessException e) {
-      throw propagate(e);
-    } catch (IllegalArgumentException e) {
-      throw propagate(e);
-    } catch (InvocationTargetException e) {
-      throw propagate(e);
-    } catch (SecurityException e) {
-      throw propagate(e);
-    }
+    return queueAccess.next(interrogatedQueue);
   }
 
   QueueState determineQueueState() {
@@ -114,29 +69,99 @@ final class QueueInterrogator {
     if (null == interrogatedQueue) {
       initializeQueue();
     }
+    // the head isn't volatile and may be recycled once dispatched, so it's only read and
+    // classified under the queue's lock.
     synchronized (interrogatedQueue) {
-      try {
-        Message head = (Message) messageQueueHeadField.get(interrogatedQueue);
-        if (null == head) {
-          // no messages pending - AT ALL!
-          return QueueState.EMPTY;
+      return classify(queueAccess.head(interrogatedQueue));
+    }
+  }
+
+  private static QueueState classify(Message head) {
+    if (null == head) {
+      // no messages pending - AT ALL!
+      return QueueState.EMPTY;
+    }
+    if (null == head.getTarget()) {
+      // null target is a sync barrier token.
+      return QueueState.BARRIER;
+    } else {
+      long headWhen = head.getWhen();
+      long nowFuz = SystemClock.uptimeMillis() + LOOKAHEAD_MILLIS;
+
+      if (nowFuz > headWhen) {
+        return QueueState.TASK_DUE_SOON;
+      } else {
+        return QueueState.TASK_DUE_LONG;
+      }
+    }
+  }
+
+  /**
+   * Returns true if {@link #takeFirstOf(Map)} is supported on this platform.
+   */
+  static boolean canTakeMessages() {
+    return QueueAccess.get().canTakeMessages();
+  }
+
+  /**
+   * Returns the messages queued to be delivered at or before the given uptime, each mapped to the
+   * uptime it is due at.
+   */
+  Map<Message, Long> getMessagesDueBefore(long uptimeMillis) {
+    checkThread();
+    checkState(queueAccess.canTakeMessages(), "Taking messages is not supported on this platform.");
+
+    if (null == interrogatedQueue) {
+      initializeQueue();
+    }
+    Map<Message, Long> due = new IdentityHashMap<Message, Long>();
+    synchronized (interrogatedQueue) {
+      for (Message message = queueAccess.head(interrogatedQueue);
+          null != message && message.getWhen() <= uptimeMillis;
+          message = queueAccess.nextInQueue(message)) {
+        if (null != message.getTarget()) {
+          due.put(message, message.getWhen());
         }
-        if (null == head.getTarget()) {
-          // null target is a sync barrier token.
-          return QueueState.BARRIER;
-        } else {
-          long headWhen = head.getWhen();
-          long nowFuz = SystemClock.uptimeMillis() + LOOKAHEAD_MILLIS;
-
-          if (nowFuz > headWhen) {
-            return QueueState.TASK_DUE_SOON;
+      }
+    }
+    return due;
+  }
+
+  /**
+   * Removes the first message of the queue which is one of the given messages and returns it.
+   *
+   * Messages are only taken from ahead of the first sync barrier, and only if they are still due
+   * at the uptime they are mapped to - otherwise they have been recycled and reused since. Returns
+   * null if there is no such message. The message is also removed from the map, the caller is
+   * responsible for dispatching and recycling it.
+   */
+  Message takeFirstOf(Map<Message, Long> messages) {
+    checkThread();
+    checkState(queueAccess.canTakeMessages(), "Taking messages is not supported on this platform.");
+
+    if (null == interrogatedQueue) {
+      initializeQueue();
+    }
+    synchronized (interrogatedQueue) {
+      Message previous = null;
+      Message message = queueAccess.head(interrogatedQueue);
+      while (null != message && null != message.getTarget()) {
+        Message next = queueAccess.nextInQueue(message);
+        Long when = messages.get(message);
+        if (null != when && when == message.getWhen()) {
+          if (null == previous) {
+            queueAccess.setHead(interrogatedQueue, next);
           } else {
-            return QueueState.TASK_DUE_LONG;
+            queueAccess.setNextInQueue(previous, next);
           }
+          queueAccess.setNextInQueue(message, null);
+          messages.remove(message);
+          return message;
         }
-      } catch (IllegalAccessException e) {
-        throw propagate(e);
+        previous = message;
+        message = next;
       }
+      return null;
     }
   }
 
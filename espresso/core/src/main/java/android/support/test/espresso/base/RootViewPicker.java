@@ -22,6 +22,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import android.support.test.runner.lifecycle.ActivityLifecycleMonitor;
 import android.support.test.runner.lifecycle.Stage;
+import android.support.test.espresso.IdlingPolicies;
 import android.support.test.espresso.NoActivityResumedException;
 import android.support.test.espresso.NoMatchingRootException;
 import android.support.test.espresso.Root;
@@ -31,6 +32,7 @@ import com.google.common.collect.Lists;
 
 import android.app.Activity;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 
@@ -55,6 +57,7 @@ import javax.inject.Singleton;
 @Singleton
 public final class RootViewPicker implements Provider<View> {
   private static final String TAG = RootViewPicker.class.getSimpleName();
+  private static final long ROOT_READY_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
   private final ActiveRootLister activeRootLister;
   private final UiController uiController;
@@ -84,15 +87,20 @@ public final class RootViewPicker implements Provider<View> {
     // if we happen not to be in this state at the moment, process the queue some more
     // we should come to it quickly enough.
     int loops = 0;
+    long giveUpAt = SystemClock.uptimeMillis() + ROOT_READY_TIMEOUT_MILLIS;
 
     while (!isReady(findResult.needle)) {
+      long remaining = giveUpAt - SystemClock.uptimeMillis();
       if (loops < 3) {
         uiController.loopMainThreadUntilIdle();
-      } else if (loops < 1001) {
-
-        // loopUntil idle effectively is polling and pegs the CPU... if we don't have an update to
-        // process immediately, we might have something coming very very soon.
-        uiController.loopMainThreadForAtLeast(10);
+      } else if (remaining > 0) {
+        // a pending layout is drawn by the next frame, so wait exactly until the UI has settled.
+        // Window focus comes from the system rather than from a frame though - if the UI was
+        // already settled we might have it coming very very soon, so poll in short slices.
+        if (!UiControllers.loopMainThreadUntilUiSettled(uiController,
+            Math.min(remaining, IdlingPolicies.getUiSettleTimeoutMillis()))) {
+          uiController.loopMainThreadForAtLeast(10);
+        }
       } else {
         // we've waited for the root view to be fully laid out and have window focus
         // for over 10 seconds. something is wrong.
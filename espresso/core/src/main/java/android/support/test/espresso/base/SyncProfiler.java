@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.test.espresso.SyncMetrics;
+import android.support.test.espresso.SyncMetricsListener;
+import android.support.test.espresso.base.UiControllerImpl.IdleCondition;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Records where each interaction spends its time waiting for the application to idle.
+ *
+ * {@link UiControllerImpl} reports the time spent on every {@link IdleCondition} while it loops
+ * the main thread, and the interaction reports its own boundaries. Nothing is recorded unless a
+ * {@link SyncMetricsListener} is registered. All recording happens on the main thread.
+ */
+@Singleton
+public final class SyncProfiler {
+  private static final String TAG = SyncProfiler.class.getSimpleName();
+
+  private final List<SyncMetricsListener> listeners =
+      new CopyOnWriteArrayList<SyncMetricsListener>();
+
+  // only accessed on main thread.
+  private final long[] conditionWaitMillis = new long[IdleCondition.values().length];
+  private final boolean[] conditionAwaited = new boolean[conditionWaitMillis.length];
+  private boolean recording = false;
+  private long interactionStart;
+  private long syncMillis;
+  private long queueDrainMillis;
+  private int loopIterations;
+  private int wakeups;
+
+  @Inject
+  public SyncProfiler() { }
+
+  public void addListener(SyncMetricsListener listener) {
+    listeners.add(checkNotNull(listener));
+  }
+
+  public void removeListener(SyncMetricsListener listener) {
+    listeners.remove(checkNotNull(listener));
+  }
+
+  /**
+   * Whether the current interaction is being recorded.
+   */
+  public boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Marks the start of an interaction. Called on the main thread before its first idle sync.
+   */
+  public void interactionStarted() {
+    recording = !listeners.isEmpty();
+    if (!recording) {
+      return;
+    }
+    interactionStart = SystemClock.uptimeMillis();
+    syncMillis = 0;
+    queueDrainMillis = 0;
+    loopIterations = 0;
+    wakeups = 0;
+    for (int i = 0; i < conditionWaitMillis.length; i++) {
+      conditionWaitMillis[i] = 0;
+      conditionAwaited[i] = false;
+    }
+  }
+
+  /**
+   * Marks the end of an interaction and publishes its metrics to all listeners.
+   *
+   * @param description what the interaction did, used to identify it in reports.
+   */
+  public void interactionFinished(String description) {
+    if (!recording) {
+      return;
+    }
+    recording = false;
+    SyncMetrics.Builder builder = new SyncMetrics.Builder()
+        .withInteraction(description)
+        .withInteractionMillis(SystemClock.uptimeMillis() - interactionStart)
+        .withSyncMillis(syncMillis)
+        .withQueueDrainMillis(queueDrainMillis)
+        .withLoopIterations(loopIterations)
+        .withWakeups(wakeups);
+    IdleCondition[] conditions = IdleCondition.values();
+    for (int i = 0; i < conditions.length; i++) {
+      if (conditionAwaited[i]) {
+        builder.withConditionWaitMillis(conditions[i].name(), conditionWaitMillis[i]);
+      }
+    }
+    SyncMetrics metrics = builder.build();
+    for (SyncMetricsListener listener : listeners) {
+      try {
+        listener.onInteractionCompleted(metrics);
+      } catch (RuntimeException re) {
+        Log.w(TAG, "Listener failed to handle metrics: " + listener, re);
+      }
+    }
+  }
+
+  void recordConditionWait(IdleCondition condition, long waitMillis) {
+    conditionWaitMillis[condition.ordinal()] += waitMillis;
+    conditionAwaited[condition.ordinal()] = true;
+  }
+
+  void recordLoop(int iterations, int loopWakeups, long loopMillis, long drainMillis) {
+    loopIterations += iterations;
+    wakeups += loopWakeups;
+    syncMillis += loopMillis;
+    queueDrainMillis += drainMillis;
+  }
+}
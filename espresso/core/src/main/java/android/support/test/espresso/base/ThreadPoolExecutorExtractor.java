@@ -23,9 +23,11 @@ import android.os.Handler;
 import android.os.Looper;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -46,6 +48,8 @@ final class ThreadPoolExecutorExtractor {
       "android.support.v4.content.ModernAsyncTask";
   private static final String MODERN_ASYNC_TASK_FIELD_NAME = "THREAD_POOL_EXECUTOR";
   private static final String LEGACY_ASYNC_TASK_FIELD_NAME = "sExecutor";
+  private static final String DEFAULT_EXECUTOR_FIELD_NAME = "sDefaultExecutor";
+  private static final String SET_DEFAULT_EXECUTOR_METHOD_NAME = "setDefaultExecutor";
   private final Handler mainHandler;
 
   @Inject
@@ -82,6 +86,55 @@ final class ThreadPoolExecutorExtractor {
     }
   }
 
+  /**
+   * Routes the executor AsyncTask.execute() uses by default through a {@link CountingExecutor}, so
+   * those tasks can be counted. Absent before Honeycomb, which has no default executor to decorate.
+   * Installing the counter again returns the one installed before.
+   *
+   * This replaces the app's process wide default executor until
+   * {@link #uninstallAsyncTaskCounter(CountingExecutor)} is called.
+   */
+  public Optional<CountingExecutor> installAsyncTaskCounter() {
+    if (Build.VERSION.SDK_INT < 11) {
+      return Optional.absent();
+    }
+    try {
+      return runOnMainThread(
+          new FutureTask<Optional<CountingExecutor>>(INSTALL_ASYNC_TASK_COUNTER)).get();
+    } catch (InterruptedException ie) {
+      throw new RuntimeException("Interrupted while trying to count async tasks!", ie);
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee.getCause());
+    }
+  }
+
+  /**
+   * Restores the executor AsyncTask.execute() used by default before the counter was installed,
+   * unless it has been replaced by another one since.
+   */
+  public void uninstallAsyncTaskCounter(final CountingExecutor counter) {
+    try {
+      runOnMainThread(new FutureTask<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Class<?> asyncTaskClazz = LOAD_ASYNC_TASK_CLASS.call();
+          Field defaultExecutorField =
+              asyncTaskClazz.getDeclaredField(DEFAULT_EXECUTOR_FIELD_NAME);
+          defaultExecutorField.setAccessible(true);
+          if (defaultExecutorField.get(null) == counter) {
+            asyncTaskClazz.getMethod(SET_DEFAULT_EXECUTOR_METHOD_NAME, Executor.class)
+                .invoke(null, counter.getDelegate());
+          }
+          return null;
+        }
+      })).get();
+    } catch (InterruptedException ie) {
+      throw new RuntimeException("Interrupted while trying to stop counting async tasks!", ie);
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee.getCause());
+    }
+  }
+
   private <T> FutureTask<T> runOnMainThread(final FutureTask<T> futureToRun) {
     if (Looper.myLooper() != Looper.getMainLooper()) {
       final CountDownLatch latch = new CountDownLatch(1);
@@ -133,6 +186,34 @@ final class ThreadPoolExecutorExtractor {
         }
       };
 
+  private static final Callable<Optional<CountingExecutor>> INSTALL_ASYNC_TASK_COUNTER =
+      new Callable<Optional<CountingExecutor>>() {
+        @Override
+        public Optional<CountingExecutor> call() throws Exception {
+          try {
+            Class<?> asyncTaskClazz = LOAD_ASYNC_TASK_CLASS.call();
+            Field defaultExecutorField =
+                asyncTaskClazz.getDeclaredField(DEFAULT_EXECUTOR_FIELD_NAME);
+            defaultExecutorField.setAccessible(true);
+            Executor defaultExecutor = (Executor) defaultExecutorField.get(null);
+            if (defaultExecutor instanceof CountingExecutor) {
+              return Optional.of((CountingExecutor) defaultExecutor);
+            }
+            Method setDefaultExecutor = asyncTaskClazz.getMethod(
+                SET_DEFAULT_EXECUTOR_METHOD_NAME, Executor.class);
+            CountingExecutor counter = new CountingExecutor(defaultExecutor);
+            setDefaultExecutor.invoke(null, counter);
+            return Optional.of(counter);
+          } catch (ClassNotFoundException cnfe) {
+            return Optional.<CountingExecutor>absent();
+          } catch (NoSuchFieldException nsfe) {
+            return Optional.<CountingExecutor>absent();
+          } catch (NoSuchMethodException nsme) {
+            return Optional.<CountingExecutor>absent();
+          }
+        }
+      };
+
   private static final Callable<Optional<ThreadPoolExecutor>> LEGACY_ASYNC_TASK_EXECUTOR =
       new Callable<Optional<ThreadPoolExecutor>>() {
         @Override
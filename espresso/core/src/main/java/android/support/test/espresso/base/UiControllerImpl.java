@@ -21,8 +21,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Throwables.propagate;
 
+import android.support.test.espresso.AppNotIdleException;
 import android.support.test.espresso.IdlingPolicies;
 import android.support.test.espresso.IdlingPolicy;
+import android.support.test.espresso.IdlingResourceTimeoutException;
 import android.support.test.espresso.InjectEventSecurityException;
 import android.support.test.espresso.UiController;
 import android.support.test.espresso.base.IdlingResourceRegistry.IdleNotificationCallback;
@@ -35,6 +37,7 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue.IdleHandler;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyCharacterMap;
@@ -44,11 +47,10 @@ import android.view.MotionEvent;
 import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.support.annotation.Nullable;
 import javax.inject.Inject;
@@ -62,12 +64,8 @@ final class UiControllerImpl implements UiController, Handler.Callback {
 
   private static final String TAG = UiControllerImpl.class.getSimpleName();
 
-  private static final Callable<Void> NO_OP = new Callable<Void>() {
-    @Override
-    public Void call() {
-      return null;
-    }
-  };
+  // sent by the queue idle handler to wake loopUntil once the main queue has quiesced.
+  private static final int QUEUE_HAS_IDLED = -1;
 
   /**
    * Responsible for signaling a particular condition is met / verifying that signal.
@@ -78,7 +76,8 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       COMPAT_TASKS_HAVE_IDLED,
       KEY_INJECT_HAS_COMPLETED,
       MOTION_INJECTION_HAS_COMPLETED,
-      DYNAMIC_TASKS_HAVE_IDLED;
+      DYNAMIC_TASKS_HAVE_IDLED,
+      UI_HAS_SETTLED;
 
       /**
        * Checks whether this condition has been signaled.
@@ -107,11 +106,10 @@ final class UiControllerImpl implements UiController, Handler.Callback {
        */
       public static boolean handleMessage(Message message, BitSet conditionSet,
           int currentGeneration) {
-        IdleCondition [] allConditions = values();
-        if (message.what < 0 || message.what >= allConditions.length) {
+        if (message.what < 0 || message.what >= ALL_CONDITIONS.length) {
           return false;
         } else {
-          IdleCondition condition = allConditions[message.what];
+          IdleCondition condition = ALL_CONDITIONS[message.what];
           if (message.arg1 == currentGeneration) {
             condition.signal(conditionSet);
           } else {
@@ -122,6 +120,8 @@ final class UiControllerImpl implements UiController, Handler.Callback {
         }
       }
 
+      private static final IdleCondition[] ALL_CONDITIONS = values();
+
       public static BitSet createConditionSet() {
         return new BitSet(values().length);
       }
@@ -144,11 +144,42 @@ final class UiControllerImpl implements UiController, Handler.Callback {
   private final QueueInterrogator queueInterrogator;
   private final Looper mainLooper;
   private final Recycler recycler;
+  private final SyncProfiler syncProfiler;
+  private final DispatchProfiler dispatchProfiler;
+
+  private final IdleHandler queueIdleHandler = new QueueIdleHandler();
+
+  // Reused on every pass so the injection and idle paths don't churn the app's heap. Signals and
+  // the injection task are replaced if a previous use never completed (e.g. loopUntil timed out).
+  private final EnumSet<IdleCondition> condChecks = EnumSet.noneOf(IdleCondition.class);
+  private final EnumSet<IdleCondition> singleCondition = EnumSet.noneOf(IdleCondition.class);
+  private final DynamicResourcesCallback dynamicResourcesCallback =
+      new DynamicResourcesCallback();
+  private final ConditionSignal[] signals =
+      new ConditionSignal[IdleCondition.ALL_CONDITIONS.length];
+  private InjectionTask injectionTask;
+  // uptime at which each condition was first seen signaled during the current loop, or -1.
+  private final long[] conditionSignaledAt = new long[IdleCondition.ALL_CONDITIONS.length];
 
   private Handler controllerHandler;
+  private ChoreographerMonitor choreographerMonitor;
   // only updated on main thread.
   private boolean looping = false;
   private int generation = 0;
+  // set whenever a signal or queue idle wakeup is handled, cleared once conditions are evaluated.
+  private boolean wakeupPending = false;
+  private boolean conditionsMet = false;
+  private long iterationCount = 0;
+  private long wakeupCount = 0;
+
+  // The idle epoch: a snapshot of every source of work taken the last time a full sync found the
+  // app idle. While it's unchanged the next sync can skip the signaling and looping machinery.
+  private boolean idleEpochValid = false;
+  private long epochAsyncTaskCount;
+  private long epochCompatTaskCount;
+  private int epochRegistryState;
+  private long fastPathCount = 0;
+  private long fastForwardedCount = 0;
 
   @VisibleForTesting
   @Inject
@@ -157,7 +188,9 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       @CompatAsyncTask @Nullable AsyncTaskPoolMonitor compatTaskMonitor,
       IdlingResourceRegistry registry,
       Looper mainLooper,
-      Recycler recycler) {
+      Recycler recycler,
+      SyncProfiler syncProfiler,
+      DispatchProfiler dispatchProfiler) {
     this.eventInjector = checkNotNull(eventInjector);
     this.asyncTaskMonitor = checkNotNull(asyncTaskMonitor);
     this.compatTaskMonitor = compatTaskMonitor;
@@ -166,6 +199,8 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     this.mainLooper = checkNotNull(mainLooper);
     this.queueInterrogator = new QueueInterrogator(mainLooper);
     this.recycler = checkNotNull(recycler);
+    this.syncProfiler = checkNotNull(syncProfiler);
+    this.dispatchProfiler = checkNotNull(dispatchProfiler);
   }
 
   @SuppressWarnings("deprecation")
@@ -175,35 +210,24 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
     initialize();
     loopMainThreadUntilIdle();
+    idleEpochValid = false;
 
-    FutureTask<Boolean> injectTask = new SignalingTask<Boolean>(
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
-            return eventInjector.injectKeyEvent(event);
-          }
-        },
-        IdleCondition.KEY_INJECT_HAS_COMPLETED,
-        generation);
+    InjectionTask injectTask = obtainInjectionTask();
+    injectTask.arm(event, null, IdleCondition.KEY_INJECT_HAS_COMPLETED, generation);
 
     // Inject the key event.
-    keyEventExecutor.submit(injectTask);
+    keyEventExecutor.execute(injectTask);
 
     loopUntil(IdleCondition.KEY_INJECT_HAS_COMPLETED);
 
-    try {
-      checkState(injectTask.isDone(), "Key injection was signaled - but it wasnt done.");
-      return injectTask.get();
-    } catch (ExecutionException ee) {
-      if (ee.getCause() instanceof InjectEventSecurityException) {
-        throw (InjectEventSecurityException) ee.getCause();
-      } else {
-        throw new RuntimeException(ee.getCause());
-      }
-    } catch (InterruptedException neverHappens) {
-      // we only call get() after done() is signaled.
-      // we should never block.
-      throw new RuntimeException("impossible.", neverHappens);
+    checkState(injectTask.isDone(), "Key injection was signaled - but it wasnt done.");
+    Throwable failure = injectTask.failure;
+    if (null == failure) {
+      return injectTask.result;
+    } else if (failure instanceof InjectEventSecurityException) {
+      throw (InjectEventSecurityException) failure;
+    } else {
+      throw new RuntimeException(failure);
     }
   }
 
@@ -212,36 +236,34 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     checkNotNull(event);
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
     initialize();
+    idleEpochValid = false;
 
-    FutureTask<Boolean> injectTask = new SignalingTask<Boolean>(
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
-            return eventInjector.injectMotionEvent(event);
-          }
-        },
-        IdleCondition.MOTION_INJECTION_HAS_COMPLETED,
-        generation);
-    keyEventExecutor.submit(injectTask);
+    InjectionTask injectTask = obtainInjectionTask();
+    injectTask.arm(null, event, IdleCondition.MOTION_INJECTION_HAS_COMPLETED, generation);
+    keyEventExecutor.execute(injectTask);
     loopUntil(IdleCondition.MOTION_INJECTION_HAS_COMPLETED);
     try {
       checkState(injectTask.isDone(), "Key injection was signaled - but it wasnt done.");
-      return injectTask.get();
-    } catch (ExecutionException ee) {
-      if (ee.getCause() instanceof InjectEventSecurityException) {
-        throw (InjectEventSecurityException) ee.getCause();
+      Throwable failure = injectTask.failure;
+      if (null == failure) {
+        return injectTask.result;
+      } else if (failure instanceof InjectEventSecurityException) {
+        throw (InjectEventSecurityException) failure;
       } else {
-        throw propagate(ee.getCause() != null ? ee.getCause() : ee);
+        throw propagate(failure);
       }
-    } catch (InterruptedException neverHappens) {
-      // we only call get() after done() is signaled.
-      // we should never block.
-      throw propagate(neverHappens);
     } finally {
       loopMainThreadUntilIdle();
     }
   }
 
+  private InjectionTask obtainInjectionTask() {
+    if (null == injectionTask || !injectionTask.isDone()) {
+      injectionTask = new InjectionTask();
+    }
+    return injectionTask;
+  }
+
   @Override
   public boolean injectString(String str) throws InjectEventSecurityException {
     checkNotNull(str);
@@ -271,8 +293,9 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     Log.d(TAG, String.format("Injecting string: \"%s\"", str));
 
     for (KeyEvent event : events) {
-      checkNotNull(event, String.format("Failed to get event for character (%c) with key code (%s)",
-          event.getKeyCode(), event.getUnicodeChar()));
+      if (null == event) {
+        throw new NullPointerException("Failed to get key event for string: " + str);
+      }
 
       eventInjected = false;
       for (int attempts = 0; !eventInjected && attempts < 4; attempts++) {
@@ -318,43 +341,32 @@ final class UiControllerImpl implements UiController, Handler.Callback {
   public void loopMainThreadUntilIdle() {
     initialize();
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
+    if (idleEpochUnchanged()) {
+      fastPathCount++;
+      return;
+    }
+    idleEpochValid = false;
     do {
-      EnumSet<IdleCondition> condChecks = EnumSet.noneOf(IdleCondition.class);
+      condChecks.clear();
       if (!asyncTaskMonitor.isIdleNow()) {
-        asyncTaskMonitor.notifyWhenIdle(new SignalingTask<Void>(NO_OP,
-            IdleCondition.ASYNC_TASKS_HAVE_IDLED, generation));
+        asyncTaskMonitor.notifyWhenIdle(
+            armSignal(IdleCondition.ASYNC_TASKS_HAVE_IDLED, generation));
 
         condChecks.add(IdleCondition.ASYNC_TASKS_HAVE_IDLED);
       }
 
       if (!compatIdle()) {
-        compatTaskMonitor.notifyWhenIdle(new SignalingTask<Void>(NO_OP,
-            IdleCondition.COMPAT_TASKS_HAVE_IDLED, generation));
+        compatTaskMonitor.notifyWhenIdle(
+            armSignal(IdleCondition.COMPAT_TASKS_HAVE_IDLED, generation));
         condChecks.add(IdleCondition.COMPAT_TASKS_HAVE_IDLED);
       }
 
       if (!idlingResourceRegistry.allResourcesAreIdle()) {
-        final IdlingPolicy warning = IdlingPolicies.getDynamicIdlingResourceWarningPolicy();
-        final IdlingPolicy error = IdlingPolicies.getDynamicIdlingResourceErrorPolicy();
-        final SignalingTask<Void> idleSignal = new SignalingTask<Void>(NO_OP,
-            IdleCondition.DYNAMIC_TASKS_HAVE_IDLED, generation);
-        idlingResourceRegistry.notifyWhenAllResourcesAreIdle(new IdleNotificationCallback() {
-          @Override
-          public void resourcesStillBusyWarning(List<String> busyResourceNames) {
-            warning.handleTimeout(busyResourceNames, "IdlingResources are still busy!");
-          }
-
-          @Override
-          public void resourcesHaveTimedOut(List<String> busyResourceNames) {
-            error.handleTimeout(busyResourceNames, "IdlingResources have timed out!");
-            controllerHandler.post(idleSignal);
-          }
-
-          @Override
-          public void allResourcesIdle() {
-            controllerHandler.post(idleSignal);
-          }
-        });
+        dynamicResourcesCallback.arm(
+            IdlingPolicies.getDynamicIdlingResourceWarningPolicy(),
+            IdlingPolicies.getDynamicIdlingResourceErrorPolicy(),
+            armSignal(IdleCondition.DYNAMIC_TASKS_HAVE_IDLED, generation));
+        idlingResourceRegistry.notifyWhenAllResourcesAreIdle(dynamicResourcesCallback);
         condChecks.add(IdleCondition.DYNAMIC_TASKS_HAVE_IDLED);
       }
 
@@ -369,7 +381,55 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       }
     } while (!asyncTaskMonitor.isIdleNow() || !compatIdle()
         || !idlingResourceRegistry.allResourcesAreIdle());
+    recordIdleEpoch();
+  }
 
+  /**
+   * Checks whether nothing could have made the app busy since it was last found idle.
+   *
+   * Executor submissions show up in the pools' submitted task counts, which are only exact when
+   * the pools' tasks are counted - otherwise there's no epoch and every sync is a full one.
+   * Transition reporting resources going busy show up in the registry's epoch; only resources
+   * which don't report their transitions are polled. Pending main thread work is caught by
+   * requiring the queue to be in a state loopUntil would return on.
+   */
+  private boolean idleEpochUnchanged() {
+    if (!idleEpochValid) {
+      return false;
+    }
+    QueueState queueState = queueInterrogator.determineQueueState();
+    if (queueState != QueueState.EMPTY && queueState != QueueState.TASK_DUE_LONG) {
+      return false;
+    }
+    if (asyncTaskMonitor.getSubmittedTaskCount() != epochAsyncTaskCount) {
+      return false;
+    }
+    if (null != compatTaskMonitor
+        && compatTaskMonitor.getSubmittedTaskCount() != epochCompatTaskCount) {
+      return false;
+    }
+    return idlingResourceRegistry.idleSince(epochRegistryState);
+  }
+
+  private void recordIdleEpoch() {
+    epochAsyncTaskCount = asyncTaskMonitor.getSubmittedTaskCount();
+    if (null != compatTaskMonitor) {
+      epochCompatTaskCount = compatTaskMonitor.getSubmittedTaskCount();
+    }
+    epochRegistryState = idlingResourceRegistry.getEpoch();
+    // the counts must be taken before re-checking the pools, otherwise a task submitted between
+    // the final idle check and the snapshot would be folded into the epoch unnoticed.
+    idleEpochValid = epochAsyncTaskCount != AsyncTaskPoolMonitor.UNCOUNTED
+        && (null == compatTaskMonitor || epochCompatTaskCount != AsyncTaskPoolMonitor.UNCOUNTED)
+        && asyncTaskMonitor.isIdleNow() && compatIdle();
+  }
+
+  /**
+   * Returns the number of idle syncs which were satisfied by an unchanged idle epoch.
+   */
+  @VisibleForTesting
+  long getFastPathCount() {
+    return fastPathCount;
   }
 
   private boolean compatIdle() {
@@ -387,15 +447,88 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     checkState(!IdleCondition.DELAY_HAS_PAST.isSignaled(conditionSet), "recursion detected!");
 
     checkArgument(millisDelay > 0);
-    controllerHandler.postDelayed(new SignalingTask(NO_OP, IdleCondition.DELAY_HAS_PAST,
-          generation),
+    if (millisDelay <= IdlingPolicies.getDelayedMessageFastForwardMillis()
+        && QueueInterrogator.canTakeMessages()) {
+      fastForwardTo(SystemClock.uptimeMillis() + millisDelay);
+      return;
+    }
+    idleEpochValid = false;
+    controllerHandler.postDelayed(armSignal(IdleCondition.DELAY_HAS_PAST, generation),
         millisDelay);
     loopUntil(IdleCondition.DELAY_HAS_PAST);
     loopMainThreadUntilIdle();
   }
 
+  /**
+   * Dispatches every message due at or before the horizon right away, in the order the queue
+   * would have delivered them. The app is idled after each one so whatever it started settles
+   * the way it would have during a real wait.
+   *
+   * Only messages already queued when the fast forward starts are dispatched ahead of time. The
+   * clock doesn't move, so messages posted meanwhile - a ticker re-posting itself, say - are due
+   * relative to the real time and wait for it like they would after any other interaction.
+   */
+  private void fastForwardTo(long horizon) {
+    loopMainThreadUntilIdle();
+    boolean profilingDispatch = dispatchProfiler.isEnabled();
+    Map<Message, Long> pending = queueInterrogator.getMessagesDueBefore(horizon);
+    while (!pending.isEmpty()) {
+      Message message = queueInterrogator.takeFirstOf(pending);
+      if (null == message) {
+        if (queueInterrogator.determineQueueState() != QueueState.BARRIER) {
+          // whatever is left was removed by the app.
+          return;
+        }
+        // a sync barrier holds back the remaining messages until the traversal has run.
+        loopMainThreadUntilIdle();
+        continue;
+      }
+      idleEpochValid = false;
+      dispatch(message, profilingDispatch);
+      fastForwardedCount++;
+      loopMainThreadUntilIdle();
+    }
+  }
+
+  /**
+   * Returns the total number of delayed messages dispatched ahead of time.
+   */
+  @VisibleForTesting
+  long getFastForwardedCount() {
+    return fastForwardedCount;
+  }
+
+  /**
+   * Loops the main thread until the application is idle and no frame is pending.
+   *
+   * @see UiControllers#loopMainThreadUntilUiSettled(UiController, long)
+   */
+  boolean loopMainThreadUntilUiSettled(long maxMillis) {
+    checkArgument(maxMillis >= 0, "maxMillis must be >= 0");
+    checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
+    initialize();
+    loopMainThreadUntilIdle();
+    if (!choreographerMonitor.isFrameScheduled()) {
+      return false;
+    }
+    idleEpochValid = false;
+    choreographerMonitor.signalWhenSettled(armSignal(IdleCondition.UI_HAS_SETTLED, generation),
+        maxMillis);
+    try {
+      loopUntil(IdleCondition.UI_HAS_SETTLED);
+    } finally {
+      choreographerMonitor.cancel();
+    }
+    loopMainThreadUntilIdle();
+    return true;
+  }
+
   @Override
   public boolean handleMessage(Message msg) {
+    wakeupPending = true;
+    if (msg.what == QUEUE_HAS_IDLED) {
+      return true;
+    }
     if (!IdleCondition.handleMessage(msg, conditionSet, generation)) {
       Log.i(TAG, "Unknown message type: " + msg);
       return false;
@@ -405,7 +538,9 @@ final class UiControllerImpl implements UiController, Handler.Callback {
   }
 
   private void loopUntil(IdleCondition condition) {
-    loopUntil(EnumSet.of(condition));
+    singleCondition.clear();
+    singleCondition.add(condition);
+    loopUntil(singleCondition);
   }
 
   /**
@@ -414,20 +549,20 @@ final class UiControllerImpl implements UiController, Handler.Callback {
    * Once they've been signaled, the conditions are reset and the generation value
    * is incremented.
    *
-   * Signals should only be raised thru SignalingTask instances, and care should be
-   * taken to ensure that the signaling task is created before loopUntil is called.
+   * Signals should only be raised thru armed ConditionSignal instances, and care should be
+   * taken to ensure that the signal is armed before loopUntil is called.
    *
    * Good:
-   * idlingType.runOnIdle(new SignalingTask(NO_OP, IdleCondition.MY_IDLE_CONDITION, generation));
+   * idlingType.runOnIdle(armSignal(IdleCondition.MY_IDLE_CONDITION, generation));
    * loopUntil(IdleCondition.MY_IDLE_CONDITION);
    *
    * Bad:
    * idlingType.runOnIdle(new CustomCallback() {
    *   @Override
    *   public void itsDone() {
-   *     // oh no - The creation of this signaling task is delayed until this method is
+   *     // oh no - arming this signal is delayed until this method is
    *     // called, so it will not have the right value for generation.
-   *     new SignalingTask(NO_OP, IdleCondition.MY_IDLE_CONDITION, generation).run();
+   *     armSignal(IdleCondition.MY_IDLE_CONDITION, generation).run();
    *  }
    * })
    * loopUntil(IdleCondition.MY_IDLE_CONDITION);
@@ -436,36 +571,56 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     checkState(!looping, "Recursive looping detected!");
     looping = true;
     IdlingPolicy masterIdlePolicy = IdlingPolicies.getMasterIdlingPolicy();
+    // conditions only change when a signal is handled and the queue state only matters once it
+    // has quiesced, so we evaluate on those wakeups rather than after every dispatched message.
+    wakeupPending = true;
+    conditionsMet = false;
+    Looper.myQueue().addIdleHandler(queueIdleHandler);
+    boolean profiling = syncProfiler.isRecording();
+    if (profiling) {
+      for (int i = 0; i < conditionSignaledAt.length; i++) {
+        conditionSignaledAt[i] = -1;
+      }
+    }
+    boolean profilingDispatch = dispatchProfiler.isEnabled();
+    int loopCount = 0;
+    int wakeups = 0;
+    long start = SystemClock.uptimeMillis();
     try {
-      int loopCount = 0;
-      long start = SystemClock.uptimeMillis();
       long end = start + masterIdlePolicy.getIdleTimeoutUnit().toMillis(
           masterIdlePolicy.getIdleTimeout());
       while (SystemClock.uptimeMillis() < end) {
-        boolean conditionsMet = true;
-        boolean shouldLogConditionState = loopCount > 0 && loopCount % 100 == 0;
-
-        for (IdleCondition condition : conditions) {
-          if (!condition.isSignaled(conditionSet)) {
-            conditionsMet = false;
-            if (shouldLogConditionState) {
-              Log.w(TAG, "Waiting for: " + condition.name() + " for " + loopCount + " iterations.");
-            } else {
-              break;
+        if (wakeupPending) {
+          wakeupPending = false;
+          wakeups++;
+          conditionsMet = true;
+          boolean shouldLogConditionState = loopCount > 0 && loopCount % 100 == 0;
+          if (profiling) {
+            noteSignaledConditions(conditions);
+          }
+
+          for (IdleCondition condition : IdleCondition.ALL_CONDITIONS) {
+            if (conditions.contains(condition) && !condition.isSignaled(conditionSet)) {
+              conditionsMet = false;
+              if (shouldLogConditionState) {
+                Log.w(TAG, "Waiting for: " + condition.name() + " for " + loopCount
+                    + " iterations.");
+              } else {
+                break;
+              }
             }
           }
-        }
 
-        if (conditionsMet) {
-          QueueState queueState = queueInterrogator.determineQueueState();
-          if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
-            return;
+          if (conditionsMet) {
+            QueueState queueState = queueInterrogator.determineQueueState();
+            if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
+              logLoopStats(loopCount, wakeups, start);
+              return;
+            }
           }
         }
 
-        Message message = queueInterrogator.getNextMessage();
-        message.getTarget().dispatchMessage(message);
-        recycler.recycle(message);
+        dispatch(queueInterrogator.getNextMessage(), profilingDispatch);
         loopCount++;
       }
       List<String> idleConditions = Lists.newArrayList();
@@ -477,42 +632,243 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       masterIdlePolicy.handleTimeout(idleConditions, String.format(
           "Looped for %s iterations over %s %s.", loopCount, masterIdlePolicy.getIdleTimeout(),
           masterIdlePolicy.getIdleTimeoutUnit().name()));
+    } catch (AppNotIdleException anie) {
+      // raised by the master policy above, or by the dynamic resources policy if so configured.
+      dispatchProfiler.logReport("App not idle, main thread time by dispatch target:");
+      throw anie;
+    } catch (IdlingResourceTimeoutException irte) {
+      // raised by the dynamic resources policy, by default, during a dispatch.
+      dispatchProfiler.logReport(
+          "Idling resources timed out, main thread time by dispatch target:");
+      throw irte;
     } finally {
+      Looper.myQueue().removeIdleHandler(queueIdleHandler);
+      controllerHandler.removeMessages(QUEUE_HAS_IDLED);
+      if (profiling) {
+        profileLoop(conditions, start, loopCount, wakeups);
+      }
       looping = false;
       generation++;
-      for (IdleCondition condition : conditions) {
-        condition.reset(conditionSet);
+      for (IdleCondition condition : IdleCondition.ALL_CONDITIONS) {
+        if (conditions.contains(condition)) {
+          condition.reset(conditionSet);
+        }
+      }
+    }
+  }
+
+  private void dispatch(Message message, boolean profilingDispatch) {
+    if (profilingDispatch && message.getTarget() != controllerHandler) {
+      dispatchProfiler.dispatch(message);
+    } else {
+      message.getTarget().dispatchMessage(message);
+    }
+    recycler.recycle(message);
+  }
+
+  private void noteSignaledConditions(EnumSet<IdleCondition> conditions) {
+    long now = SystemClock.uptimeMillis();
+    for (IdleCondition condition : IdleCondition.ALL_CONDITIONS) {
+      if (conditionSignaledAt[condition.ordinal()] < 0 && conditions.contains(condition)
+          && condition.isSignaled(conditionSet)) {
+        conditionSignaledAt[condition.ordinal()] = now;
       }
     }
   }
 
+  /**
+   * Reports how long each condition of the finished loop was waited on. Conditions which never
+   * signaled (the loop timed out) are charged the whole loop.
+   */
+  private void profileLoop(EnumSet<IdleCondition> conditions, long start, int loopCount,
+      int wakeups) {
+    long now = SystemClock.uptimeMillis();
+    long lastSignaledAt = start;
+    for (IdleCondition condition : IdleCondition.ALL_CONDITIONS) {
+      if (conditions.contains(condition)) {
+        long signaledAt = conditionSignaledAt[condition.ordinal()];
+        if (signaledAt < 0) {
+          signaledAt = now;
+        }
+        lastSignaledAt = Math.max(lastSignaledAt, signaledAt);
+        syncProfiler.recordConditionWait(condition, signaledAt - start);
+      }
+    }
+    syncProfiler.recordLoop(loopCount, wakeups, now - start, now - lastSignaledAt);
+  }
+
+  private void logLoopStats(int loopCount, int wakeups, long start) {
+    iterationCount += loopCount;
+    wakeupCount += wakeups;
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, String.format("Idle after %s iterations, %s wakeups in %sms.", loopCount,
+          wakeups, SystemClock.uptimeMillis() - start));
+    }
+  }
+
+  /**
+   * Returns the total number of messages dispatched by this controller while looping.
+   */
+  @VisibleForTesting
+  long getIterationCount() {
+    return iterationCount;
+  }
+
+  /**
+   * Returns the total number of times the idle conditions were evaluated while looping.
+   */
+  @VisibleForTesting
+  long getWakeupCount() {
+    return wakeupCount;
+  }
 
   private void initialize() {
     if (controllerHandler == null) {
       controllerHandler = new Handler(this);
+      choreographerMonitor = new ChoreographerMonitor(controllerHandler);
     }
   }
 
   /**
-   * Encapsulates posting a signal message to update the conditions set after a task has
-   * executed.
+   * Returns the signal for the given condition, armed with the given generation.
+   *
+   * Signals are reused across passes. If the last one handed out was never raised (its monitor
+   * was cancelled before it fired) a fresh one replaces it, so a late firing of the old one can
+   * only ever carry a stale generation.
    */
-  private class SignalingTask<T> extends FutureTask<T> {
+  private ConditionSignal armSignal(IdleCondition condition, int myGeneration) {
+    ConditionSignal signal = signals[condition.ordinal()];
+    if (null == signal || !signal.arm(myGeneration)) {
+      signal = new ConditionSignal(condition);
+      signal.arm(myGeneration);
+      signals[condition.ordinal()] = signal;
+    }
+    return signal;
+  }
+
+  /**
+   * Encapsulates posting a signal message to update the conditions set once run.
+   */
+  private class ConditionSignal implements Runnable {
+    private static final int DISARMED = -1;
 
     private final IdleCondition condition;
-    private final int myGeneration;
+    private final AtomicInteger armedGeneration = new AtomicInteger(DISARMED);
 
-    public SignalingTask(Callable<T> callable, IdleCondition condition, int myGeneration) {
-      super(callable);
+    private ConditionSignal(IdleCondition condition) {
       this.condition = checkNotNull(condition);
+    }
+
+    private boolean arm(int myGeneration) {
+      return armedGeneration.compareAndSet(DISARMED, myGeneration);
+    }
+
+    @Override
+    public void run() {
+      int myGeneration = armedGeneration.getAndSet(DISARMED);
+      if (DISARMED != myGeneration) {
+        controllerHandler.sendMessage(condition.createSignal(controllerHandler, myGeneration));
+      }
+    }
+  }
+
+  /**
+   * Injects a single event on the injection thread and signals once it is done.
+   */
+  private class InjectionTask implements Runnable {
+    private KeyEvent keyEvent;
+    private MotionEvent motionEvent;
+    private IdleCondition condition;
+    private int myGeneration;
+    // written by the injection thread before the signal is sent, read by main after receiving it.
+    private boolean result;
+    private Throwable failure;
+    private volatile boolean done = true;
+
+    private void arm(KeyEvent keyEvent, MotionEvent motionEvent, IdleCondition condition,
+        int myGeneration) {
+      this.keyEvent = keyEvent;
+      this.motionEvent = motionEvent;
+      this.condition = condition;
       this.myGeneration = myGeneration;
+      this.result = false;
+      this.failure = null;
+      this.done = false;
+    }
+
+    private boolean isDone() {
+      return done;
     }
 
     @Override
-    protected void done() {
-      controllerHandler.sendMessage(condition.createSignal(controllerHandler, myGeneration));
+    public void run() {
+      try {
+        if (null != keyEvent) {
+          result = eventInjector.injectKeyEvent(keyEvent);
+        } else {
+          result = eventInjector.injectMotionEvent(motionEvent);
+        }
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        keyEvent = null;
+        motionEvent = null;
+        done = true;
+        controllerHandler.sendMessage(condition.createSignal(controllerHandler, myGeneration));
+      }
     }
+  }
 
+  /**
+   * Relays registry notifications to the dynamic resources signal of the current pass.
+   */
+  private class DynamicResourcesCallback implements IdleNotificationCallback {
+    private IdlingPolicy warning;
+    private IdlingPolicy error;
+    private Runnable idleSignal;
+
+    private void arm(IdlingPolicy warning, IdlingPolicy error, Runnable idleSignal) {
+      this.warning = warning;
+      this.error = error;
+      this.idleSignal = idleSignal;
+    }
+
+    @Override
+    public void resourcesStillBusyWarning(List<String> busyResourceNames) {
+      warning.handleTimeout(busyResourceNames, "IdlingResources are still busy!");
+    }
+
+    @Override
+    public void resourcesHaveTimedOut(List<String> busyResourceNames) {
+      error.handleTimeout(busyResourceNames, "IdlingResources have timed out!");
+      controllerHandler.post(idleSignal);
+    }
+
+    @Override
+    public void allResourcesIdle() {
+      controllerHandler.post(idleSignal);
+    }
+  }
+
+  /**
+   * Wakes loopUntil when the main queue is about to block with all conditions signaled.
+   *
+   * MessageQueue.next() runs idle handlers before parking the thread, so this is our only
+   * chance to notice that nothing is due. While conditions are still outstanding we stay quiet -
+   * their signals will wake us - otherwise we'd spin on our own wakeup messages.
+   */
+  private class QueueIdleHandler implements IdleHandler {
+    @Override
+    public boolean queueIdle() {
+      if (conditionsMet && !controllerHandler.hasMessages(QUEUE_HAS_IDLED)) {
+        QueueState queueState = queueInterrogator.determineQueueState();
+        if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
+          controllerHandler.sendMessageAtFrontOfQueue(
+              controllerHandler.obtainMessage(QUEUE_HAS_IDLED));
+        }
+      }
+      return true;
+    }
   }
 
 }
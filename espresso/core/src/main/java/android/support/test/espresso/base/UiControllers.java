@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import android.support.test.espresso.UiController;
+
+/**
+ * Static utility methods pertaining to {@link UiController} instances.
+ */
+public final class UiControllers {
+
+  private UiControllers() {}
+
+  /**
+   * Loops the main thread until the application is idle and its UI has settled: no frame is
+   * pending, which means no layout, animation or scroll is in progress.
+   *
+   * Use this instead of repeatedly looping for fixed periods while waiting for the UI to finish
+   * moving. If the UI is still moving after maxMillis, control returns anyway. Only Espresso's own
+   * {@link UiController} can tell whether a frame is pending - any other is just looped until
+   * idle, and the UI is treated as already settled.
+   *
+   * @param uiController the controller to loop the main thread with
+   * @param maxMillis the longest time to wait for the UI to settle
+   * @return true if the UI was moving and has been waited on, false if it was already settled
+   *         once the application went idle (callers waiting for something other than the UI, such
+   *         as window focus, should wait by other means then)
+   */
+  public static boolean loopMainThreadUntilUiSettled(UiController uiController, long maxMillis) {
+    if (uiController instanceof UiControllerImpl) {
+      return ((UiControllerImpl) uiController).loopMainThreadUntilUiSettled(maxMillis);
+    }
+    uiController.loopMainThreadUntilIdle();
+    return false;
+  }
+}
@@ -29,6 +29,7 @@ import java.lang.reflect.Method;
 class UncheckedRecycler implements Recycler {
 
   private static final String UNCHECKED_RECYCLE_METHOD_NAME = "recycleUnchecked";
+  private static final Object[] NO_ARGS = new Object[0];
   private final Method uncheckedRecycle;
 
   UncheckedRecycler() {
@@ -42,7 +43,7 @@ class UncheckedRecycler implements Recycler {
 
   public void recycle(Message message) {
     try {
-      uncheckedRecycle.invoke(message);
+      uncheckedRecycle.invoke(message, NO_ARGS);
     } catch (IllegalAccessException iae) {
       throw propagate(iae);
     } catch (InvocationTargetException ite) {
@@ -16,29 +16,44 @@
 
 package android.support.test.espresso.base;
 
+import static android.support.test.espresso.matcher.ViewMatchers.isDescendantOfA;
 import static android.support.test.espresso.util.TreeIterables.breadthFirstViewTraversal;
+import static android.support.test.espresso.util.TreeIterables.visitBreadthFirst;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static org.hamcrest.Matchers.allOf;
 
 import android.support.test.espresso.AmbiguousViewMatcherException;
 import android.support.test.espresso.NoMatchingViewException;
 import android.support.test.espresso.ViewFinder;
+import android.support.test.espresso.matcher.MatchMemo;
 import android.support.test.espresso.matcher.ViewMatchers;
+import android.support.test.espresso.util.TreeIterables.ViewVisitor;
+import android.support.test.espresso.util.TreeIterables.VisitResult;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import android.os.Looper;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
 
 import org.hamcrest.Matcher;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -50,40 +65,113 @@ import javax.inject.Provider;
 // hierarchy, average matcher execution time, warn when matchers take too long to execute, etc.
 public final class ViewFinderImpl implements ViewFinder {
 
+  /**
+   * The match index of lookups which require exactly one view to match.
+   */
+  public static final int UNIQUE_MATCH = -1;
+
   private final Matcher<View> viewMatcher;
   private final Provider<View> rootViewProvider;
+  private final ViewHierarchyIndex hierarchyIndex;
+  private final AtomicReference<Matcher<View>> scopeMatcherRef;
+  private final AtomicInteger matchIndexRef;
+  private final ViewLookupStats lookupStats;
+  private final ParallelViewMatcher parallelMatcher;
 
   @Inject
-  ViewFinderImpl(Matcher<View> viewMatcher, Provider<View> rootViewProvider) {
+  ViewFinderImpl(Matcher<View> viewMatcher, Provider<View> rootViewProvider,
+      ViewHierarchyIndex hierarchyIndex, AtomicReference<Matcher<View>> scopeMatcherRef,
+      AtomicInteger matchIndexRef, ViewLookupStats lookupStats,
+      ParallelViewMatcher parallelMatcher) {
     this.viewMatcher = viewMatcher;
     this.rootViewProvider = rootViewProvider;
+    this.hierarchyIndex = hierarchyIndex;
+    this.scopeMatcherRef = scopeMatcherRef;
+    this.matchIndexRef = matchIndexRef;
+    this.lookupStats = lookupStats;
+    this.parallelMatcher = parallelMatcher;
   }
 
   @Override
   public View getView() throws AmbiguousViewMatcherException, NoMatchingViewException {
     checkMainThread();
-    final Predicate<View> matcherPredicate = new MatcherPredicateAdapter<View>(
-        checkNotNull(viewMatcher));
+    // the hierarchy can't change while it's searched, structural matchers may reuse matches.
+    MatchMemo memo = MatchMemo.open();
+    try {
+      return findView();
+    } finally {
+      memo.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private View findView() {
+    Matcher<View> queryMatcher = checkNotNull(viewMatcher);
+    Matcher<View> scopeMatcher = scopeMatcherRef.get();
+    Matcher<View> innerMatcher = viewMatcher;
+    if (null != scopeMatcher) {
+      queryMatcher = allOf(viewMatcher, isDescendantOfA(scopeMatcher));
+    } else {
+      // look for isDescendantOfA(..) views in the subtrees of their ancestors only.
+      MatcherPlanner.Scope scope = MatcherPlanner.scopeOf(viewMatcher);
+      if (null != scope) {
+        scopeMatcher = scope.scopeMatcher;
+        innerMatcher = scope.innerMatcher;
+      }
+    }
+    // matches like queryMatcher inside the scope, if any. queryMatcher describes failures.
+    Matcher<View> plannedMatcher = MatcherPlanner.plan(innerMatcher);
+    final Predicate<View> matcherPredicate = new MatcherPredicateAdapter<View>(plannedMatcher);
 
     View root = rootViewProvider.get();
-    Iterator<View> matchedViewIterator = Iterables.filter(
-        breadthFirstViewTraversal(root),
-        matcherPredicate).iterator();
+    Iterable<View> candidates;
+    List<View> indexedViews = hierarchyIndex.lookUp(root, plannedMatcher);
+    if (null != indexedViews) {
+      // every view the matcher can match is among them.
+      candidates = null == scopeMatcher
+          ? indexedViews : inScopeOrder(root, indexedViews, MatcherPlanner.plan(scopeMatcher));
+    } else if (null == scopeMatcher) {
+      // the views matched on other threads are matched again, live, like indexed views.
+      List<View> parallelMatches = parallelMatcher.matchAll(root, plannedMatcher);
+      candidates = null == parallelMatches ? breadthFirstViewTraversal(root) : parallelMatches;
+    } else {
+      candidates = viewsInside(root, MatcherPlanner.plan(scopeMatcher));
+    }
+    CountingPredicate<View> countingPredicate = new CountingPredicate<View>(matcherPredicate);
+    Iterator<View> candidateIterator = candidates.iterator();
+    Iterator<View> matchedViewIterator = Iterators.filter(candidateIterator, countingPredicate);
 
     View matchedView = null;
-
-    while (matchedViewIterator.hasNext()) {
-      if (matchedView != null) {
-        // Ambiguous!
-        throw new AmbiguousViewMatcherException.Builder()
-            .withViewMatcher(viewMatcher)
-            .withRootView(root)
-            .withView1(matchedView)
-            .withView2(matchedViewIterator.next())
-            .withOtherAmbiguousViews(Iterators.toArray(matchedViewIterator, View.class))
-            .build();
-      } else {
-        matchedView = matchedViewIterator.next();
+    int matchIndex = matchIndexRef.get();
+    boolean stopped = false;
+    try {
+      if (UNIQUE_MATCH != matchIndex) {
+        // the caller doesn't mind other matches, don't look for them.
+        matchedView = Iterators.get(matchedViewIterator, matchIndex, null);
+        stopped = null != matchedView;
+      }
+      while (UNIQUE_MATCH == matchIndex && matchedViewIterator.hasNext()) {
+        if (matchedView != null) {
+          // Ambiguous!
+          throw new AmbiguousViewMatcherException.Builder()
+              .withViewMatcher(queryMatcher)
+              .withRootView(root)
+              .withView1(matchedView)
+              .withView2(matchedViewIterator.next())
+              .withOtherAmbiguousViews(Iterators.toArray(matchedViewIterator, View.class))
+              .build();
+        } else {
+          matchedView = matchedViewIterator.next();
+        }
+      }
+    } finally {
+      if (lookupStats.isEnabled()) {
+        int skipped = 0;
+        if (stopped && candidates instanceof Collection) {
+          // every candidate taken so far was matched. What's left of a traversal isn't walked.
+          skipped = ((Collection<View>) candidates).size() - countingPredicate.applied;
+        }
+        lookupStats.record(countingPredicate.applied, skipped, stopped);
       }
     }
     if (null == matchedView) {
@@ -93,7 +181,7 @@ public final class ViewFinderImpl implements ViewFinder {
           Iterables.filter(breadthFirstViewTraversal(root), adapterViewPredicate).iterator());
       if (adapterViews.isEmpty()) {
         throw new NoMatchingViewException.Builder()
-            .withViewMatcher(viewMatcher)
+            .withViewMatcher(queryMatcher)
             .withRootView(root)
             .build();
       }
@@ -102,7 +190,7 @@ public final class ViewFinderImpl implements ViewFinder {
         + "may need to use Espresso.onData to load it from one of the following AdapterViews:%s"
         , Joiner.on("\n- ").join(adapterViews));
       throw new NoMatchingViewException.Builder()
-          .withViewMatcher(viewMatcher)
+          .withViewMatcher(queryMatcher)
           .withRootView(root)
           .withAdapterViews(adapterViews)
           .withAdapterViewWarning(Optional.of(warning))
@@ -112,12 +200,127 @@ public final class ViewFinderImpl implements ViewFinder {
     }
   }
 
+  /**
+   * Returns the views below the views matching the scope matcher, without running the matcher on
+   * any view below a match: views in nested matches are inside the outermost one already.
+   */
+  private static Iterable<View> viewsInside(View root, final Matcher<View> scopeMatcher) {
+    final List<View> scopeViews = Lists.newArrayList();
+    visitBreadthFirst(root, new ViewVisitor() {
+      @Override
+      public VisitResult visit(View view, int distanceFromRoot) {
+        if (scopeMatcher.matches(view)) {
+          scopeViews.add(view);
+          return VisitResult.SKIP_CHILDREN;
+        }
+        return VisitResult.CONTINUE;
+      }
+    });
+    return Iterables.concat(Iterables.transform(scopeViews, DESCENDANTS));
+  }
+
+  /**
+   * Returns the given views, which must be in breadth first order of the hierarchy, that are below
+   * views matching the scope matcher - in the order {@link #viewsInside} returns them. They are
+   * grouped by their outermost matching ancestor, and the groups ordered like those ancestors.
+   */
+  private static List<View> inScopeOrder(View root, List<View> views,
+      Matcher<View> scopeMatcher) {
+    Map<View, List<View>> viewsByScope = Maps.newHashMap();
+    List<View> scopeViews = Lists.newArrayList();
+    for (View view : views) {
+      View scopeView = null;
+      View child = view;
+      while (child != root && child.getParent() instanceof View) {
+        child = (View) child.getParent();
+        if (scopeMatcher.matches(child)) {
+          scopeView = child;
+        }
+      }
+      if (null != scopeView) {
+        List<View> inScope = viewsByScope.get(scopeView);
+        if (null == inScope) {
+          inScope = Lists.newArrayList();
+          viewsByScope.put(scopeView, inScope);
+          scopeViews.add(scopeView);
+        }
+        // the breadth first order of a subtree is the order its views have in the whole hierarchy.
+        inScope.add(view);
+      }
+    }
+    Collections.sort(scopeViews, BREADTH_FIRST_ORDER);
+    List<View> ordered = Lists.newArrayListWithCapacity(views.size());
+    for (View scopeView : scopeViews) {
+      ordered.addAll(viewsByScope.get(scopeView));
+    }
+    return ordered;
+  }
+
+  /**
+   * Orders the views of a hierarchy like a breadth first traversal visits them: by depth, then by
+   * the positions of their ancestors and themselves among their siblings.
+   */
+  private static final Comparator<View> BREADTH_FIRST_ORDER = new Comparator<View>() {
+    @Override
+    public int compare(View first, View second) {
+      List<Integer> firstPath = positionsOf(first);
+      List<Integer> secondPath = positionsOf(second);
+      if (firstPath.size() != secondPath.size()) {
+        return firstPath.size() < secondPath.size() ? -1 : 1;
+      }
+      for (int i = 0; i < firstPath.size(); i++) {
+        int order = firstPath.get(i).compareTo(secondPath.get(i));
+        if (order != 0) {
+          return order;
+        }
+      }
+      return 0;
+    }
+  };
+
+  /**
+   * Returns the positions among their siblings of the view's ancestors and the view, top down.
+   */
+  private static List<Integer> positionsOf(View view) {
+    List<Integer> positions = Lists.newArrayList();
+    View child = view;
+    while (child.getParent() instanceof ViewGroup) {
+      ViewGroup parent = (ViewGroup) child.getParent();
+      positions.add(parent.indexOfChild(child));
+      child = parent;
+    }
+    return Lists.reverse(positions);
+  }
+
+  private static final Function<View, Iterable<View>> DESCENDANTS =
+      new Function<View, Iterable<View>>() {
+        @Override
+        public Iterable<View> apply(View view) {
+          return Iterables.skip(breadthFirstViewTraversal(view), 1);
+        }
+      };
+
   private void checkMainThread() {
     checkState(Thread.currentThread().equals(Looper.getMainLooper().getThread()),
         "Executing a query on the view hierarchy outside of the main thread (on: %s)",
         Thread.currentThread().getName());
   }
 
+  private static final class CountingPredicate<T> implements Predicate<T> {
+    private final Predicate<T> delegate;
+    private int applied;
+
+    private CountingPredicate(Predicate<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean apply(T input) {
+      applied++;
+      return delegate.apply(input);
+    }
+  }
+
   private static class MatcherPredicateAdapter<T> implements Predicate<T> {
     private final Matcher<? super T> matcher;
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import static android.support.test.espresso.util.TreeIterables.visitBreadthFirst;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.test.espresso.matcher.IndexableViewMatcher;
+import android.support.test.espresso.matcher.IndexableViewMatcher.IndexType;
+import android.support.test.espresso.util.TreeIterables.ViewVisitor;
+import android.support.test.espresso.util.TreeIterables.VisitResult;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.view.View;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnGlobalLayoutListener;
+import android.view.ViewTreeObserver.OnPreDrawListener;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * An optional index of the views of a hierarchy by id and by text, used to find the views an
+ * {@link IndexableViewMatcher} may match without matching every view of the hierarchy.
+ *
+ * The index covers the hierarchy of the last root looked up in, provided it is attached to a
+ * window. Texts are indexed on the first lookup by text, and any layout or draw pass of the window
+ * invalidates the index, as any change to the hierarchy or to the text of a view causes one. Ids
+ * can be changed without either, so they aren't indexed: every lookup by id compares the id of
+ * every view instead, which still spares running the whole matcher on them.
+ *
+ * Disabled by default. Only accessed on the main thread, apart from {@link #setEnabled}.
+ */
+@Singleton
+public final class ViewHierarchyIndex {
+
+  private volatile boolean enabled = false;
+  // only accessed on main thread.
+  private RootIndex rootIndex;
+
+  @Inject
+  public ViewHierarchyIndex() { }
+
+  /**
+   * Turns the index on or off. This method can be called from any thread.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the views of the hierarchy, in breadth first order, which may match the given
+   * matcher, or null if the matcher can't use the index and every view has to be matched.
+   */
+  List<View> lookUp(View root, Matcher<View> viewMatcher) {
+    checkNotNull(root);
+    if (!enabled) {
+      discard();
+      return null;
+    }
+    if (!(viewMatcher instanceof IndexableViewMatcher)) {
+      return null;
+    }
+    IndexableViewMatcher indexable = (IndexableViewMatcher) viewMatcher;
+    if (indexable.getIndexType() == IndexType.ID) {
+      return viewsWithId(root, (Integer) indexable.getIndexKey());
+    }
+    if (null == root.getWindowToken()) {
+      // a detached hierarchy isn't laid out, so changes to it can't be noticed.
+      return null;
+    }
+    if (null != rootIndex && !rootIndex.isCurrentFor(root)) {
+      discard();
+    }
+    if (null == rootIndex) {
+      rootIndex = new RootIndex(root);
+    }
+    List<View> views = rootIndex.viewsWithText((String) indexable.getIndexKey());
+    for (int i = 0; i < views.size(); i++) {
+      if (!isInHierarchy(root, views.get(i))) {
+        // removed without its window being laid out, the index can't be trusted.
+        discard();
+        return null;
+      }
+    }
+    return views;
+  }
+
+  private static List<View> viewsWithId(View root, final int id) {
+    final List<View> views = Lists.newArrayListWithCapacity(1);
+    visitBreadthFirst(root, new ViewVisitor() {
+      @Override
+      public VisitResult visit(View view, int distanceFromRoot) {
+        if (view.getId() == id) {
+          views.add(view);
+        }
+        return VisitResult.CONTINUE;
+      }
+    });
+    return views;
+  }
+
+  private void discard() {
+    if (null != rootIndex) {
+      rootIndex.stopListening();
+      rootIndex = null;
+    }
+  }
+
+  private static boolean isInHierarchy(View root, View view) {
+    if (view == root) {
+      return true;
+    }
+    for (ViewParent parent = view.getParent(); parent != null; parent = parent.getParent()) {
+      if (parent == root) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The index of one hierarchy, valid until its window is next laid out or drawn.
+   */
+  private final class RootIndex implements OnGlobalLayoutListener, OnPreDrawListener {
+    private final View root;
+    private final ViewTreeObserver observer;
+    private Map<String, List<View>> viewsByText;
+
+    private RootIndex(View root) {
+      this.root = root;
+      this.observer = root.getViewTreeObserver();
+      observer.addOnGlobalLayoutListener(this);
+      observer.addOnPreDrawListener(this);
+    }
+
+    private boolean isCurrentFor(View root) {
+      return this.root == root && observer.isAlive() && root.getViewTreeObserver() == observer;
+    }
+
+    private List<View> viewsWithText(String text) {
+      if (null == viewsByText) {
+        final Map<String, List<View>> index = Maps.newHashMap();
+        visitBreadthFirst(root, new ViewVisitor() {
+          @Override
+          public VisitResult visit(View view, int distanceFromRoot) {
+            if (view instanceof TextView) {
+              String viewText = ((TextView) view).getText().toString();
+              List<View> views = index.get(viewText);
+              if (null == views) {
+                views = Lists.newArrayListWithCapacity(1);
+                index.put(viewText, views);
+              }
+              views.add(view);
+            }
+            return VisitResult.CONTINUE;
+          }
+        });
+        viewsByText = index;
+      }
+      List<View> views = viewsByText.get(text);
+      return null == views ? Collections.<View>emptyList() : views;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void stopListening() {
+      if (observer.isAlive()) {
+        observer.removeGlobalOnLayoutListener(this);
+        observer.removeOnPreDrawListener(this);
+      }
+    }
+
+    @Override
+    public void onGlobalLayout() {
+      invalidate();
+    }
+
+    @Override
+    public boolean onPreDraw() {
+      invalidate();
+      return true;
+    }
+
+    private void invalidate() {
+      if (rootIndex == this) {
+        discard();
+      } else {
+        stopListening();
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.base;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Counts the views {@link ViewFinderImpl} matches while looking views up, and how many views
+ * lookups which stop at their match visited before stopping.
+ *
+ * Lookups only stop early when the interaction asks for the first, or n-th, match rather than a
+ * unique one. The views such a lookup skipped are only counted when its candidates were known up
+ * front, like indexed views: what's left of a traversal of the hierarchy isn't walked to be
+ * counted, so counting doesn't change the work a lookup does. Counting is off by default.
+ */
+@Singleton
+public final class ViewLookupStats {
+
+  private volatile boolean enabled = false;
+  // guarded by this. Lookups are recorded on the main thread, reports are read from anywhere.
+  private int lookups;
+  private int stoppedLookups;
+  private long viewsMatched;
+  private long viewsMatchedByStoppedLookups;
+  private long viewsSkipped;
+
+  @Inject
+  public ViewLookupStats() { }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Discards everything recorded so far.
+   */
+  public synchronized void reset() {
+    lookups = 0;
+    stoppedLookups = 0;
+    viewsMatched = 0;
+    viewsMatchedByStoppedLookups = 0;
+    viewsSkipped = 0;
+  }
+
+  public synchronized String getReport() {
+    return String.format("View lookups: %s (%s stopped at their match after matching %s views), "
+        + "views matched: %s, indexed views skipped: %s", lookups, stoppedLookups,
+        viewsMatchedByStoppedLookups, viewsMatched, viewsSkipped);
+  }
+
+  synchronized int getLookupCount() {
+    return lookups;
+  }
+
+  synchronized int getStoppedLookupCount() {
+    return stoppedLookups;
+  }
+
+  synchronized long getViewsMatched() {
+    return viewsMatched;
+  }
+
+  synchronized long getViewsMatchedByStoppedLookups() {
+    return viewsMatchedByStoppedLookups;
+  }
+
+  synchronized long getViewsSkipped() {
+    return viewsSkipped;
+  }
+
+  /**
+   * Records a lookup which ran its matcher on the given number of views.
+   *
+   * @param viewsSkipped the candidates left when the lookup stopped at its match, 0 if it didn't
+   *     or they weren't known.
+   */
+  synchronized void record(int viewsMatched, int viewsSkipped, boolean stopped) {
+    lookups++;
+    if (stopped) {
+      stoppedLookups++;
+      viewsMatchedByStoppedLookups += viewsMatched;
+    }
+    this.viewsMatched += viewsMatched;
+    this.viewsSkipped += viewsSkipped;
+  }
+}
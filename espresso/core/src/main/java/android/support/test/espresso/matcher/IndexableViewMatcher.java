@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Implemented by view matchers which only match views with a given id or text, so the views they
+ * may match can be looked up in an index of the hierarchy rather than found by matching every
+ * view.
+ *
+ * A matcher must never match a view whose id - or text - differs from its key. Views looked up
+ * in the index are still matched against the matcher itself.
+ */
+public interface IndexableViewMatcher {
+
+  /**
+   * The property of a view compared with the key of a matcher.
+   */
+  enum IndexType {
+    /** The {@link View#getId() id} of a view, keys are Integers. */
+    ID,
+    /** The text of a {@link TextView}, keys are Strings. */
+    TEXT
+  }
+
+  IndexType getIndexType();
+
+  /**
+   * Returns the value the property of any view matched must have.
+   */
+  Object getIndexKey();
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import org.hamcrest.Matcher;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Remembers what matchers answered for views during a single lookup of the view hierarchy, so
+ * the structural matchers of {@link ViewMatchers} - hasDescendant, hasSibling, withParent,
+ * withChild and isDescendantOfA - don't match the same views again for every candidate. With a
+ * memo open, hasDescendant and isDescendantOfA also reuse the answers for the children, or the
+ * parent, of a view instead of walking the whole subtree, or every ancestor, again.
+ *
+ * The display matchers - isDisplayed, isDisplayingAtLeast and withEffectiveVisibility - read
+ * the bounds of the screen, and the visibility of a view's ancestors, from the memo as well.
+ *
+ * A memo is only seen by the thread which opened it, and must be closed before the hierarchy may
+ * change: the matchers of structural matchers are assumed to answer the same for a view as long
+ * as the hierarchy doesn't change. Memos opened while another is open share what it remembers.
+ */
+public final class MatchMemo {
+
+  private static final ThreadLocal<MatchMemo> CURRENT = new ThreadLocal<MatchMemo>();
+
+  private final MatchMemo previous;
+  // holds what's remembered, this memo or the outermost memo open on the thread.
+  private final MatchMemo outermost;
+  // created for the first matcher remembered, most lookups don't use structural matchers.
+  private Map<Matcher<?>, Map<Object, Boolean>> results;
+  private ViewGeometry geometry;
+
+  private MatchMemo(MatchMemo previous) {
+    this.previous = previous;
+    this.outermost = null == previous ? this : previous.outermost;
+  }
+
+  /**
+   * Starts remembering matches on the current thread, until the returned memo is closed.
+   */
+  public static MatchMemo open() {
+    MatchMemo memo = new MatchMemo(CURRENT.get());
+    CURRENT.set(memo);
+    return memo;
+  }
+
+  /**
+   * Forgets the matches remembered since this memo was opened.
+   */
+  public void close() {
+    checkState(CURRENT.get() == this, "Memos must be closed in reverse order of opening.");
+    if (null == previous) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Whether a memo is open on the current thread.
+   */
+  static boolean isOpen() {
+    return null != CURRENT.get();
+  }
+
+  /**
+   * Returns the memo open on the current thread, or null.
+   */
+  static MatchMemo current() {
+    return CURRENT.get();
+  }
+
+  ViewGeometry geometry() {
+    if (null == outermost.geometry) {
+      outermost.geometry = ViewGeometry.remembering();
+    }
+    return outermost.geometry;
+  }
+
+  /**
+   * Matches the item, or answers as the matcher did when it was last given the item while the
+   * memo of the current thread was open.
+   */
+  static boolean matches(Matcher<?> matcher, Object item) {
+    MatchMemo memo = CURRENT.get();
+    return null == memo ? matcher.matches(item)
+        : memo.outermost.remembered(checkNotNull(matcher), item);
+  }
+
+  private boolean remembered(Matcher<?> matcher, Object item) {
+    if (null == results) {
+      results = new IdentityHashMap<Matcher<?>, Map<Object, Boolean>>();
+    }
+    Map<Object, Boolean> matcherResults = results.get(matcher);
+    if (null == matcherResults) {
+      matcherResults = new IdentityHashMap<Object, Boolean>();
+      results.put(matcher, matcherResults);
+    }
+    Boolean result = matcherResults.get(item);
+    if (null == result) {
+      // may remember other matches, structural matchers recurse through the memo.
+      result = matcher.matches(item);
+      matcherResults.put(item, result);
+    }
+    return result;
+  }
+}
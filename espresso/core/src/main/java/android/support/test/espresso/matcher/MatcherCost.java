@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tells Espresso how expensive a view matcher is to run and whether it rejects most views, so the
+ * matchers combined by {@code allOf} and {@code anyOf} can be run cheapest and most decisive
+ * first when searching the view hierarchy. Descriptions keep the order the matchers were given in.
+ *
+ * Annotates either a matcher class or the method creating an anonymous matcher. Matchers which
+ * aren't annotated are considered {@link Cost#MODERATE} and not selective.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface MatcherCost {
+
+  /**
+   * How much work matching a single view takes.
+   */
+  enum Cost {
+    /** Reads a field or two of the view. */
+    CHEAP,
+    /** Converts or compares values, or looks at a few related views. */
+    MODERATE,
+    /** Computes geometry, or walks many other views. */
+    EXPENSIVE
+  }
+
+  Cost value();
+
+  /**
+   * Whether only a few views of a typical hierarchy match, e.g. the views with a given id.
+   */
+  boolean selective() default false;
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+/**
+ * Implemented by view matchers which only match views inside the views matched by a scope
+ * matcher, like {@link ViewMatchers#isDescendantOfA}, so the views they may match can be searched
+ * for in the subtrees of the scope's views rather than in the whole hierarchy.
+ *
+ * A matcher must never match a view none of whose ancestors match its scope matcher.
+ */
+public interface ScopedViewMatcher {
+
+  /**
+   * Returns the matcher of the views whose descendants may be matched.
+   */
+  Matcher<View> getScopeMatcher();
+}
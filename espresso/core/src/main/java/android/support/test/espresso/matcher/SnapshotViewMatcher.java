@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+/**
+ * Implemented by view matchers which can match a {@link ViewSnapshot} instead of a live view, so
+ * the views of a large hierarchy can be matched on other threads than the main thread.
+ *
+ * A matcher must match a snapshot if and only if it matches the view the snapshot was taken of.
+ * Snapshots are matched concurrently: the matcher must not change any state while matching.
+ */
+public interface SnapshotViewMatcher {
+
+  boolean matchesSnapshot(ViewSnapshot view);
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.WindowManager;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Reads the geometry and visibility display matchers need from views. While a {@link MatchMemo}
+ * is open, the screen bounds are computed once per context, and the effective visibility of a
+ * view is derived from its parent's instead of from all of its ancestors'.
+ */
+final class ViewGeometry {
+
+  static final int VISIBLE = 0;
+  static final int INVISIBLE_FLAG = 1;
+  static final int GONE_FLAG = 2;
+
+  private final boolean remembering;
+  // the hierarchy is matched top-down, so the parent of a view is usually known already.
+  private Map<View, Integer> visibilityFlags;
+  private Map<Context, Rect> screens;
+  // matchers combined by allOf often read the visible part of the same view one after the other.
+  private final Rect visibleRect = new Rect();
+  private View visibleRectView;
+  private boolean visibleAtAll;
+
+  private ViewGeometry(boolean remembering) {
+    this.remembering = remembering;
+  }
+
+  /**
+   * Returns the geometry of the current lookup, or geometry which remembers nothing.
+   */
+  static ViewGeometry current() {
+    MatchMemo memo = MatchMemo.current();
+    return null == memo ? new ViewGeometry(false) : memo.geometry();
+  }
+
+  static ViewGeometry remembering() {
+    return new ViewGeometry(true);
+  }
+
+  /**
+   * Returns {@link #VISIBLE}, or which of {@link #INVISIBLE_FLAG} and {@link #GONE_FLAG} the
+   * visibility of the view or of any of its ancestors has.
+   */
+  int getVisibilityFlags(View view) {
+    if (!remembering) {
+      int flags = flagsOf(view);
+      for (ViewParent parent = view.getParent(); parent instanceof View;
+          parent = parent.getParent()) {
+        flags |= flagsOf((View) parent);
+      }
+      return flags;
+    }
+    if (null == visibilityFlags) {
+      visibilityFlags = new IdentityHashMap<View, Integer>();
+    }
+    Integer flags = visibilityFlags.get(view);
+    if (null == flags) {
+      ViewParent parent = view.getParent();
+      flags = flagsOf(view) | (parent instanceof View ? getVisibilityFlags((View) parent) : 0);
+      visibilityFlags.put(view, flags);
+    }
+    return flags;
+  }
+
+  /**
+   * Returns the part of the view visible on screen, in screen coordinates, or null if none is.
+   * The rect is only valid until the next call.
+   */
+  Rect getGlobalVisibleRect(View view) {
+    if (!remembering || view != visibleRectView) {
+      visibleAtAll = view.getGlobalVisibleRect(visibleRect);
+      visibleRectView = remembering ? view : null;
+    }
+    return visibleAtAll ? visibleRect : null;
+  }
+
+  /**
+   * Returns the bounds of the screen the context's views are displayed on, without the status bar
+   * and action bar. The rect must not be modified.
+   */
+  Rect getScreenWithoutStatusBarActionBar(Context context) {
+    Rect screen = null == screens ? null : screens.get(context);
+    if (null == screen) {
+      screen = computeScreenWithoutStatusBarActionBar(context);
+      if (remembering) {
+        if (null == screens) {
+          screens = new IdentityHashMap<Context, Rect>();
+        }
+        screens.put(context, screen);
+      }
+    }
+    return screen;
+  }
+
+  private static Rect computeScreenWithoutStatusBarActionBar(Context context) {
+    DisplayMetrics m = new DisplayMetrics();
+    ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+        .getDefaultDisplay().getMetrics(m);
+
+    // Get status bar height
+    int resourceId = context.getResources()
+        .getIdentifier("status_bar_height", "dimen", "android");
+    int statusBarHeight = (resourceId > 0) ? context.getResources()
+        .getDimensionPixelSize(resourceId) : 0;
+
+    // Get action bar height
+    TypedValue tv = new TypedValue();
+    int actionBarHeight = (context.getTheme().resolveAttribute(
+        android.R.attr.actionBarSize, tv, true)) ? TypedValue.complexToDimensionPixelSize(
+        tv.data, context.getResources().getDisplayMetrics()) : 0;
+
+    return new Rect(0, 0, m.widthPixels, m.heightPixels - (statusBarHeight + actionBarHeight));
+  }
+
+  private static int flagsOf(View view) {
+    switch (view.getVisibility()) {
+      case View.INVISIBLE:
+        return INVISIBLE_FLAG;
+      case View.GONE:
+        return GONE_FLAG;
+      default:
+        return VISIBLE;
+    }
+  }
+}
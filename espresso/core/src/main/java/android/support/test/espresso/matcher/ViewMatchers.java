@@ -16,24 +16,21 @@
 
 package android.support.test.espresso.matcher;
 
-import static android.support.test.espresso.util.TreeIterables.breadthFirstViewTraversal;
+import static android.support.test.espresso.util.TreeIterables.visitBreadthFirst;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.hamcrest.Matchers.is;
 
+import android.support.test.espresso.matcher.MatcherCost.Cost;
 import android.support.test.espresso.util.HumanReadables;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
+import android.support.test.espresso.util.TreeIterables.ViewVisitor;
+import android.support.test.espresso.util.TreeIterables.VisitResult;
 
-import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Rect;
-import android.util.DisplayMetrics;
-import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
-import android.view.WindowManager;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 import android.webkit.WebView;
@@ -49,8 +46,6 @@ import org.hamcrest.Matchers;
 import org.hamcrest.StringDescription;
 import org.hamcrest.TypeSafeMatcher;
 
-import java.util.Iterator;
-
 /**
  * A collection of hamcrest matchers that match {@link View}s.
  */
@@ -63,24 +58,15 @@ public final class ViewMatchers {
    * class. Some versions of Hamcrest make the generic typing of this a nightmare, so we have a
    * special case for our users.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isAssignableFrom(final Class<? extends View> clazz) {
-    checkNotNull(clazz);
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText("is assignable from class: " + clazz);
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        return clazz.isAssignableFrom(view.getClass());
-      }
-    };
+    return new IsAssignableFromMatcher(checkNotNull(clazz));
   }
 
  /**
    * Returns a matcher that matches Views with class name matching the given matcher.
    */
+  @MatcherCost(Cost.MODERATE)
   public static Matcher<View> withClassName(final Matcher<String> classNameMatcher) {
     checkNotNull(classNameMatcher);
     return new TypeSafeMatcher<View>() {
@@ -105,6 +91,7 @@ public final class ViewMatchers {
    * the view is greater then the height/width of the visible rectangle). If you wish to ensure the
    * entire rectangle this view draws is displayed to the user use isCompletelyDisplayed.
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> isDisplayed() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -114,8 +101,9 @@ public final class ViewMatchers {
 
       @Override
       public boolean matchesSafely(View view) {
-        return view.getGlobalVisibleRect(new Rect())
-            && withEffectiveVisibility(Visibility.VISIBLE).matches(view);
+        ViewGeometry geometry = ViewGeometry.current();
+        return geometry.getVisibilityFlags(view) == ViewGeometry.VISIBLE
+            && null != geometry.getGlobalVisibleRect(view);
       }
     };
   }
@@ -138,6 +126,7 @@ public final class ViewMatchers {
    * @param areaPercentage an integer ranging from (0, 100] indicating how much percent of the
    *   surface area of the view must be shown to the user to be accepted.
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> isDisplayingAtLeast(final int areaPercentage) {
     checkState(areaPercentage <= 100, "Cannot have over 100 percent: %s", areaPercentage);
     checkState(areaPercentage > 0, "Must have a positive, non-zero value: %s", areaPercentage);
@@ -150,13 +139,16 @@ public final class ViewMatchers {
 
       @Override
       public boolean matchesSafely(View view) {
-        Rect visibleParts = new Rect();
-        boolean visibleAtAll = view.getGlobalVisibleRect(visibleParts);
-        if (!visibleAtAll) {
+        ViewGeometry geometry = ViewGeometry.current();
+        if (geometry.getVisibilityFlags(view) != ViewGeometry.VISIBLE) {
+          return false;
+        }
+        Rect visibleParts = geometry.getGlobalVisibleRect(view);
+        if (null == visibleParts) {
           return false;
         }
 
-        Rect screen = getScreenWithoutStatusBarActionBar(view);
+        Rect screen = geometry.getScreenWithoutStatusBarActionBar(view.getContext());
         int viewHeight = (view.getHeight() > screen.height()) ? screen.height() : view.getHeight();
         int viewWidth = (view.getWidth() > screen.width()) ? screen.width() : view.getWidth();
 
@@ -164,28 +156,7 @@ public final class ViewMatchers {
         double visibleArea = visibleParts.height() * visibleParts.width();
         int displayedPercentage = (int) ((visibleArea / maxArea) * 100);
 
-        return displayedPercentage >= areaPercentage
-            && withEffectiveVisibility(Visibility.VISIBLE).matches(view);
-      }
-
-      private Rect getScreenWithoutStatusBarActionBar(View view) {
-        DisplayMetrics m = new DisplayMetrics();
-        ((WindowManager) view.getContext().getSystemService(Context.WINDOW_SERVICE))
-            .getDefaultDisplay().getMetrics(m);
-
-        // Get status bar height
-        int resourceId = view.getContext().getResources()
-            .getIdentifier("status_bar_height", "dimen", "android");
-        int statusBarHeight = (resourceId > 0) ? view.getContext().getResources()
-            .getDimensionPixelSize(resourceId) : 0;
-
-        // Get action bar height
-        TypedValue tv = new TypedValue();
-        int actionBarHeight = (view.getContext().getTheme().resolveAttribute(
-            android.R.attr.actionBarSize, tv, true)) ? TypedValue.complexToDimensionPixelSize(
-            tv.data, view.getContext().getResources().getDisplayMetrics()) : 0;
-
-        return new Rect(0, 0, m.widthPixels, m.heightPixels - (statusBarHeight + actionBarHeight));
+        return displayedPercentage >= areaPercentage;
       }
     };
   }
@@ -193,23 +164,15 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link View}s that are enabled.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isEnabled() {
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText("is enabled");
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        return view.isEnabled();
-      }
-    };
+    return new IsEnabledMatcher();
   }
 
   /**
    * Returns a matcher that matches {@link View}s that are focusable.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isFocusable() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -227,6 +190,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link View}s currently have focus.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> hasFocus() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -244,6 +208,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link View}s that are selected.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isSelected() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -271,6 +236,7 @@ public final class ViewMatchers {
    *     <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    *     <code>Matcher</code></a> for the sibling of the view.
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> hasSibling(final Matcher<View> siblingMatcher) {
     checkNotNull(siblingMatcher);
     return new TypeSafeMatcher<View>() {
@@ -288,7 +254,7 @@ public final class ViewMatchers {
         }
         ViewGroup parentGroup = (ViewGroup) parent;
         for (int i = 0; i < parentGroup.getChildCount(); i++) {
-          if (siblingMatcher.matches(parentGroup.getChildAt(i))) {
+          if (MatchMemo.matches(siblingMatcher, parentGroup.getChildAt(i))) {
             return true;
           }
         }
@@ -304,6 +270,7 @@ public final class ViewMatchers {
    *
    * @param resourceId the resource id of the content description to match on.
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withContentDescription(final int resourceId) {
     return new TypeSafeMatcher<View>() {
       private String resourceName = null;
@@ -363,6 +330,7 @@ public final class ViewMatchers {
    *     <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    *     <code>Matcher</code></a> for the content description
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withContentDescription(
       final Matcher<? extends CharSequence> charSequenceMatcher) {
     checkNotNull(charSequenceMatcher);
@@ -390,28 +358,7 @@ public final class ViewMatchers {
    * @param id the resource id.
    */
   public static Matcher<View> withId(final int id) {
-    return new TypeSafeMatcher<View>() {
-      Resources resources = null;
-      @Override
-      public void describeTo(Description description) {
-        String idDescription = Integer.toString(id);
-        if (resources != null) {
-          try {
-            idDescription = resources.getResourceName(id);
-          } catch (Resources.NotFoundException e) {
-            // No big deal, will just use the int value.
-            idDescription = String.format("%s (resource name not found)", id);
-          }
-        }
-        description.appendText("with id: " + idDescription);
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        resources = view.getResources();
-        return id == view.getId();
-      }
-    };
+    return new WithIdMatcher(id);
   }
 
   /**
@@ -421,6 +368,7 @@ public final class ViewMatchers {
    *
    * @param integerMatcher a Matcher for resource ids
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> withId(final Matcher<Integer> integerMatcher) {
     checkNotNull(integerMatcher);
     return new TypeSafeMatcher<View>() {
@@ -452,6 +400,7 @@ public final class ViewMatchers {
    * @param key to match
    * @param objectMatcher Object to match
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> withTagKey(final int key, final Matcher<Object> objectMatcher) {
     checkNotNull(objectMatcher);
     return new TypeSafeMatcher<View>() {
@@ -473,6 +422,7 @@ public final class ViewMatchers {
    *
    * @param tagValueMatcher a Matcher for the view's tag property value
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> withTagValue(final Matcher<Object> tagValueMatcher) {
     checkNotNull(tagValueMatcher);
     return new TypeSafeMatcher<View>() {
@@ -496,7 +446,10 @@ public final class ViewMatchers {
    * @param text {@link String} with the text to match
    */
   public static Matcher<View> withText(String text) {
-    return withText(is(text));
+    if (null == text) {
+      return withText(is(text));
+    }
+    return new WithTextMatcher(text);
   }
 
   /**
@@ -507,6 +460,7 @@ public final class ViewMatchers {
    *     <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    *     <code>Matcher</code></a> of {@link String} with text to match
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withText(final Matcher<String> stringMatcher) {
     checkNotNull(stringMatcher);
     return new BoundedMatcher<View, TextView>(TextView.class) {
@@ -533,6 +487,7 @@ public final class ViewMatchers {
     return withCharSequence(resourceId, TextViewMethod.GET_TEXT);
   }
 
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   private static Matcher<View> withCharSequence(final int resourceId, final TextViewMethod method) {
     return new BoundedMatcher<View, TextView>(TextView.class) {
       private String resourceName = null;
@@ -605,6 +560,7 @@ public final class ViewMatchers {
    *     <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    *     <code>Matcher</code></a> of {@link String} with text to match
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withHint(final Matcher<String> stringMatcher) {
     checkNotNull(stringMatcher);
     return new BoundedMatcher<View, TextView>(TextView.class) {
@@ -647,6 +603,7 @@ public final class ViewMatchers {
     return withCheckBoxState(is(false));
   }
 
+  @MatcherCost(Cost.CHEAP)
   private static <E extends View & Checkable> Matcher<View> withCheckBoxState(
       final Matcher<Boolean> checkStateMatcher) {
 
@@ -668,6 +625,7 @@ public final class ViewMatchers {
    * Returns an <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    * <code>Matcher</code></a> that matches {@link View}s with any content description.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> hasContentDescription() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -688,6 +646,7 @@ public final class ViewMatchers {
    *
    * @param descendantMatcher the type of the descendant to match on
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> hasDescendant(final Matcher<View> descendantMatcher) {
     checkNotNull(descendantMatcher);
     return new TypeSafeMatcher<View>() {
@@ -699,17 +658,33 @@ public final class ViewMatchers {
 
       @Override
       public boolean matchesSafely(final View view) {
-        final Predicate<View> matcherPredicate = new Predicate<View>() {
+        if (MatchMemo.isOpen()) {
+          return anyDescendantMatches(view);
+        }
+        View matchedView = visitBreadthFirst(view, new ViewVisitor() {
           @Override
-          public boolean apply(View input) {
-            return input != view && descendantMatcher.matches(input);
+          public VisitResult visit(View input, int distanceFromRoot) {
+            return input != view && descendantMatcher.matches(input)
+                ? VisitResult.STOP
+                : VisitResult.CONTINUE;
           }
-        };
-
-        Iterator<View> matchedViewIterator =
-            Iterables.filter(breadthFirstViewTraversal(view), matcherPredicate).iterator();
+        });
+        return null != matchedView;
+      }
 
-        return matchedViewIterator.hasNext();
+      private boolean anyDescendantMatches(View view) {
+        if (!(view instanceof ViewGroup)) {
+          return false;
+        }
+        ViewGroup group = (ViewGroup) view;
+        for (int i = 0; i < group.getChildCount(); i++) {
+          View child = group.getChildAt(i);
+          // whether the child has a matching descendant is remembered for the view's ancestors.
+          if (MatchMemo.matches(descendantMatcher, child) || MatchMemo.matches(this, child)) {
+            return true;
+          }
+        }
+        return false;
       }
     };
   }
@@ -717,18 +692,9 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link View}s that are clickable.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isClickable() {
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText("is clickable");
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        return view.isClickable();
-      }
-    };
+    return new IsClickableMatcher();
   }
 
   /**
@@ -736,31 +702,9 @@ public final class ViewMatchers {
    *
    * @param ancestorMatcher the type of the ancestor to match on
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> isDescendantOfA(final Matcher<View> ancestorMatcher) {
-    checkNotNull(ancestorMatcher);
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText("is descendant of a: ");
-        ancestorMatcher.describeTo(description);
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        return checkAncestors(view.getParent(), ancestorMatcher);
-      }
-
-      private boolean checkAncestors(
-        ViewParent viewParent, Matcher<View> ancestorMatcher) {
-        if (!(viewParent instanceof View)) {
-          return false;
-        }
-        if (ancestorMatcher.matches(viewParent)) {
-          return true;
-        }
-        return checkAncestors(viewParent.getParent(), ancestorMatcher);
-      }
-    };
+    return new IsDescendantOfAMatcher(checkNotNull(ancestorMatcher));
   }
 
   /**
@@ -778,41 +722,9 @@ public final class ViewMatchers {
    * order to be actually visible to the user. Unless you're specifically targeting the visibility
    * value with your test, use isDisplayed.
    */
-  public static Matcher<View> withEffectiveVisibility(final Visibility visibility) {
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText(
-            String.format("view has effective visibility=%s", visibility));
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        if (visibility.getValue() == View.VISIBLE) {
-          if (view.getVisibility() != visibility.getValue()) {
-            return false;
-          }
-          while (view.getParent() != null && view.getParent() instanceof View) {
-            view = (View) view.getParent();
-            if (view.getVisibility() != visibility.getValue()) {
-              return false;
-            }
-          }
-          return true;
-        } else {
-          if (view.getVisibility() == visibility.getValue()) {
-            return true;
-          }
-          while (view.getParent() != null && view.getParent() instanceof View) {
-            view = (View) view.getParent();
-            if (view.getVisibility() == visibility.getValue()) {
-              return true;
-            }
-          }
-          return false;
-        }
-      }
-    };
+  @MatcherCost(Cost.MODERATE)
+  public static Matcher<View> withEffectiveVisibility(Visibility visibility) {
+    return new WithEffectiveVisibilityMatcher(visibility);
   }
 
   /**
@@ -838,6 +750,7 @@ public final class ViewMatchers {
    *
    * @param parentMatcher the matcher to apply on getParent.
    */
+  @MatcherCost(Cost.MODERATE)
   public static Matcher<View> withParent(final Matcher<View> parentMatcher) {
     checkNotNull(parentMatcher);
     return new TypeSafeMatcher<View>() {
@@ -849,7 +762,7 @@ public final class ViewMatchers {
 
       @Override
       public boolean matchesSafely(View view) {
-        return parentMatcher.matches(view.getParent());
+        return MatchMemo.matches(parentMatcher, view.getParent());
       }
     };
   }
@@ -860,6 +773,7 @@ public final class ViewMatchers {
    *
    * @param childMatcher the matcher to apply on the child views.
    */
+  @MatcherCost(Cost.MODERATE)
   public static Matcher<View> withChild(final Matcher<View> childMatcher) {
     checkNotNull(childMatcher);
     return new TypeSafeMatcher<View>() {
@@ -877,7 +791,7 @@ public final class ViewMatchers {
 
         ViewGroup group = (ViewGroup) view;
         for (int i = 0; i < group.getChildCount(); i++) {
-          if (childMatcher.matches(group.getChildAt(i))) {
+          if (MatchMemo.matches(childMatcher, group.getChildAt(i))) {
             return true;
           }
         }
@@ -891,6 +805,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches root {@link View}.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isRoot() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -908,6 +823,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches views that support input methods.
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> supportsInputMethods() {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -941,6 +857,7 @@ public final class ViewMatchers {
    *
    * @param imeActionMatcher a matcher for the IME action
    */
+  @MatcherCost(Cost.EXPENSIVE)
   public static Matcher<View> hasImeAction(final Matcher<Integer> imeActionMatcher) {
     return new TypeSafeMatcher<View>() {
       @Override
@@ -966,6 +883,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link TextView}s that have links.
    */
+  @MatcherCost(Cost.MODERATE)
   public static Matcher<View> hasLinks() {
     return new BoundedMatcher<View, TextView>(TextView.class) {
       @Override
@@ -1020,6 +938,7 @@ public final class ViewMatchers {
    *
    * @param resourceId the string resource the text view is expected to hold.
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withSpinnerText(final int resourceId) {
 
     return new BoundedMatcher<View, Spinner>(Spinner.class) {
@@ -1069,6 +988,7 @@ public final class ViewMatchers {
    *     <a href="http://hamcrest.org/JavaHamcrest/javadoc/1.3/org/hamcrest/Matcher.html">
    *     <code>Matcher</code></a> of {@link String} with text to match.
    */
+  @MatcherCost(value = Cost.MODERATE, selective = true)
   public static Matcher<View> withSpinnerText(final Matcher<String> stringMatcher) {
     checkNotNull(stringMatcher);
     return new BoundedMatcher<View, Spinner>(Spinner.class) {
@@ -1097,6 +1017,7 @@ public final class ViewMatchers {
   /**
    * Returns a matcher that matches {@link WebView} if they are evaluating Javascript.
    */
+  @MatcherCost(Cost.CHEAP)
   public static Matcher<View> isJavascriptEnabled() {
     return new BoundedMatcher<View, WebView>(WebView.class) {
       @Override
@@ -1110,4 +1031,229 @@ public final class ViewMatchers {
       }
     };
   }
+
+  @MatcherCost(Cost.CHEAP)
+  private static final class IsAssignableFromMatcher extends TypeSafeMatcher<View>
+      implements SnapshotViewMatcher {
+    private final Class<? extends View> clazz;
+
+    private IsAssignableFromMatcher(Class<? extends View> clazz) {
+      this.clazz = clazz;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("is assignable from class: " + clazz);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return clazz.isAssignableFrom(view.getClass());
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return clazz.isAssignableFrom(view.getViewClass());
+    }
+  }
+
+  @MatcherCost(Cost.CHEAP)
+  private static final class IsEnabledMatcher extends TypeSafeMatcher<View>
+      implements SnapshotViewMatcher {
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("is enabled");
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return view.isEnabled();
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return view.isEnabled();
+    }
+  }
+
+  @MatcherCost(Cost.CHEAP)
+  private static final class IsClickableMatcher extends TypeSafeMatcher<View>
+      implements SnapshotViewMatcher {
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("is clickable");
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return view.isClickable();
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return view.isClickable();
+    }
+  }
+
+  @MatcherCost(Cost.MODERATE)
+  private static final class WithEffectiveVisibilityMatcher extends TypeSafeMatcher<View>
+      implements SnapshotViewMatcher {
+    private final Visibility visibility;
+
+    private WithEffectiveVisibilityMatcher(Visibility visibility) {
+      this.visibility = visibility;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText(
+          String.format("view has effective visibility=%s", visibility));
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      int flags = ViewGeometry.current().getVisibilityFlags(view);
+      switch (visibility) {
+        case INVISIBLE:
+          return (flags & ViewGeometry.INVISIBLE_FLAG) != 0;
+        case GONE:
+          return (flags & ViewGeometry.GONE_FLAG) != 0;
+        default:
+          return flags == ViewGeometry.VISIBLE;
+      }
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return view.hasEffectiveVisibility(visibility);
+    }
+  }
+
+  @MatcherCost(Cost.EXPENSIVE)
+  private static final class IsDescendantOfAMatcher extends TypeSafeMatcher<View>
+      implements ScopedViewMatcher {
+    private final Matcher<View> ancestorMatcher;
+
+    private IsDescendantOfAMatcher(Matcher<View> ancestorMatcher) {
+      this.ancestorMatcher = ancestorMatcher;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("is descendant of a: ");
+      ancestorMatcher.describeTo(description);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      if (MatchMemo.isOpen()) {
+        ViewParent parent = view.getParent();
+        // whether the parent is a descendant of a match is remembered for its other children.
+        return parent instanceof View
+            && (MatchMemo.matches(ancestorMatcher, parent) || MatchMemo.matches(this, parent));
+      }
+      return checkAncestors(view.getParent(), ancestorMatcher);
+    }
+
+    private boolean checkAncestors(
+      ViewParent viewParent, Matcher<View> ancestorMatcher) {
+      if (!(viewParent instanceof View)) {
+        return false;
+      }
+      if (ancestorMatcher.matches(viewParent)) {
+        return true;
+      }
+      return checkAncestors(viewParent.getParent(), ancestorMatcher);
+    }
+
+    @Override
+    public Matcher<View> getScopeMatcher() {
+      return ancestorMatcher;
+    }
+  }
+
+  @MatcherCost(value = Cost.CHEAP, selective = true)
+  private static final class WithIdMatcher extends TypeSafeMatcher<View>
+      implements IndexableViewMatcher, SnapshotViewMatcher {
+    private final int id;
+    private Resources resources = null;
+
+    private WithIdMatcher(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      String idDescription = Integer.toString(id);
+      if (resources != null) {
+        try {
+          idDescription = resources.getResourceName(id);
+        } catch (Resources.NotFoundException e) {
+          // No big deal, will just use the int value.
+          idDescription = String.format("%s (resource name not found)", id);
+        }
+      }
+      description.appendText("with id: " + idDescription);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      resources = view.getResources();
+      return id == view.getId();
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return id == view.getId();
+    }
+
+    @Override
+    public IndexType getIndexType() {
+      return IndexType.ID;
+    }
+
+    @Override
+    public Object getIndexKey() {
+      return id;
+    }
+  }
+
+  @MatcherCost(value = Cost.MODERATE, selective = true)
+  private static final class WithTextMatcher extends BoundedMatcher<View, TextView>
+      implements IndexableViewMatcher, SnapshotViewMatcher {
+    private final String text;
+    private final Matcher<String> stringMatcher;
+
+    private WithTextMatcher(String text) {
+      super(TextView.class);
+      this.text = checkNotNull(text);
+      this.stringMatcher = is(text);
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("with text: ");
+      stringMatcher.describeTo(description);
+    }
+
+    @Override
+    public boolean matchesSafely(TextView textView) {
+      return text.equals(textView.getText().toString());
+    }
+
+    @Override
+    public boolean matchesSnapshot(ViewSnapshot view) {
+      return text.equals(view.getText());
+    }
+
+    @Override
+    public IndexType getIndexType() {
+      return IndexType.TEXT;
+    }
+
+    @Override
+    public Object getIndexKey() {
+      return text;
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso.matcher;
+
+import android.support.test.espresso.matcher.ViewMatchers.Visibility;
+
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * The properties of a view, as they were when a snapshot of its hierarchy was taken on the main
+ * thread. Snapshots may be read from any thread.
+ */
+public interface ViewSnapshot {
+
+  /**
+   * Returns the {@link View#getId() id} of the view.
+   */
+  int getId();
+
+  Class<? extends View> getViewClass();
+
+  /**
+   * Returns the text of a {@link TextView}, or null for other views.
+   */
+  String getText();
+
+  boolean isEnabled();
+
+  boolean isClickable();
+
+  /**
+   * Whether the view has the given visibility, taking its ancestors' visibility into account like
+   * {@link ViewMatchers#withEffectiveVisibility(Visibility)}.
+   */
+  boolean hasEffectiveVisibility(Visibility visibility);
+}
@@ -19,21 +19,19 @@ package android.support.test.espresso.util;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
 
 import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Utility methods for iterating over tree structured items.
@@ -45,9 +43,13 @@ import java.util.Map;
  * generalization was done for testability concerns (since creating View hierarchies is a pain).
  *
  * Only public methods of this utility class are considered public API of the test framework.
+ *
+ * Traversals walk the children of each node by index and keep their work queue in an array, so
+ * nothing is allocated per node visited. Views can also be visited with a {@link ViewVisitor},
+ * which may end the traversal early or skip the descendants of a view.
  */
 public final class TreeIterables {
-  private static final TreeViewer<View> VIEW_TREE_VIEWER = new ViewTreeViewer();
+  private static final ViewTreeViewer VIEW_TREE_VIEWER = new ViewTreeViewer();
 
   private TreeIterables() { }
 
@@ -60,19 +62,21 @@ public final class TreeIterables {
    * @return An iterable of ViewAndDistance containing the view tree in a depth first order with
    *   the distance of a given node from the root.
    */
-  public static Iterable<ViewAndDistance> depthFirstViewTraversalWithDistance(View root) {
-    final DistanceRecordingTreeViewer<View> distanceRecorder =
-        new DistanceRecordingTreeViewer<View>(root, VIEW_TREE_VIEWER);
-
-
-    return Iterables.transform(
-        depthFirstTraversal(root, distanceRecorder),
-        new Function<View, ViewAndDistance>() {
+  public static Iterable<ViewAndDistance> depthFirstViewTraversalWithDistance(final View root) {
+    checkNotNull(root);
+    return new Iterable<ViewAndDistance>() {
+      @Override
+      public Iterator<ViewAndDistance> iterator() {
+        final TreeWalk<View> walk = new DepthFirstWalk<View>(root, VIEW_TREE_VIEWER);
+        return new TreeWalkIterator<ViewAndDistance, View>(walk) {
           @Override
-          public ViewAndDistance apply(View view) {
-            return new ViewAndDistance(view, distanceRecorder.getDistance(view));
+          ViewAndDistance toElement(View view) {
+            // the depth of the walk is the distance from the root.
+            return new ViewAndDistance(view, walk.depth());
           }
-        });
+        };
+      }
+    };
   }
 
   /**
@@ -107,6 +111,48 @@ public final class TreeIterables {
     return breadthFirstTraversal(root, VIEW_TREE_VIEWER);
   }
 
+  /**
+   * Visits the provided view and its children in the depth-first order of
+   * {@link #depthFirstViewTraversal(View)}.
+   *
+   * @param root the non-null, root view.
+   * @param visitor decides after each view how the traversal goes on.
+   * @return the view at which the visitor stopped the traversal, or {@code null} if it ran to
+   *   the end.
+   */
+  public static View visitDepthFirst(View root, ViewVisitor visitor) {
+    return visit(new DepthFirstWalk<View>(checkNotNull(root), VIEW_TREE_VIEWER), visitor);
+  }
+
+  /**
+   * Visits the provided view and its children in the breadth-first order of
+   * {@link #breadthFirstViewTraversal(View)}.
+   *
+   * @param root the non-null, root view.
+   * @param visitor decides after each view how the traversal goes on.
+   * @return the view at which the visitor stopped the traversal, or {@code null} if it ran to
+   *   the end.
+   */
+  public static View visitBreadthFirst(View root, ViewVisitor visitor) {
+    return visit(new BreadthFirstWalk<View>(checkNotNull(root), VIEW_TREE_VIEWER), visitor);
+  }
+
+  private static View visit(TreeWalk<View> walk, ViewVisitor visitor) {
+    checkNotNull(visitor);
+    for (View view = walk.next(); view != null; view = walk.next()) {
+      switch (checkNotNull(visitor.visit(view, walk.depth()))) {
+        case STOP:
+          return view;
+        case SKIP_CHILDREN:
+          walk.skipChildren();
+          break;
+        case CONTINUE:
+          break;
+      }
+    }
+    return null;
+  }
+
   /**
    * Creates a depth first traversing iterator of the tree rooted at root.
    *
@@ -151,19 +197,15 @@ public final class TreeIterables {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Iterator<T> iterator() {
-      final LinkedList<T> nodes = Lists.newLinkedList();
-      nodes.add(root);
-      return new AbstractIterator<T>() {
+      IndexedTreeViewer<T> indexedViewer = treeViewer instanceof IndexedTreeViewer
+          ? (IndexedTreeViewer<T>) treeViewer
+          : new ListTreeViewer<T>(treeViewer);
+      return new TreeWalkIterator<T, T>(traversalStrategy.walk(root, indexedViewer)) {
         @Override
-        public T computeNext() {
-          if (nodes.isEmpty()) {
-            return endOfData();
-          } else {
-            T nextItem = checkNotNull(traversalStrategy.next(nodes), "Null items not allowed!");
-            traversalStrategy.combineNewChildren(nodes, treeViewer.children(nextItem));
-            return nextItem;
-          }
+        T toElement(T node) {
+          return node;
         }
       };
     }
@@ -172,21 +214,251 @@ public final class TreeIterables {
   private enum TraversalStrategy {
     BREADTH_FIRST() {
       @Override
-      <T> void combineNewChildren(LinkedList<T> nodes, Collection<T> newChildren) {
-        nodes.addAll(newChildren);
+      <T> TreeWalk<T> walk(T root, IndexedTreeViewer<T> viewer) {
+        return new BreadthFirstWalk<T>(root, viewer);
       }
     }, DEPTH_FIRST() {
       @Override
-      <T> void combineNewChildren(LinkedList<T> nodes, Collection<T> newChildren) {
-        nodes.addAll(0, newChildren);
+      <T> TreeWalk<T> walk(T root, IndexedTreeViewer<T> viewer) {
+        return new DepthFirstWalk<T>(root, viewer);
       }
     };
 
-    abstract <T> void combineNewChildren(LinkedList<T> nodes, Collection<T> newChildren);
-    <T> T next(LinkedList<T> nodes) {
-      return nodes.removeFirst();
+    abstract <T> TreeWalk<T> walk(T root, IndexedTreeViewer<T> viewer);
+  }
+
+  /**
+   * Presents the nodes of a walk, converted to elements, as an Iterator.
+   */
+  private abstract static class TreeWalkIterator<E, T> extends UnmodifiableIterator<E> {
+    private final TreeWalk<T> walk;
+    private T nextNode;
+
+    private TreeWalkIterator(TreeWalk<T> walk) {
+      this.walk = walk;
+      this.nextNode = walk.next();
+    }
+
+    abstract E toElement(T node);
+
+    @Override
+    public boolean hasNext() {
+      return nextNode != null;
     }
 
+    @Override
+    public E next() {
+      if (nextNode == null) {
+        throw new NoSuchElementException();
+      }
+      // converted before advancing, while the walk still describes the node.
+      E element = toElement(nextNode);
+      nextNode = walk.next();
+      return element;
+    }
+  }
+
+  /**
+   * Walks a tree one node at a time, visiting the children of each node by index.
+   */
+  private abstract static class TreeWalk<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    final IndexedTreeViewer<T> viewer;
+    private T root;
+
+    TreeWalk(T root, IndexedTreeViewer<T> viewer) {
+      this.root = checkNotNull(root);
+      this.viewer = checkNotNull(viewer);
+    }
+
+    /**
+     * Returns the next node, or {@code null} once the whole tree has been walked.
+     */
+    final T next() {
+      if (root != null) {
+        T first = root;
+        root = null;
+        add(first, 0);
+        return first;
+      }
+      return nextChild();
+    }
+
+    /**
+     * The distance from the root of the node last returned by {@link #next}.
+     */
+    abstract int depth();
+
+    /**
+     * Leaves out the descendants of the node last returned by {@link #next}.
+     */
+    abstract void skipChildren();
+
+    abstract void add(T node, int depth);
+
+    abstract T nextChild();
+
+    final T childAt(T parent, int index) {
+      return checkNotNull(viewer.childAt(parent, index), "Null items not allowed!");
+    }
+
+    static Object[] grow(Object[] array, int size, int start) {
+      Object[] grown = new Object[Math.max(INITIAL_CAPACITY, array.length * 2)];
+      for (int i = 0; i < size; i++) {
+        grown[i] = array[(start + i) % array.length];
+      }
+      return grown;
+    }
+
+    static int[] grow(int[] array, int size, int start) {
+      int[] grown = new int[Math.max(INITIAL_CAPACITY, array.length * 2)];
+      for (int i = 0; i < size; i++) {
+        grown[i] = array[(start + i) % array.length];
+      }
+      return grown;
+    }
+  }
+
+  /**
+   * Keeps the path from the root to the current node, along with the index of the next child to
+   * walk of each node on it.
+   */
+  private static final class DepthFirstWalk<T> extends TreeWalk<T> {
+    private Object[] path = new Object[0];
+    private int[] nextChildIndex = new int[0];
+    private int size = 0;
+
+    DepthFirstWalk(T root, IndexedTreeViewer<T> viewer) {
+      super(root, viewer);
+    }
+
+    @Override
+    int depth() {
+      return size - 1;
+    }
+
+    @Override
+    void skipChildren() {
+      path[--size] = null;
+    }
+
+    @Override
+    void add(T node, int depth) {
+      if (size == path.length) {
+        path = grow(path, size, 0);
+        nextChildIndex = grow(nextChildIndex, size, 0);
+      }
+      path[size] = node;
+      nextChildIndex[size] = 0;
+      size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    T nextChild() {
+      while (size > 0) {
+        int top = size - 1;
+        T parent = (T) path[top];
+        int index = nextChildIndex[top];
+        if (index < viewer.childCount(parent)) {
+          nextChildIndex[top] = index + 1;
+          T child = childAt(parent, index);
+          add(child, size);
+          return child;
+        }
+        path[top] = null;
+        size = top;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Keeps a circular queue of the nodes whose children are still to be walked, along with their
+   * depth, and the index of the next child to walk of the node at its head.
+   */
+  private static final class BreadthFirstWalk<T> extends TreeWalk<T> {
+    private Object[] queue = new Object[0];
+    private int[] depths = new int[0];
+    private int head = 0;
+    private int size = 0;
+    private int headNextChildIndex = 0;
+    private int lastDepth = 0;
+
+    BreadthFirstWalk(T root, IndexedTreeViewer<T> viewer) {
+      super(root, viewer);
+    }
+
+    @Override
+    int depth() {
+      return lastDepth;
+    }
+
+    @Override
+    void skipChildren() {
+      // the node last returned was the last one queued.
+      size--;
+      queue[(head + size) % queue.length] = null;
+    }
+
+    @Override
+    void add(T node, int depth) {
+      if (size == queue.length) {
+        queue = grow(queue, size, head);
+        depths = grow(depths, size, head);
+        head = 0;
+      }
+      int tail = (head + size) % queue.length;
+      queue[tail] = node;
+      depths[tail] = depth;
+      size++;
+      lastDepth = depth;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    T nextChild() {
+      while (size > 0) {
+        T parent = (T) queue[head];
+        if (headNextChildIndex < viewer.childCount(parent)) {
+          T child = childAt(parent, headNextChildIndex++);
+          add(child, depths[head] + 1);
+          return child;
+        }
+        queue[head] = null;
+        head = (head + 1) % queue.length;
+        size--;
+        headNextChildIndex = 0;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Decides how a traversal goes on after a view has been visited.
+   */
+  public enum VisitResult {
+    /** Carry on with the traversal, including the descendants of the view. */
+    CONTINUE,
+    /** Carry on with the traversal, but leave out the descendants of the view. */
+    SKIP_CHILDREN,
+    /** End the traversal at the view. */
+    STOP
+  }
+
+  /**
+   * Visits the views of a hierarchy one at a time.
+   */
+  public interface ViewVisitor {
+    /**
+     * Visits a view of the hierarchy.
+     *
+     * @param view the view being visited.
+     * @param distanceFromRoot the number of levels between the view and the root of the traversal.
+     * @return how the traversal should go on.
+     */
+    VisitResult visit(View view, int distanceFromRoot);
   }
 
   /**
@@ -196,7 +468,17 @@ public final class TreeIterables {
    * ViewGroup.
    */
   @VisibleForTesting
-  static class ViewTreeViewer implements TreeViewer<View> {
+  static class ViewTreeViewer implements IndexedTreeViewer<View> {
+    @Override
+    public int childCount(View view) {
+      return view instanceof ViewGroup ? ((ViewGroup) view).getChildCount() : 0;
+    }
+
+    @Override
+    public View childAt(View view, int index) {
+      return ((ViewGroup) view).getChildAt(index);
+    }
+
     @Override
     public Collection<View> children(View view) {
       checkNotNull(view);
@@ -215,66 +497,76 @@ public final class TreeIterables {
   }
 
   /**
-   * Provides a tree view of items of instance T and records their distance from
-   * a well known root.
-   *
-   * It is assumed that this TreeViewer will only be called with nodes that it
-   * has processed via its children method, or the root node itself. Otherwise it
-   * will not be able to determine distance from the root and an exception will be thrown.
+   * Provides a way of viewing any instance of T as a tree so long as there exists a method
+   * for converting the instance of T into a Collection of that instance's direct children.
    *
-   * This class is stateful and only provides the correct distances after the underlying
-   * tree has been iterated over.
+   * This nice, sensible abstraction for dealing with objects with treelike properties was
+   * stolen from Guava's bug tracker. The Guava team is still working out the way trees
+   * should be exposed as Guava collections - so we have to provide our own.
    */
   @VisibleForTesting
-  static class DistanceRecordingTreeViewer<T> implements TreeViewer<T> {
-    private final T root;
-    private final Map<T, Integer> nodeToDistance = Maps.newHashMap();
+  interface TreeViewer<T> {
+
+    /**
+     * Returns a collection view of the children of this node.
+     */
+    Collection<T> children(T instance);
+  }
+
+  /**
+   * A TreeViewer which can also give the children of a node one at a time, so they can be
+   * walked without copying them.
+   */
+  @VisibleForTesting
+  interface IndexedTreeViewer<T> extends TreeViewer<T> {
+
+    /**
+     * Returns the number of direct children of this node.
+     */
+    int childCount(T instance);
+
+    /**
+     * Returns the direct child of this node at the given position.
+     */
+    T childAt(T instance, int index);
+  }
+
+  /**
+   * Adapts a TreeViewer to walk by index, asking it for the children of each node only once.
+   */
+  private static class ListTreeViewer<T> implements IndexedTreeViewer<T> {
     private final TreeViewer<T> delegateViewer;
+    private final Map<T, List<T>> nodeToChildren = new IdentityHashMap<T, List<T>>();
 
-    DistanceRecordingTreeViewer(T root, TreeViewer<T> delegateViewer) {
-      this.root = checkNotNull(root);
+    ListTreeViewer(TreeViewer<T> delegateViewer) {
       this.delegateViewer = checkNotNull(delegateViewer);
     }
 
-    int getDistance(T node) {
-      return checkNotNull(nodeToDistance.get(node), "Never seen %s before", node);
+    @Override
+    public Collection<T> children(T instance) {
+      return childList(instance);
     }
 
     @Override
-    public Collection<T> children(final T node) {
-      if (node == root) {
-        // base case.
-        nodeToDistance.put(node, 0);
-      }
+    public int childCount(T instance) {
+      return childList(instance).size();
+    }
 
-      int myDistance = getDistance(node);
-      final int childDistance = myDistance + 1;
-      Collection<T> children = delegateViewer.children(node);
+    @Override
+    public T childAt(T instance, int index) {
+      return childList(instance).get(index);
+    }
 
-      for (T child : children) {
-        nodeToDistance.put(child, childDistance);
+    private List<T> childList(T instance) {
+      List<T> children = nodeToChildren.get(instance);
+      if (null == children) {
+        children = Lists.newArrayList(delegateViewer.children(instance));
+        nodeToChildren.put(instance, children);
       }
       return children;
     }
   }
 
-  /**
-   * Provides a way of viewing any instance of T as a tree so long as there exists a method
-   * for converting the instance of T into a Collection of that instance's direct children.
-   *
-   * This nice, sensible abstraction for dealing with objects with treelike properties was
-   * stolen from Guava's bug tracker. The Guava team is still working out the way trees
-   * should be exposed as Guava collections - so we have to provide our own.
-   */
-  @VisibleForTesting
-  interface TreeViewer<T> {
-
-    /**
-     * Returns a collection view of the children of this node.
-     */
-    Collection<T> children(T instance);
-  }
-
 
 
   /**
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.espresso;
+
+/**
+ * An {@link IdlingResource} which reliably reports every change of its state - to busy as well as
+ * to idle - through its {@link TransitionCallback}.
+ * <br><br>
+ * Espresso tracks such resources purely by their transitions rather than polling
+ * {@link #isIdleNow()} before every view operation, so checking them costs the same however many
+ * are registered. {@link #isIdleNow()} is still called when the resource is registered, when
+ * Espresso reports busy resources and to confirm each reported transition.
+ * <br><br>
+ * The callback may be invoked from any thread, but never while holding a lock that
+ * {@link #isIdleNow()} acquires. Transitions happening on different threads may be reported out
+ * of order, as long as each is reported after it happened.
+ */
+public interface TransitionReportingIdlingResource extends IdlingResource {
+
+  /**
+   * Registers the given {@link TransitionCallback} with the resource. Espresso calls this method
+   * instead of {@link #registerIdleTransitionCallback(ResourceCallback)}, once, from the main
+   * thread.
+   */
+  public void registerTransitionCallback(TransitionCallback callback);
+
+  /**
+   * Registered by a {@link TransitionReportingIdlingResource} to notify Espresso of every
+   * transition.
+   */
+  public interface TransitionCallback extends ResourceCallback {
+    /**
+     * Called when the resource goes from idle to busy.
+     */
+    public void onTransitionToBusy();
+  }
+}